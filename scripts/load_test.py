@@ -0,0 +1,132 @@
+#!/usr/bin/env python3
+"""
+RAG Service Concurrency Load Test
+Ramps the number of concurrent in-flight requests against one endpoint and reports, per level,
+throughput, latency percentiles and errors. Run it once per rag.execution.mode (platform, virtual)
+with the same gateway/Milvus behind the service and compare the "sustained" line.
+
+Example:
+    java -jar app.jar --rag.execution.mode=platform   # then:
+    python3 scripts/load_test.py --endpoint ask --levels 50,100,200,400,800 --label platform
+    java -jar app.jar --rag.execution.mode=virtual    # then:
+    python3 scripts/load_test.py --endpoint ask --levels 50,100,200,400,800 --label virtual
+
+Only the standard library is used. Each in-flight request holds one client thread, so the client
+itself is not the bottleneck until several thousand levels.
+"""
+
+import argparse
+import json
+import threading
+import time
+import urllib.error
+import urllib.parse
+import urllib.request
+from concurrent.futures import ThreadPoolExecutor
+from typing import Dict, List, Any
+
+ENDPOINTS = {
+    "ask": ("GET", "/rag/ask?prompt=" + urllib.parse.quote("What is retrieval augmented generation?"), None),
+    "search": ("POST", "/rag/search", {"query": "retrieval augmented generation", "topK": 5}),
+    "agent": ("POST", "/agent/tool-call", {"message": "What time is it?"}),
+}
+
+
+def percentile(values: List[float], p: float) -> float:
+    if not values:
+        return 0.0
+    values = sorted(values)
+    k = min(len(values) - 1, int(round(p / 100.0 * (len(values) - 1))))
+    return values[k]
+
+
+def run_level(base_url: str, endpoint: str, concurrency: int, duration_s: float, timeout_s: float) -> Dict[str, Any]:
+    """Keep `concurrency` requests in flight for `duration_s` seconds."""
+    method, path, body = ENDPOINTS[endpoint]
+    data = json.dumps(body).encode() if body is not None else None
+    latencies: List[float] = []
+    errors: Dict[str, int] = {}
+    lock = threading.Lock()
+    in_flight = 0
+    peak_in_flight = 0
+    deadline = time.time() + duration_s
+
+    def worker() -> None:
+        nonlocal in_flight, peak_in_flight
+        while time.time() < deadline:
+            req = urllib.request.Request(base_url + path, data=data, method=method)
+            if data is not None:
+                req.add_header("Content-Type", "application/json")
+            with lock:
+                in_flight += 1
+                peak_in_flight = max(peak_in_flight, in_flight)
+            start = time.time()
+            err = None
+            try:
+                with urllib.request.urlopen(req, timeout=timeout_s) as resp:
+                    resp.read()
+            except urllib.error.HTTPError as e:
+                err = f"http_{e.code}"
+            except Exception as e:  # timeouts, refused/reset connections
+                err = type(e).__name__
+            elapsed_ms = (time.time() - start) * 1000
+            with lock:
+                in_flight -= 1
+                if err is None:
+                    latencies.append(elapsed_ms)
+                else:
+                    errors[err] = errors.get(err, 0) + 1
+
+    with ThreadPoolExecutor(max_workers=concurrency) as pool:
+        for _ in range(concurrency):
+            pool.submit(worker)
+
+    total = len(latencies) + sum(errors.values())
+    return {
+        "concurrency": concurrency,
+        "requests": total,
+        "ok": len(latencies),
+        "errors": errors,
+        "error_rate": (sum(errors.values()) / total) if total else 0.0,
+        "rps": len(latencies) / duration_s,
+        "p50_ms": percentile(latencies, 50),
+        "p99_ms": percentile(latencies, 99),
+        "peak_in_flight": peak_in_flight,
+    }
+
+
+def main() -> None:
+    parser = argparse.ArgumentParser(description="Concurrency load test for the RAG service")
+    parser.add_argument("--url", default="http://localhost:8086")
+    parser.add_argument("--endpoint", choices=sorted(ENDPOINTS), default="ask")
+    parser.add_argument("--levels", default="25,50,100,200,400,800")
+    parser.add_argument("--duration", type=float, default=20.0, help="seconds per level")
+    parser.add_argument("--timeout", type=float, default=30.0, help="client timeout per request (s)")
+    parser.add_argument("--max-error-rate", type=float, default=0.01)
+    parser.add_argument("--max-p99-ms", type=float, default=10000.0)
+    parser.add_argument("--label", default="", help="e.g. platform / virtual, printed with the results")
+    parser.add_argument("--json", action="store_true", help="print raw results as JSON")
+    args = parser.parse_args()
+
+    results = []
+    sustained = 0
+    print(f"\n{'='*78}\n  {args.endpoint} @ {args.url}  {args.label}\n{'='*78}")
+    print(f"{'in-flight':>10} {'requests':>9} {'ok rps':>8} {'p50 ms':>9} {'p99 ms':>9} {'errors':>8}  peak")
+    for level in [int(x) for x in args.levels.split(",") if x.strip()]:
+        r = run_level(args.url, args.endpoint, level, args.duration, args.timeout)
+        results.append(r)
+        healthy = r["error_rate"] <= args.max_error_rate and r["p99_ms"] <= args.max_p99_ms
+        if healthy:
+            sustained = level
+        print(f"{level:>10} {r['requests']:>9} {r['rps']:>8.1f} {r['p50_ms']:>9.0f} {r['p99_ms']:>9.0f} "
+              f"{r['error_rate']:>7.1%}  {r['peak_in_flight']}" + ("" if healthy else "  <- over budget"))
+
+    print(f"\nsustained in-flight ({args.label or 'this run'}): {sustained} "
+          f"(error rate <= {args.max_error_rate:.0%}, p99 <= {args.max_p99_ms:.0f} ms)")
+    if args.json:
+        print(json.dumps({"label": args.label, "endpoint": args.endpoint, "sustained": sustained,
+                          "levels": results}, indent=2))
+
+
+if __name__ == "__main__":
+    main()
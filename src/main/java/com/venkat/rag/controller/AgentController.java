@@ -1,24 +1,65 @@
 package com.venkat.rag.controller;
 
+import com.venkat.rag.service.RequestExecutor;
 import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/agent")
 public class AgentController {
 
   private final com.venkat.rag.service.AgentService agentService;
+  private final RequestExecutor requestExecutor;
+  private final long streamTimeoutMs;
 
-  public AgentController(com.venkat.rag.service.AgentService agentService) {
+  public AgentController(com.venkat.rag.service.AgentService agentService, RequestExecutor requestExecutor,
+                         @Value("${rag.stream.timeoutMs:120000}") long streamTimeoutMs) {
     this.agentService = agentService;
+    this.requestExecutor = requestExecutor;
+    this.streamTimeoutMs = streamTimeoutMs;
   }
 
   @PostMapping("/tool-call")
-  public com.venkat.rag.dto.AgentResponse callAgent(@Valid @RequestBody com.venkat.rag.dto.AgentRequest req,
-                                 @RequestHeader(value = "x-request-id", required = false) String requestId) throws Exception {
+  public CompletableFuture<com.venkat.rag.dto.AgentResponse> callAgent(@Valid @RequestBody com.venkat.rag.dto.AgentRequest req,
+                                 @RequestHeader(value = "x-request-id", required = false) String requestId) {
     String rid = (requestId == null || requestId.isBlank()) ? UUID.randomUUID().toString() : requestId;
-    return agentService.run(req.getMessage(), rid, req.getRetrievedChunkIds());
+    return requestExecutor.submit(() -> agentService.run(req.getMessage(), rid, req.getRetrievedChunkIds()));
+  }
+
+  /** Streamed variant for text/event-stream clients: "token" events, then "done" with the full AgentResponse. */
+  @PostMapping(value = "/tool-call", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter callAgentStream(@Valid @RequestBody com.venkat.rag.dto.AgentRequest req,
+                                    @RequestHeader(value = "x-request-id", required = false) String requestId) {
+    String rid = (requestId == null || requestId.isBlank()) ? UUID.randomUUID().toString() : requestId;
+    SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+    requestExecutor.executor().execute(() -> {
+      try {
+        var response = agentService.run(req.getMessage(), rid, req.getRetrievedChunkIds(),
+            token -> send(emitter, "token", Map.of("content", token)));
+        send(emitter, "done", response);
+        emitter.complete();
+      } catch (Exception e) {
+        emitter.completeWithError(e);
+      }
+    });
+    return emitter;
+  }
+
+  private static void send(SseEmitter emitter, String event, Object data) {
+    try {
+      emitter.send(SseEmitter.event().name(event).data(data));
+    } catch (IOException e) {
+      // client went away; aborting here also closes the upstream stream
+      throw new UncheckedIOException(e);
+    }
   }
 }
\ No newline at end of file
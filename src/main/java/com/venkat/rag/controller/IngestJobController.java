@@ -0,0 +1,49 @@
+package com.venkat.rag.controller;
+
+import com.venkat.rag.dto.IngestJobStatus;
+import com.venkat.rag.dto.IngestRequest;
+import com.venkat.rag.service.IngestJobs;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/rag/jobs")
+public class IngestJobController {
+
+  private final IngestJobs ingestJobs;
+
+  public IngestJobController(IngestJobs ingestJobs) {
+    this.ingestJobs = ingestJobs;
+  }
+
+  /** Queues the corpus as a background job; poll GET /rag/jobs/{jobId} for progress. */
+  @PostMapping
+  public ResponseEntity<IngestJobStatus> submit(@Valid @RequestBody IngestRequest req) {
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(ingestJobs.submit(req.getDocuments()));
+  }
+
+  @GetMapping
+  public List<IngestJobStatus> list() {
+    return ingestJobs.list();
+  }
+
+  @GetMapping("/{jobId}")
+  public ResponseEntity<IngestJobStatus> status(@PathVariable("jobId") String jobId) {
+    return ResponseEntity.of(ingestJobs.status(jobId));
+  }
+
+  @PostMapping("/{jobId}/cancel")
+  public ResponseEntity<IngestJobStatus> cancel(@PathVariable("jobId") String jobId) {
+    return ResponseEntity.of(ingestJobs.cancel(jobId));
+  }
+
+  /** Restarts a FAILED job from its last checkpoint. */
+  @PostMapping("/{jobId}/resume")
+  public ResponseEntity<IngestJobStatus> resume(@PathVariable("jobId") String jobId) {
+    return ResponseEntity.of(ingestJobs.resume(jobId));
+  }
+}
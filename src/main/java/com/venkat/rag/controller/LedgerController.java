@@ -0,0 +1,33 @@
+package com.venkat.rag.controller;
+
+import com.venkat.rag.metrics.TokenLedger;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/rag/ledger")
+public class LedgerController {
+
+  private final TokenLedger ledger;
+
+  public LedgerController(TokenLedger ledger) {
+    this.ledger = ledger;
+  }
+
+  /**
+   * Tokens and cost per model and route, e.g. GET /rag/ledger?windowSeconds=900 for the last 15
+   * minutes. Without a window the totals run since startup.
+   */
+  @GetMapping
+  public TokenLedger.Report report(@RequestParam(name = "windowSeconds", defaultValue = "0") long windowSeconds,
+      @RequestParam(name = "model", required = false) String model,
+      @RequestParam(name = "route", required = false) String route) {
+    return ledger.report(windowSeconds, model, route);
+  }
+
+  @GetMapping("/prices")
+  public Map<String, TokenLedger.Price> prices() {
+    return ledger.prices();
+  }
+}
@@ -3,32 +3,71 @@ package com.venkat.rag.controller;
 import com.venkat.rag.model.Document;
 import com.venkat.rag.service.AgentService;
 import com.venkat.rag.service.Chunker;
+import com.venkat.rag.service.ContextPacker;
+import com.venkat.rag.service.EmbeddingCache;
+import com.venkat.rag.service.GatewayTransport;
+import com.venkat.rag.service.IngestPipeline;
 import com.venkat.rag.service.RagService;
-import com.venkat.rag.store.MilvusVectorStore;
+import com.venkat.rag.service.RequestExecutor;
+import com.venkat.rag.service.SemanticAnswerCache;
+import com.venkat.rag.store.Bm25Index;
+import com.venkat.rag.store.SearchFilter;
 import com.venkat.rag.store.VectorStore;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.venkat.rag.dto.IngestRequest;
 import com.venkat.rag.dto.IngestResponse;
 import com.venkat.rag.dto.SearchRequest;
 import com.venkat.rag.dto.SearchResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/rag")
 public class RagController {
+  private static final String NDJSON = "application/x-ndjson";
 
   private final RagService ragService;
   private final Chunker chunker;
-  private final MilvusVectorStore milvusVectorStore; // for showing stored count
+  private final EmbeddingCache embeddingCache;
+  private final SemanticAnswerCache answerCache;
+  private final RequestExecutor requestExecutor;
+  private final GatewayTransport gatewayTransport;
+  private final ContextPacker contextPacker;
+  private final IngestPipeline ingestPipeline;
+  private final Bm25Index lexicalIndex;
+  private final long streamTimeoutMs;
   
-  public RagController(RagService ragService, Chunker chunker, MilvusVectorStore milvusVectorStore,
-      AgentService agentService, @Value("${rag.chunkSize}") int chunkSize, @Value("${rag.overlap}") int overlap) {
+
+  public RagController(RagService ragService, Chunker chunker,
+      AgentService agentService, EmbeddingCache embeddingCache, SemanticAnswerCache answerCache,
+      RequestExecutor requestExecutor, GatewayTransport gatewayTransport, ContextPacker contextPacker,
+      IngestPipeline ingestPipeline, Bm25Index lexicalIndex, @Value("${rag.stream.timeoutMs:120000}") long streamTimeoutMs,
+      @Value("${rag.chunkSize}") int chunkSize, @Value("${rag.overlap}") int overlap) {
     this.ragService = ragService;
     this.chunker = chunker;
-    this.milvusVectorStore = milvusVectorStore;
+    this.embeddingCache = embeddingCache;
+    this.answerCache = answerCache;
+    this.requestExecutor = requestExecutor;
+    this.gatewayTransport = gatewayTransport;
+    this.contextPacker = contextPacker;
+    this.ingestPipeline = ingestPipeline;
+    this.lexicalIndex = lexicalIndex;
+    this.streamTimeoutMs = streamTimeoutMs;
     this.chunker.configure(chunkSize, overlap);
    
   }
@@ -38,22 +77,100 @@ public class RagController {
     List<Document> docs = req.getDocuments().stream()
         .map(d -> new Document(d.getDocumentId(), d.getTitle(), d.getSource(), d.getText())).toList();
 
-    int chunksStored = ragService.ingest(docs);
-    return IngestResponse.builder().documentsIngested(docs.size()).chunksStored(chunksStored).build();
+    return ragService.ingest(docs);
+  }
+
+  /**
+   * Streaming variant of {@link #ingest}: one document object per line in, one progress line per
+   * stored document out, then a "done" (or "error") line.
+   */
+  @PostMapping(value = "/ingest", consumes = NDJSON, produces = NDJSON)
+  public void ingestStream(InputStream body, HttpServletResponse response) throws IOException {
+    response.setContentType(NDJSON);
+    ingestPipeline.ingest(body, response.getOutputStream());
+  }
+
+  @GetMapping("/ready")
+  public ResponseEntity<Map<String, Object>> ready() {
+    boolean ready = ragService.isReady();
+    return ResponseEntity.status(ready ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("ready", ready));
+  }
+
+  @GetMapping("/embedding-cache/stats")
+  public EmbeddingCache.Stats embeddingCacheStats() {
+    return embeddingCache.stats();
+  }
+
+  @GetMapping("/answer-cache/stats")
+  public SemanticAnswerCache.Stats answerCacheStats() {
+    return answerCache.stats();
+  }
+
+  @GetMapping("/gateway-transport/stats")
+  public GatewayTransport.Stats gatewayTransportStats() {
+    return gatewayTransport.stats();
+  }
+
+  @GetMapping("/lexical/stats")
+  public Bm25Index.Stats lexicalStats() {
+    return lexicalIndex.stats();
+  }
+
+  @GetMapping("/context/stats")
+  public ContextPacker.Stats contextStats() {
+    return contextPacker.stats();
   }
 
   @GetMapping("/ask")
-  public String ask(@RequestParam("prompt") String prompt) {
-    return ragService.ask(prompt);
+  public CompletableFuture<String> ask(@RequestParam("prompt") String prompt) {
+    return requestExecutor.submit(() -> ragService.ask(prompt));
+  }
+
+  /** Same as {@link #ask} for clients that accept text/event-stream: one "token" event per delta, then "done". */
+  @GetMapping(value = "/ask", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter askStream(@RequestParam("prompt") String prompt) {
+    SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+    requestExecutor.executor().execute(() -> {
+      try {
+        String answer = ragService.ask(prompt, token -> send(emitter, "token", Map.of("content", token)));
+        send(emitter, "done", Map.of("answer", answer));
+        emitter.complete();
+      } catch (RuntimeException e) {
+        emitter.completeWithError(e);
+      }
+    });
+    return emitter;
+  }
+
+  private static void send(SseEmitter emitter, String event, Object data) {
+    try {
+      emitter.send(SseEmitter.event().name(event).data(data));
+    } catch (IOException e) {
+      // client went away; aborting here also closes the upstream stream
+      throw new UncheckedIOException(e);
+    }
   }
 
  
 
+  /** 400 with the valid modes for an unknown mode, or lexical/hybrid while the BM25 index is disabled. */
   @PostMapping("/search")
-  public SearchResponse search(@Valid @RequestBody SearchRequest req) {
+  public CompletableFuture<ResponseEntity<Object>> search(@Valid @RequestBody SearchRequest req) {
+    RagService.RetrievalMode mode;
+    try {
+      mode = ragService.retrievalMode(req.getMode());
+    } catch (IllegalArgumentException e) {
+      List<String> modes = ragService.retrievalModes().stream().map(m -> m.name().toLowerCase(Locale.ROOT)).toList();
+      return CompletableFuture.completedFuture(
+          ResponseEntity.badRequest().body(Map.of("error", e.getMessage(), "modes", modes)));
+    }
+    return requestExecutor.submit(() -> ResponseEntity.ok(doSearch(req, mode)));
+  }
+
+  private SearchResponse doSearch(SearchRequest req, RagService.RetrievalMode mode) {
     int topK = (req.getTopK() == null || req.getTopK() <= 0) ? 5 : req.getTopK();
 
-    List<VectorStore.ScoredRecord> scored = ragService.retrieve(req.getQuery(), topK);
+    List<VectorStore.ScoredRecord> scored = ragService.retrieve(req.getQuery(), topK, toFilter(req.getFilter()), mode);
 
     var results = scored.stream().map(sr -> {
       var c = sr.record().payload();
@@ -64,4 +181,16 @@ public class RagController {
     return SearchResponse.builder().query(req.getQuery()).topK(topK).results(results).build();
   }
 
+  private static SearchFilter toFilter(SearchRequest.Filter f) {
+    if (f == null) return null;
+    return new SearchFilter(nonNull(f.getDocumentIds()), nonNull(f.getSources()), nonNull(f.getDocumentTitles()));
+  }
+
+  private static Set<String> nonNull(List<String> values) {
+    if (values == null) return null;
+    Set<String> out = new HashSet<>(values);
+    out.remove(null);
+    return out;
+  }
+
 }
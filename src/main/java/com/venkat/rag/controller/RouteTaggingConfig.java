@@ -0,0 +1,41 @@
+package com.venkat.rag.controller;
+
+import com.venkat.rag.metrics.RequestRoute;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Sets the {@link RequestRoute} for each request to its handler's URL pattern (e.g.
+ * "/rag/jobs/{jobId}", never the raw path, so metric tags stay bounded) and clears it when the
+ * request thread is done, including when the handler continues asynchronously.
+ */
+@Configuration
+public class RouteTaggingConfig implements WebMvcConfigurer {
+
+  @Override
+  public void addInterceptors(InterceptorRegistry registry) {
+    registry.addInterceptor(new AsyncHandlerInterceptor() {
+      @Override
+      public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        RequestRoute.set(pattern != null ? pattern.toString() : RequestRoute.NONE);
+        return true;
+      }
+
+      @Override
+      public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        RequestRoute.clear();
+      }
+
+      @Override
+      public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        RequestRoute.clear();
+      }
+    });
+  }
+}
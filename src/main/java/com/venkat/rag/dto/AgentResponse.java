@@ -3,6 +3,8 @@ package com.venkat.rag.dto;
 import lombok.Builder;
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 @Builder
 public class AgentResponse {
@@ -10,6 +12,7 @@ public class AgentResponse {
   private String model;
   private long latencyMs;
   private Usage usage;
+  private List<Round> rounds;
   private String answer;
 
   @Data
@@ -19,4 +22,23 @@ public class AgentResponse {
     private Integer completionTokens;
     private Integer totalTokens;
   }
-} 
\ No newline at end of file
+
+  /** One model call plus the tool calls it requested (none for the final answer). */
+  @Data
+  @Builder
+  public static class Round {
+    private int round;
+    private long modelLatencyMs;
+    private long toolLatencyMs;
+    private List<ToolCall> tools;
+  }
+
+  @Data
+  @Builder
+  public static class ToolCall {
+    private String id;
+    private String name;
+    private String status; // ok | timeout | error
+    private long latencyMs;
+  }
+}
@@ -0,0 +1,22 @@
+package com.venkat.rag.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IngestJobStatus {
+  private String jobId;
+  private String state;            // QUEUED | RUNNING | SUCCEEDED | FAILED | CANCELLED
+  private int documentsTotal;
+  private int documentsCompleted;
+  private long chunksStored;
+  private int attempts;
+  private String error;
+}
@@ -0,0 +1,25 @@
+package com.venkat.rag.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** One NDJSON line of streaming-ingest progress: "stored" per document, "error", then "done". */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IngestProgress {
+  private String event;
+  private String documentId;
+  private Integer line;
+  private Integer chunks;      // embedded and upserted (new or changed)
+  private Integer unchanged;
+  private Integer removed;
+  private Integer documents;
+  private Long latencyMs;
+  private String message;
+}
@@ -11,5 +11,9 @@ import lombok.NoArgsConstructor;
 @Builder
 public class IngestResponse {
   private int documentsIngested;
-  private int chunksStored;
+  private int chunksStored;     // added + changed: embedded and upserted
+  private int chunksAdded;
+  private int chunksChanged;
+  private int chunksUnchanged;  // skipped, content hash matched the manifest
+  private int chunksRemoved;    // past a document's new end, deleted from the store
 }
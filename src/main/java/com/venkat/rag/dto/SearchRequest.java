@@ -1,6 +1,8 @@
 package com.venkat.rag.dto;
 
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.NotBlank;
+import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,5 +14,20 @@ public class SearchRequest {
   @NotBlank
   private String query;
 
+  @Max(1000)
   private Integer topK; // default 5
+
+  private Filter filter; // optional: restrict results before ranking
+
+  private String mode; // vector (default) | lexical | hybrid
+
+  /** A chunk matches if each non-empty list contains its value (OR within a list, AND across lists). */
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Filter {
+    private List<String> documentIds;
+    private List<String> sources;
+    private List<String> documentTitles;
+  }
 }
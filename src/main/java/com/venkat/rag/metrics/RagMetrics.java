@@ -0,0 +1,119 @@
+package com.venkat.rag.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Per-stage instrumentation of the hot path, scraped from /actuator/prometheus.
+ *
+ * rag.stage.latency is a timer per stage (chunking, embedding, vector_search, lexical_search,
+ * milvus_upsert, milvus_delete, milvus_flush, chat, tool), tagged with the model (the backend for
+ * store stages, the tool name for tools) and the {@link RequestRoute}. It is published as a histogram, so p99 per stage is
+ * histogram_quantile(0.99, rate(rag_stage_latency_seconds_bucket[5m])) grouped by stage.
+ * rag.stage.inflight counts calls currently inside each stage; rag.payload.bytes is the size of
+ * request and response bodies sent to and read from the gateway.
+ */
+@Component
+public class RagMetrics {
+  private final MeterRegistry registry;
+  private final Map<String, AtomicInteger> inflight = new ConcurrentHashMap<>();
+  private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+  private final Map<String, DistributionSummary> payloads = new ConcurrentHashMap<>();
+
+  public RagMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  /** A stage body; may throw the caller's checked exception. */
+  @FunctionalInterface
+  public interface Body<T, E extends Exception> {
+    T run() throws E;
+  }
+
+  public <T, E extends Exception> T time(String stage, String model, Body<T, E> body) throws E {
+    AtomicInteger active = inflight(stage);
+    active.incrementAndGet();
+    long start = System.nanoTime();
+    try {
+      return body.run();
+    } finally {
+      active.decrementAndGet();
+      timer(stage, model).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  public void time(String stage, String model, Runnable body) {
+    time(stage, model, () -> {
+      body.run();
+      return null;
+    });
+  }
+
+  /** @param direction "request" (sent) or "response" (read) */
+  public void payload(String stage, String direction, long bytes) {
+    if (bytes < 0) return;
+    String route = RequestRoute.current();
+    payloads.computeIfAbsent(stage + '|' + direction + '|' + route, k -> DistributionSummary.builder("rag.payload.bytes")
+        .baseUnit("bytes")
+        .tags("stage", stage, "direction", direction, "route", route)
+        .publishPercentileHistogram()
+        .minimumExpectedValue(64.0)
+        .maximumExpectedValue(64.0 * 1024 * 1024)
+        .register(registry)).record(bytes);
+  }
+
+  /** Counts the bytes read through {@code source} and reports the total once it is closed. */
+  public static BufferedSource counting(Source source, LongConsumer onClose) {
+    return Okio.buffer(new ForwardingSource(source) {
+      long bytes;
+
+      @Override
+      public long read(Buffer sink, long byteCount) throws IOException {
+        long n = super.read(sink, byteCount);
+        if (n > 0) bytes += n;
+        return n;
+      }
+
+      @Override
+      public void close() throws IOException {
+        super.close();
+        onClose.accept(bytes);
+      }
+    });
+  }
+
+  private Timer timer(String stage, String model) {
+    String route = RequestRoute.current();
+    String m = model == null || model.isBlank() ? RequestRoute.NONE : model;
+    return timers.computeIfAbsent(stage + '|' + m + '|' + route, k -> Timer.builder("rag.stage.latency")
+        .tags("stage", stage, "model", m, "route", route)
+        .publishPercentileHistogram()
+        .minimumExpectedValue(Duration.ofMillis(1))
+        .maximumExpectedValue(Duration.ofMinutes(2))
+        .register(registry));
+  }
+
+  private AtomicInteger inflight(String stage) {
+    return inflight.computeIfAbsent(stage, s -> {
+      AtomicInteger n = new AtomicInteger();
+      Gauge.builder("rag.stage.inflight", n, AtomicInteger::get).tag("stage", s).register(registry);
+      return n;
+    });
+  }
+}
@@ -0,0 +1,58 @@
+package com.venkat.rag.metrics;
+
+import java.util.concurrent.Callable;
+
+/**
+ * The route (e.g. "/rag/search", "ingest_job") the current thread is working for, used to tag
+ * metrics. Set per HTTP request from the matched handler pattern; work handed to another thread
+ * carries it along via {@link #wrap}.
+ */
+public final class RequestRoute {
+  public static final String NONE = "none";
+  private static final ThreadLocal<String> ROUTE = new ThreadLocal<>();
+
+  private RequestRoute() {}
+
+  public static String current() {
+    String r = ROUTE.get();
+    return r == null ? NONE : r;
+  }
+
+  public static void set(String route) {
+    ROUTE.set(route);
+  }
+
+  public static void clear() {
+    ROUTE.remove();
+  }
+
+  /** Runs {@code task} under the caller's route. */
+  public static Runnable wrap(Runnable task) {
+    return wrap(ROUTE.get(), task);
+  }
+
+  public static Runnable wrap(String route, Runnable task) {
+    return () -> {
+      String previous = ROUTE.get();
+      ROUTE.set(route);
+      try {
+        task.run();
+      } finally {
+        ROUTE.set(previous);
+      }
+    };
+  }
+
+  public static <T> Callable<T> wrap(Callable<T> task) {
+    String route = ROUTE.get();
+    return () -> {
+      String previous = ROUTE.get();
+      ROUTE.set(route);
+      try {
+        return task.call();
+      } finally {
+        ROUTE.set(previous);
+      }
+    };
+  }
+}
@@ -0,0 +1,195 @@
+package com.venkat.rag.metrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process token and cost accounting for every gateway response, replacing the log-scraping
+ * scripts. Each call adds its prompt, completion and embedding tokens to LongAdders keyed by
+ * (model, {@link RequestRoute}), once into lifetime totals and once into a ring of time buckets
+ * that backs rolling windows. Recording is two map lookups and a few striped adds, with no locks.
+ * Cost is computed only when queried, from a per-1K-token price table.
+ */
+@Component
+public class TokenLedger {
+  private final long bucketMillis;
+  private final int buckets;
+  private final Map<String, Price> prices;
+  private final long startedAt = System.currentTimeMillis();
+  private final Map<String, Map<String, Series>> series = new ConcurrentHashMap<>();
+
+  public TokenLedger(
+      @Value("${rag.ledger.bucketSeconds:60}") int bucketSeconds,
+      @Value("${rag.ledger.buckets:60}") int buckets,
+      @Value("${rag.ledger.pricing:}") String pricing) {
+    this.bucketMillis = Math.max(1, bucketSeconds) * 1000L;
+    this.buckets = Math.max(1, buckets);
+    this.prices = parsePricing(pricing);
+  }
+
+  /** USD per 1K input (prompt and embedding) and output (completion) tokens. */
+  public record Price(double input, double output) {}
+
+  public record Line(String model, String route, long requests, long promptTokens, long completionTokens,
+      long embeddingTokens, long totalTokens, boolean priced, double costUsd) {}
+
+  /**
+   * @param windowSeconds covered span; whole buckets, so up to one bucket longer than asked.
+   *        0 means since startup
+   */
+  public record Report(long windowSeconds, long requests, long totalTokens, double costUsd, List<Line> lines) {}
+
+  /** Records one gateway call. Negative counts are treated as not reported. */
+  public void record(String model, long promptTokens, long completionTokens, long embeddingTokens) {
+    Series s = series(model == null || model.isBlank() ? RequestRoute.NONE : model, RequestRoute.current());
+    long epoch = System.currentTimeMillis() / bucketMillis;
+    s.total.add(promptTokens, completionTokens, embeddingTokens);
+    s.bucket(epoch).add(promptTokens, completionTokens, embeddingTokens);
+  }
+
+  /** Records a chat completion from its OpenAI-style {@code usage} block (missing = no tokens). */
+  public void recordChat(String model, JsonNode usage) {
+    record(model, usage.path("prompt_tokens").asLong(0), usage.path("completion_tokens").asLong(0), 0);
+  }
+
+  public void recordEmbedding(String model, long tokens) {
+    record(model, 0, 0, tokens);
+  }
+
+  /** Totals per (model, route), most expensive first; a null model or route matches all. */
+  public Report report(long windowSeconds, String model, String route) {
+    long window = Math.max(0, windowSeconds);
+    int span = window == 0 ? 0 : (int) Math.min(buckets, (window * 1000 + bucketMillis - 1) / bucketMillis);
+    long now = System.currentTimeMillis() / bucketMillis;
+    List<Line> lines = new ArrayList<>();
+    series.forEach((m, byRoute) -> byRoute.forEach((r, s) -> {
+      if (model != null && !model.equals(m) || route != null && !route.equals(r)) return;
+      long[] sum = span == 0 ? s.total.snapshot() : s.sum(now - span + 1, now);
+      if (sum[0] == 0) return;
+      Price price = price(m);
+      double cost = price == null ? 0
+          : ((sum[1] + sum[3]) * price.input() + sum[2] * price.output()) / 1000.0;
+      lines.add(new Line(m, r, sum[0], sum[1], sum[2], sum[3], sum[1] + sum[2] + sum[3], price != null, cost));
+    }));
+    lines.sort(Comparator.comparingDouble(Line::costUsd).reversed().thenComparing(Line::totalTokens, Comparator.reverseOrder()));
+    long requests = 0;
+    long tokens = 0;
+    double cost = 0;
+    for (Line l : lines) {
+      requests += l.requests();
+      tokens += l.totalTokens();
+      cost += l.costUsd();
+    }
+    long covered = span == 0 ? (System.currentTimeMillis() - startedAt) / 1000 : span * bucketMillis / 1000;
+    return new Report(covered, requests, tokens, cost, lines);
+  }
+
+  public Map<String, Price> prices() {
+    return prices;
+  }
+
+  /** Exact model name first, then the longest priced prefix (e.g. "gpt-4o-mini-2024-07-18"). */
+  private Price price(String model) {
+    Price exact = prices.get(model);
+    if (exact != null) return exact;
+    String best = null;
+    for (String name : prices.keySet()) {
+      if (model.startsWith(name) && (best == null || name.length() > best.length())) best = name;
+    }
+    return best == null ? null : prices.get(best);
+  }
+
+  private Series series(String model, String route) {
+    Map<String, Series> byRoute = series.get(model);
+    if (byRoute == null) byRoute = series.computeIfAbsent(model, m -> new ConcurrentHashMap<>());
+    Series s = byRoute.get(route);
+    return s != null ? s : byRoute.computeIfAbsent(route, r -> new Series(buckets));
+  }
+
+  /** "model=input/output, ..." in USD per 1K tokens. */
+  static Map<String, Price> parsePricing(String pricing) {
+    Map<String, Price> out = new HashMap<>();
+    if (pricing == null || pricing.isBlank()) return Map.of();
+    for (String entry : pricing.split(",")) {
+      if (entry.isBlank()) continue;
+      int eq = entry.indexOf('=');
+      String model = eq < 0 ? "" : entry.substring(0, eq).trim();
+      String[] io = eq < 0 ? new String[0] : entry.substring(eq + 1).split("/");
+      if (model.isEmpty() || io.length < 1 || io.length > 2) {
+        throw new IllegalArgumentException("rag.ledger.pricing entry must be model=input/output: " + entry.trim());
+      }
+      double input = Double.parseDouble(io[0].trim());
+      double output = io.length == 2 ? Double.parseDouble(io[1].trim()) : 0;
+      out.put(model, new Price(input, output));
+    }
+    return Map.copyOf(out);
+  }
+
+  private static final class Series {
+    final Counts total = new Counts(-1);
+    final AtomicReferenceArray<Counts> ring;
+
+    Series(int buckets) {
+      ring = new AtomicReferenceArray<>(buckets);
+    }
+
+    /**
+     * The live bucket for {@code epoch}, replacing whatever older bucket held its slot. A few adds
+     * racing the rollover may land in the retired bucket; windows are approximate at that edge.
+     */
+    Counts bucket(long epoch) {
+      int slot = (int) Math.floorMod(epoch, (long) ring.length());
+      while (true) {
+        Counts c = ring.get(slot);
+        if (c != null && c.epoch == epoch) return c;
+        if (c != null && c.epoch > epoch) return c; // clock stepped back: count in the newer bucket
+        Counts fresh = new Counts(epoch);
+        if (ring.compareAndSet(slot, c, fresh)) return fresh;
+      }
+    }
+
+    long[] sum(long fromEpoch, long toEpoch) {
+      long[] sum = new long[4];
+      for (int i = 0; i < ring.length(); i++) {
+        Counts c = ring.get(i);
+        if (c == null || c.epoch < fromEpoch || c.epoch > toEpoch) continue;
+        long[] s = c.snapshot();
+        for (int j = 0; j < 4; j++) sum[j] += s[j];
+      }
+      return sum;
+    }
+  }
+
+  private static final class Counts {
+    final long epoch;
+    final LongAdder requests = new LongAdder();
+    final LongAdder prompt = new LongAdder();
+    final LongAdder completion = new LongAdder();
+    final LongAdder embedding = new LongAdder();
+
+    Counts(long epoch) {
+      this.epoch = epoch;
+    }
+
+    void add(long p, long c, long e) {
+      requests.increment();
+      if (p > 0) prompt.add(p);
+      if (c > 0) completion.add(c);
+      if (e > 0) embedding.add(e);
+    }
+
+    long[] snapshot() {
+      return new long[] {requests.sum(), prompt.sum(), completion.sum(), embedding.sum()};
+    }
+  }
+}
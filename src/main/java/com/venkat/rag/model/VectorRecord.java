@@ -1,5 +1,3 @@
 package com.venkat.rag.model;
 
-import java.util.List;
-
-public record VectorRecord(String id, List<Double> vector, Chunk payload) {}
+public record VectorRecord(String id, float[] vector, Chunk payload) {}
@@ -3,47 +3,89 @@ package com.venkat.rag.service;
 
 
 import com.venkat.rag.dto.AgentResponse;
+import com.venkat.rag.metrics.RagMetrics;
+import com.venkat.rag.metrics.RequestRoute;
+import com.venkat.tools.Tool;
 import com.venkat.tools.ToolRegistry;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
+/**
+ * Tool-calling agent loop. Each assistant turn's tool calls run concurrently on the tool executor
+ * (virtual threads when the runtime has them), each with its own timeout; a tool that overruns is
+ * cancelled and the model is told it timed out. After {@code agent.maxToolRounds} rounds the model
+ * is asked for a final answer with tools disabled.
+ */
 @Service
 public class AgentService {
   private static final Logger log = LoggerFactory.getLogger(AgentService.class);
 
   private final LiteLlmClient client;
   private final ToolRegistry toolRegistry;
+  private final RagMetrics metrics;
   private final ObjectMapper om = new ObjectMapper();
 
   private final String model;
   private final double temperature;
   private final int maxTokens;
+  private final int maxToolRounds;
+  private final long toolTimeoutMs;
+  private final ExecutorService toolExecutor;
 
   public AgentService(
       LiteLlmClient client,
       ToolRegistry toolRegistry,
+      RagMetrics metrics,
       @Value("${litellm.model}") String model,
       @Value("${litellm.temperature}") double temperature,
-      @Value("${litellm.maxTokens}") int maxTokens
+      @Value("${litellm.maxTokens}") int maxTokens,
+      @Value("${agent.maxToolRounds:4}") int maxToolRounds,
+      @Value("${agent.toolTimeoutMs:10000}") long toolTimeoutMs,
+      @Value("${agent.toolThreads:32}") int toolThreads
   ) {
     this.client = client;
     this.toolRegistry = toolRegistry;
+    this.metrics = metrics;
     this.model = model;
     this.temperature = temperature;
     this.maxTokens = maxTokens;
+    this.maxToolRounds = Math.max(0, maxToolRounds);
+    this.toolTimeoutMs = toolTimeoutMs;
+    this.toolExecutor = VirtualThreads.newExecutor("agent-tool", toolThreads);
+  }
+
+  @PreDestroy
+  public void close() {
+    toolExecutor.shutdownNow();
   }
 
   public AgentResponse run(String userMessage, String requestId, String[] retrievedChunkIds) throws Exception {
+    return run(userMessage, requestId, retrievedChunkIds, null);
+  }
+
+  /**
+   * With a non-null {@code onToken} every model call is streamed and answer tokens are passed on
+   * as they arrive; the returned response still carries the usage of all calls.
+   */
+  public AgentResponse run(String userMessage, String requestId, String[] retrievedChunkIds,
+      Consumer<String> onToken) throws Exception {
     long start = System.currentTimeMillis();
 
-    
+
     List<Map<String, Object>> messages = new ArrayList<>();
     messages.add(Map.of(
         "role", "system",
@@ -61,75 +103,156 @@ public class AgentService {
       headers.put("x-rag-chunk-ids", String.join(",", retrievedChunkIds));
     }
 
-    // 1) First call with tool definitions
-    Map<String, Object> req1 = baseRequest(messages);
-    JsonNode resp1 = client.chatCompletions(req1, headers);
+    List<AgentResponse.Round> rounds = new ArrayList<>();
+    int[] usage = new int[3];
+    boolean[] usageSeen = new boolean[1];
+    for (int round = 1; ; round++) {
+      boolean toolsAllowed = round <= maxToolRounds;
+      long modelStart = System.currentTimeMillis();
+      JsonNode resp = complete(baseRequest(messages, toolsAllowed), headers, onToken);
+      long modelLatencyMs = System.currentTimeMillis() - modelStart;
+      addUsage(resp.path("usage"), usage, usageSeen);
 
-    // Extract assistant message
-    JsonNode assistantMsg1 = resp1.path("choices").path(0).path("message");
-
-    // If the model decided tool_calls, execute them and call again
-    JsonNode toolCalls = assistantMsg1.path("tool_calls");
-    if (toolCalls.isArray() && toolCalls.size() > 0) {
-      // Append the assistant message that contains tool_calls
-      messages.add(jsonToMap(assistantMsg1));
+      JsonNode assistantMsg = resp.path("choices").path(0).path("message");
+      JsonNode toolCalls = assistantMsg.path("tool_calls");
+      if (!toolsAllowed || !toolCalls.isArray() || toolCalls.isEmpty()) {
+        rounds.add(AgentResponse.Round.builder().round(round).modelLatencyMs(modelLatencyMs).tools(List.of()).build());
+        long latencyMs = System.currentTimeMillis() - start;
+        return buildResponse(resp, requestId, latencyMs, usageSeen[0] ? usage : null, rounds);
+      }
 
-      for (JsonNode tc : toolCalls) {
-        String toolCallId = tc.path("id").asText();
-        String toolName = tc.path("function").path("name").asText();
-        String argJson = tc.path("function").path("arguments").asText("{}");
+      // Append the assistant message that contains tool_calls, then one tool message per call
+      messages.add(jsonToMap(assistantMsg));
+      long toolStart = System.currentTimeMillis();
+      List<AgentResponse.ToolCall> toolStats = runTools(toolCalls, requestId, messages);
+      rounds.add(AgentResponse.Round.builder()
+          .round(round)
+          .modelLatencyMs(modelLatencyMs)
+          .toolLatencyMs(System.currentTimeMillis() - toolStart)
+          .tools(toolStats)
+          .build());
+    }
+  }
 
-        Map<String, Object> args = om.readValue(argJson, new TypeReference<Map<String, Object>>() {});
-        log.info("tool_call requestId={} tool={} args={}", requestId, toolName, args);
+  /** Runs one turn's tool calls concurrently; results are appended to messages in call order. */
+  private List<AgentResponse.ToolCall> runTools(JsonNode toolCalls, String requestId,
+      List<Map<String, Object>> messages) {
+    record Pending(String id, String name, long start, Future<String> future, String immediate, long[] finishedAt) {}
 
-        String toolResult = toolRegistry.get(toolName).execute(args);
+    List<Pending> pending = new ArrayList<>();
+    for (JsonNode tc : toolCalls) {
+      String toolCallId = tc.path("id").asText();
+      String toolName = tc.path("function").path("name").asText();
+      String argJson = tc.path("function").path("arguments").asText("{}");
+      long submitted = System.currentTimeMillis();
 
-        // Append tool result message (OpenAI format)
-        messages.add(Map.of(
-            "role", "tool",
-            "tool_call_id", toolCallId,
-            "content", toolResult
-        ));
+      Tool tool = toolRegistry.get(toolName);
+      if (tool == null) {
+        pending.add(new Pending(toolCallId, toolName, submitted, null, "Unknown tool: " + toolName, null));
+        continue;
       }
+      Map<String, Object> args;
+      try {
+        args = argJson.isBlank() ? Map.of() : om.readValue(argJson, new TypeReference<Map<String, Object>>() {});
+      } catch (Exception e) {
+        pending.add(new Pending(toolCallId, toolName, submitted, null, "Invalid arguments: " + e.getMessage(), null));
+        continue;
+      }
+      log.info("tool_call requestId={} tool={} args={}", requestId, toolName, args);
+      long[] finishedAt = new long[1];
+      Future<String> future = toolExecutor.submit(RequestRoute.wrap(() -> {
+        try {
+          return metrics.time("tool", toolName, () -> tool.execute(args));
+        } finally {
+          finishedAt[0] = System.currentTimeMillis();
+        }
+      }));
+      pending.add(new Pending(toolCallId, toolName, submitted, future, null, finishedAt));
+    }
 
-      // 2) Second call to get final answer
-      Map<String, Object> req2 = baseRequest(messages);
-      JsonNode resp2 = client.chatCompletions(req2, headers);
+    List<AgentResponse.ToolCall> stats = new ArrayList<>(pending.size());
+    for (Pending p : pending) {
+      String status;
+      String result;
+      if (p.future() == null) {
+        status = "error";
+        result = p.immediate();
+      } else {
+        // every tool's deadline counts from its own submission, so waiting here never extends it
+        long remaining = p.start() + toolTimeoutMs - System.currentTimeMillis();
+        try {
+          result = p.future().get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+          status = "ok";
+        } catch (TimeoutException e) {
+          p.future().cancel(true);
+          status = "timeout";
+          result = "Tool " + p.name() + " timed out after " + toolTimeoutMs + " ms.";
+        } catch (ExecutionException e) {
+          status = "error";
+          result = "Tool " + p.name() + " failed: " + e.getCause().getMessage();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          pending.forEach(q -> { if (q.future() != null) q.future().cancel(true); });
+          throw new IllegalStateException("Interrupted while waiting for tools", e);
+        }
+      }
+      // the tool's own run time when it finished (visible via Future.get), else time until we gave up
+      long latencyMs = p.future() == null ? 0
+          : ("ok".equals(status) || p.finishedAt()[0] > 0 ? p.finishedAt()[0] : System.currentTimeMillis()) - p.start();
+      if (!"ok".equals(status)) log.warn("tool_{} requestId={} tool={} latencyMs={}", status, requestId, p.name(), latencyMs);
 
-      long latencyMs = System.currentTimeMillis() - start;
-      return buildResponse(resp2, requestId, latencyMs);
+      // Append tool result message (OpenAI format)
+      messages.add(Map.of(
+          "role", "tool",
+          "tool_call_id", p.id(),
+          "content", result == null ? "" : result
+      ));
+      stats.add(AgentResponse.ToolCall.builder().id(p.id()).name(p.name()).status(status).latencyMs(latencyMs).build());
     }
+    return stats;
+  }
 
-    // No tool call: return direct answer
-    long latencyMs = System.currentTimeMillis() - start;
-    return buildResponse(resp1, requestId, latencyMs);
+  private JsonNode complete(Map<String, Object> request, Map<String, String> headers, Consumer<String> onToken) {
+    return onToken == null
+        ? client.chatCompletions(request, headers)
+        : client.streamChatCompletions(request, headers, onToken);
   }
 
-  private Map<String, Object> baseRequest(List<Map<String, Object>> messages) {
+  private Map<String, Object> baseRequest(List<Map<String, Object>> messages, boolean toolsAllowed) {
     Map<String, Object> req = new LinkedHashMap<>();
     req.put("model", model);
     req.put("messages", messages);
     req.put("temperature", temperature);
     req.put("max_tokens", maxTokens);
 
-    // Tool calling
+    // Tool calling; definitions stay in the request once tools were used, "none" forces an answer
     req.put("tools", toolRegistry.getToolDefinitions());
-    req.put("tool_choice", "auto");
+    req.put("tool_choice", toolsAllowed ? "auto" : "none");
     return req;
   }
 
-  private AgentResponse buildResponse(JsonNode resp, String requestId, long latencyMs) {
+  private static void addUsage(JsonNode usage, int[] sums, boolean[] seen) {
+    String[] fields = {"prompt_tokens", "completion_tokens", "total_tokens"};
+    for (int i = 0; i < fields.length; i++) {
+      if (usage.has(fields[i])) {
+        sums[i] += usage.get(fields[i]).asInt();
+        seen[0] = true;
+      }
+    }
+  }
+
+  private AgentResponse buildResponse(JsonNode resp, String requestId, long latencyMs, int[] usage,
+      List<AgentResponse.Round> rounds) {
     String modelUsed = resp.path("model").asText(model);
 
     String answer = resp.path("choices").path(0).path("message").path("content").asText("");
 
-    JsonNode usage = resp.path("usage");
-    Integer prompt = usage.has("prompt_tokens") ? usage.get("prompt_tokens").asInt() : null;
-    Integer completion = usage.has("completion_tokens") ? usage.get("completion_tokens").asInt() : null;
-    Integer total = usage.has("total_tokens") ? usage.get("total_tokens").asInt() : null;
+    Integer prompt = usage != null ? usage[0] : null;
+    Integer completion = usage != null ? usage[1] : null;
+    Integer total = usage != null ? usage[2] : null;
 
-    log.info("agent_done requestId={} model={} latencyMs={} promptTokens={} completionTokens={} totalTokens={}",
-        requestId, modelUsed, latencyMs, prompt, completion, total);
+    log.info("agent_done requestId={} model={} latencyMs={} rounds={} promptTokens={} completionTokens={} totalTokens={}",
+        requestId, modelUsed, latencyMs, rounds.size(), prompt, completion, total);
 
     return AgentResponse.builder()
         .requestId(requestId)
@@ -140,6 +263,7 @@ public class AgentService {
             .completionTokens(completion)
             .totalTokens(total)
             .build())
+        .rounds(rounds)
         .answer(answer)
         .build();
   }
@@ -147,4 +271,4 @@ public class AgentService {
   private Map<String, Object> jsonToMap(JsonNode node) {
     return om.convertValue(node, new TypeReference<Map<String, Object>>() {});
   }
-} 
+}
@@ -0,0 +1,89 @@
+package com.venkat.rag.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads a streamed (stream: true) /v1/chat/completions response.
+ *
+ * SSE lines are read one at a time as they arrive; each content delta is handed to the listener
+ * immediately. Content, tool-call fragments and the trailing usage chunk are accumulated into a
+ * JsonNode with the same shape as a non-streamed response, so callers can treat both alike.
+ */
+final class ChatCompletionStream {
+
+  private ChatCompletionStream() {}
+
+  static JsonNode read(BufferedSource source, ObjectMapper om, Consumer<String> onToken) throws IOException {
+    String model = null;
+    String finishReason = null;
+    JsonNode usage = null;
+    StringBuilder content = new StringBuilder();
+    List<ObjectNode> toolCalls = new ArrayList<>();
+
+    String line;
+    while ((line = source.readUtf8Line()) != null) {
+      if (!line.startsWith("data:")) continue; // blank separators, comments, event names
+      String data = line.substring(5).trim();
+      if (data.equals("[DONE]")) break;
+      if (data.isEmpty()) continue;
+
+      JsonNode chunk = om.readTree(data);
+      if (chunk.has("error")) throw new IOException("Stream error: " + chunk.get("error"));
+      if (chunk.hasNonNull("model")) model = chunk.get("model").asText();
+      if (chunk.hasNonNull("usage")) usage = chunk.get("usage");
+
+      JsonNode choice = chunk.path("choices").path(0);
+      if (choice.hasNonNull("finish_reason")) finishReason = choice.get("finish_reason").asText();
+      JsonNode delta = choice.path("delta");
+      String token = delta.path("content").asText("");
+      if (!token.isEmpty()) {
+        content.append(token);
+        if (onToken != null) onToken.accept(token);
+      }
+      for (JsonNode tc : delta.path("tool_calls")) mergeToolCall(om, toolCalls, tc);
+    }
+
+    ObjectNode message = om.createObjectNode();
+    message.put("role", "assistant");
+    message.put("content", content.toString());
+    if (!toolCalls.isEmpty()) {
+      ArrayNode calls = message.putArray("tool_calls");
+      toolCalls.forEach(calls::add);
+    }
+    ObjectNode root = om.createObjectNode();
+    if (model != null) root.put("model", model);
+    ObjectNode choice = root.putArray("choices").addObject();
+    choice.set("message", message);
+    if (finishReason != null) choice.put("finish_reason", finishReason);
+    if (usage != null) root.set("usage", usage);
+    return root;
+  }
+
+  /** Tool calls arrive as fragments keyed by index; the arguments string is split across chunks. */
+  private static void mergeToolCall(ObjectMapper om, List<ObjectNode> toolCalls, JsonNode fragment) {
+    int index = fragment.path("index").asInt(toolCalls.size());
+    while (toolCalls.size() <= index) {
+      ObjectNode call = om.createObjectNode();
+      call.put("type", "function");
+      call.putObject("function").put("name", "").put("arguments", "");
+      toolCalls.add(call);
+    }
+    ObjectNode call = toolCalls.get(index);
+    if (fragment.hasNonNull("id")) call.put("id", fragment.get("id").asText());
+    JsonNode fn = fragment.path("function");
+    ObjectNode target = (ObjectNode) call.get("function");
+    if (fn.hasNonNull("name")) target.put("name", target.get("name").asText() + fn.get("name").asText());
+    if (fn.hasNonNull("arguments")) {
+      target.put("arguments", target.get("arguments").asText() + fn.get("arguments").asText());
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package com.venkat.rag.service;
+
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.store.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-document list of chunk content hashes, one per chunkIndex, as of the last successful ingest.
+ *
+ * {@link Session#plan} compares a fresh chunking of a document against it: a chunk whose hash
+ * matches the stored one at the same index is unchanged and needs neither an embedding call nor an
+ * upsert; indexes past the new chunk count name chunks to delete. Callers {@link Session#commit}
+ * the new hashes only after the store holds the upserts and deletes durably, so a crash in between
+ * makes the next ingest redo that document rather than skip it.
+ *
+ * A session holds each document it plans until that plan is committed; a plan of the same document
+ * in another session waits (up to {@code rag.manifest.lockTimeoutMs}), so two ingests never apply
+ * plans made from the same manifest and delete each other's chunks. Within one session a document
+ * planned again before its commit is diffed against the pending plan, which is what the store will
+ * hold once the earlier writes land.
+ *
+ * Two sessions that wait for each other's documents would otherwise both stall until the timeout.
+ * An ingest that knows its documents up front takes them all with {@link Session#hold}, in sorted
+ * order; a streaming one takes them as it goes, and a wait that would close a cycle of sessions
+ * fails at once instead, so the other session carries on.
+ *
+ * With {@code rag.manifest.dir} set, each document's hashes are kept in a small file (named by a
+ * hash of the documentId) under a subdirectory named by the vector store's
+ * {@link VectorStore#storeId}, so a recreated collection or wiped segment directory starts from an
+ * empty manifest. Stores without an id (memory, hnsw) and an empty dir keep hashes in memory only.
+ */
+@Component
+public class ChunkManifest {
+  private static final HexFormat HEX = HexFormat.of();
+
+  private final Path dir;
+  private final long lockTimeoutMs;
+  private final Map<String, List<String>> memory = new ConcurrentHashMap<>();
+  private final Map<String, Hold> holds = new HashMap<>(); // guarded by itself
+
+  public ChunkManifest(@Value("${rag.manifest.dir:}") String dir,
+      @Value("${rag.manifest.lockTimeoutMs:60000}") long lockTimeoutMs,
+      VectorStore vectorStore) throws IOException {
+    this.dir = VectorStore.stateDir(dir, vectorStore);
+    this.lockTimeoutMs = lockTimeoutMs;
+    if (this.dir != null) Files.createDirectories(this.dir);
+  }
+
+  /** A document planned but not yet committed, by {@code owner}. */
+  private static final class Hold {
+    final Session owner;
+    int pending;           // plans not yet committed
+    List<String> planned;  // hashes of the latest of them
+
+    Hold(Session owner) {
+      this.owner = owner;
+    }
+  }
+
+  /**
+   * @param upserts    new and changed chunks, in chunkIndex order
+   * @param removedIds chunk ids past the document's new end
+   * @param hashes     the document's new manifest, to {@link #commit} once everything is stored
+   */
+  public record Plan(String documentId, List<Chunk> upserts, List<String> removedIds, List<String> hashes,
+                     int added, int changed, int unchanged) {
+    public int removed() { return removedIds.size(); }
+  }
+
+  /** One ingest's plans and commits; close it (also after a failure) to release what it holds. */
+  public Session open() {
+    return new Session();
+  }
+
+  public final class Session implements AutoCloseable {
+    private String waitingFor; // guarded by holds
+
+    private Session() {}
+
+    /**
+     * Takes {@code documentIds} in sorted order, waiting for each like {@link #plan}, so sessions
+     * that hold their whole request this way never wait for each other in a cycle.
+     */
+    public void hold(Collection<String> documentIds) {
+      synchronized (holds) {
+        for (String documentId : new TreeSet<>(documentIds)) acquire(documentId);
+      }
+    }
+
+    /** Waits while another session holds {@code documentId}; throws if that takes too long. */
+    public Plan plan(String documentId, List<Chunk> chunks) {
+      List<String> pending;
+      synchronized (holds) {
+        Hold h = acquire(documentId);
+        h.pending++;
+        pending = h.planned;
+      }
+      Plan plan = diff(documentId, chunks, pending != null ? pending : load(documentId));
+      synchronized (holds) {
+        holds.get(documentId).planned = plan.hashes();
+      }
+      return plan;
+    }
+
+    private Hold acquire(String documentId) {
+      long deadline = System.currentTimeMillis() + lockTimeoutMs;
+      Hold h;
+      while ((h = holds.get(documentId)) != null && h.owner != this) {
+        if (waitsFor(h.owner)) {
+          throw new IllegalStateException("Document " + documentId + " is held by a request waiting for this one");
+        }
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) throw new IllegalStateException("Document " + documentId + " is being ingested by another request");
+        waitingFor = documentId;
+        try {
+          holds.wait(wait);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted waiting for document " + documentId, e);
+        } finally {
+          waitingFor = null;
+        }
+      }
+      if (h == null) holds.put(documentId, h = new Hold(this));
+      return h;
+    }
+
+    /** Whether {@code owner}, through the sessions it waits for, is waiting for this one. */
+    private boolean waitsFor(Session owner) {
+      for (int steps = holds.size(); owner != null && steps >= 0; steps--) {
+        if (owner == this) return true;
+        Hold next = owner.waitingFor == null ? null : holds.get(owner.waitingFor);
+        owner = next == null ? null : next.owner;
+      }
+      return false;
+    }
+
+    /** Records {@code hashes} as stored; the document is released once all its plans are committed. */
+    public void commit(String documentId, List<String> hashes) {
+      write(documentId, hashes);
+      synchronized (holds) {
+        Hold h = holds.get(documentId);
+        if (h != null && h.owner == this && --h.pending <= 0) {
+          holds.remove(documentId);
+          holds.notifyAll();
+        }
+      }
+    }
+
+    /** Releases every document still held, e.g. plans abandoned by a failed ingest. */
+    @Override
+    public void close() {
+      synchronized (holds) {
+        if (holds.values().removeIf(h -> h.owner == this)) holds.notifyAll();
+      }
+    }
+  }
+
+  private static Plan diff(String documentId, List<Chunk> chunks, List<String> previous) {
+    List<String> hashes = new ArrayList<>(chunks.size());
+    List<Chunk> upserts = new ArrayList<>();
+    int added = 0;
+    int changed = 0;
+    for (Chunk c : chunks) {
+      String h = hash(c);
+      hashes.add(h);
+      int i = c.chunkIndex();
+      if (i >= previous.size()) {
+        added++;
+        upserts.add(c);
+      } else if (!previous.get(i).equals(h)) {
+        changed++;
+        upserts.add(c);
+      }
+    }
+    List<String> removed = new ArrayList<>();
+    for (int i = chunks.size(); i < previous.size(); i++) removed.add(Chunker.chunkId(documentId, i));
+    return new Plan(documentId, upserts, removed, hashes, added, changed, chunks.size() - added - changed);
+  }
+
+  private void write(String documentId, List<String> hashes) {
+    if (dir == null) {
+      memory.put(documentId, List.copyOf(hashes));
+      return;
+    }
+    StringBuilder sb = new StringBuilder(documentId.length() + hashes.size() * 33 + 1).append(documentId).append('\n');
+    for (String h : hashes) sb.append(h).append('\n');
+    Path target = file(documentId);
+    try {
+      Path tmp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+      Files.writeString(tmp, sb, StandardCharsets.UTF_8);
+      Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private List<String> load(String documentId) {
+    if (dir == null) return memory.getOrDefault(documentId, List.of());
+    Path f = file(documentId);
+    if (!Files.exists(f)) return List.of();
+    try {
+      List<String> lines = Files.readAllLines(f, StandardCharsets.UTF_8);
+      // first line is the documentId; a mismatch (hash collision) means no usable manifest
+      if (lines.isEmpty() || !lines.get(0).equals(documentId)) return List.of();
+      return lines.subList(1, lines.size());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Path file(String documentId) {
+    return dir.resolve(HEX.formatHex(sha256(documentId), 0, 16));
+  }
+
+  /** 128-bit SHA-256 prefix of everything stored with the chunk; the chunkIndex is the position. */
+  static String hash(Chunk c) {
+    String content = nullToEmpty(c.documentTitle()) + '\u0000' + nullToEmpty(c.source()) + '\u0000' + c.text();
+    return HEX.formatHex(sha256(content), 0, 16);
+  }
+
+  private static byte[] sha256(String s) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String nullToEmpty(String s) {
+    return s == null ? "" : s;
+  }
+}
@@ -0,0 +1,104 @@
+package com.venkat.rag.service;
+
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.model.VectorRecord;
+import com.venkat.rag.store.Bm25Index;
+import com.venkat.rag.store.VectorStore;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The write side shared by every ingest path (RagService, IngestPipeline, IngestJobs): keeps the
+ * vector store, the BM25 index, the answer cache and the {@link ChunkManifest} in step.
+ *
+ * The order is always the same: upserts and deletes go to the store and the index, both are
+ * flushed, and only then is the document's manifest committed. Paths that write in several steps
+ * (batches, checkpoints, pipeline stages) call the pieces; {@link #write} is the whole sequence
+ * for plans already in hand.
+ */
+@Component
+public class ChunkWriter {
+  private final EmbeddingClient embeddingClient;
+  private final VectorStore vectorStore;
+  private final Bm25Index lexicalIndex;
+  private final SemanticAnswerCache answerCache;
+  private final ChunkManifest manifest;
+
+  public ChunkWriter(EmbeddingClient embeddingClient, VectorStore vectorStore, Bm25Index lexicalIndex,
+      SemanticAnswerCache answerCache, ChunkManifest manifest) {
+    this.embeddingClient = embeddingClient;
+    this.vectorStore = vectorStore;
+    this.lexicalIndex = lexicalIndex;
+    this.answerCache = answerCache;
+    this.manifest = manifest;
+  }
+
+  public ChunkManifest.Session session() {
+    return manifest.open();
+  }
+
+  /** One batched embedding call; records are in chunk order. */
+  public List<VectorRecord> embed(List<Chunk> chunks) {
+    if (chunks.isEmpty()) return List.of();
+    List<float[]> vectors = embeddingClient.embedBatch(chunks.stream().map(Chunk::text).toList());
+    List<VectorRecord> records = new ArrayList<>(chunks.size());
+    for (int i = 0; i < chunks.size(); i++) {
+      Chunk c = chunks.get(i);
+      records.add(new VectorRecord(c.chunkId(), vectors.get(i), c));
+    }
+    return records;
+  }
+
+  /** Not durable until {@link #flush}. */
+  public void upsert(List<VectorRecord> records) {
+    if (records.isEmpty()) return;
+    vectorStore.upsertAll(records);
+    lexicalIndex.index(records.stream().map(VectorRecord::payload).toList());
+    answerCache.invalidateChunks(records.stream().map(VectorRecord::id).toList());
+  }
+
+  /** Not durable until {@link #flush}. */
+  public void delete(List<String> ids) {
+    if (ids.isEmpty()) return;
+    vectorStore.delete(ids);
+    lexicalIndex.delete(ids);
+    answerCache.invalidateChunks(ids);
+  }
+
+  public void flush() {
+    vectorStore.flush();
+    lexicalIndex.flush();
+  }
+
+  /**
+   * Applies {@code plans} in full: one embedding pass for all their upserts, the deletes, one
+   * flush, then the manifest commits. A document planned twice in the list keeps whatever its later
+   * plan does with each chunk id.
+   *
+   * @return the records upserted
+   */
+  public List<VectorRecord> write(ChunkManifest.Session session, List<ChunkManifest.Plan> plans) {
+    List<Chunk> chunks = new ArrayList<>();
+    List<String> removed = new ArrayList<>();
+    Set<String> decided = new HashSet<>();
+    for (int i = plans.size() - 1; i >= 0; i--) {
+      ChunkManifest.Plan p = plans.get(i);
+      for (int j = p.upserts().size() - 1; j >= 0; j--) {
+        if (decided.add(p.upserts().get(j).chunkId())) chunks.add(p.upserts().get(j));
+      }
+      for (String id : p.removedIds()) if (decided.add(id)) removed.add(id);
+    }
+    Collections.reverse(chunks);
+    List<VectorRecord> records = embed(chunks);
+    upsert(records);
+    delete(removed);
+    flush(); // once per ingest, not per row
+    plans.forEach(p -> session.commit(p.documentId(), p.hashes()));
+    return records;
+  }
+}
@@ -4,9 +4,28 @@ import com.venkat.rag.model.Chunk;
 import com.venkat.rag.model.Document;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Fixed-size, overlapping character windows over whitespace-normalized text.
+ *
+ * Normalization is one hand-written pass over a Reader: CRLF becomes LF, runs of spaces/tabs become
+ * one space, three or more consecutive newlines become two, and the text is trimmed. Windows are
+ * cut from a buffer of {@code chunkSize} chars as the normalized text arrives, so chunks are
+ * produced lazily and memory does not grow with the document. Boundaries and chunk IDs are the
+ * same as normalizing the whole string first and taking {@code substring(i, i + chunkSize).trim()}
+ * every {@code chunkSize - overlap} chars.
+ */
 @Component
 public class Chunker {
   private int chunkSize = 500;
@@ -20,29 +39,189 @@ public class Chunker {
   }
 
   public List<Chunk> chunk(Document doc) {
-    String text = normalize(doc.text());
-    List<Chunk> out = new ArrayList<>();
-    int step = Math.max(1, chunkSize - overlap);
-
-    int i = 0;
-    int idx = 0;
-    while (i < text.length()) {
-      int end = Math.min(text.length(), i + chunkSize);
-      String chunkText = text.substring(i, end).trim();
-      if (!chunkText.isBlank()) {
-        String chunkId = doc.documentId() + "_chunk_" + idx;
-        out.add(new Chunk(chunkId, doc.documentId(), doc.title(), doc.source(), idx, chunkText));
-        idx++;
+    return stream(doc).toList();
+  }
+
+  public Stream<Chunk> stream(Document doc) {
+    return stream(doc.documentId(), doc.title(), doc.source(), new StringReader(doc.text()));
+  }
+
+  /** Lazily chunks text read from {@code text}; the stream closes the reader. */
+  public Stream<Chunk> stream(String documentId, String title, String source, Reader text) {
+    Iterator<Chunk> it = iterator(documentId, title, source, text);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(() -> {
+          try {
+            text.close();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  /** Chunk ids are positional: the same document and index always give the same id. */
+  public static String chunkId(String documentId, int chunkIndex) {
+    return documentId + "_chunk_" + chunkIndex;
+  }
+
+  public Iterator<Chunk> iterator(String documentId, String title, String source, Reader text) {
+    return new ChunkIterator(documentId, title, source, new Normalizer(text), chunkSize, Math.max(1, chunkSize - overlap));
+  }
+
+  private static final class ChunkIterator implements Iterator<Chunk> {
+    private final String documentId;
+    private final String title;
+    private final String source;
+    private final Normalizer text;
+    private final int step;
+    private final char[] window;
+    private int windowLen;
+    private boolean eof;
+    private int idx;
+    private Chunk next;
+
+    ChunkIterator(String documentId, String title, String source, Normalizer text, int chunkSize, int step) {
+      this.documentId = documentId;
+      this.title = title;
+      this.source = source;
+      this.text = text;
+      this.step = step;
+      this.window = new char[chunkSize];
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        advance();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return next != null;
+    }
+
+    @Override
+    public Chunk next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      Chunk c = next;
+      next = null;
+      return c;
+    }
+
+    private void advance() throws IOException {
+      while (next == null) {
+        while (windowLen < window.length && !eof) {
+          int c = text.read();
+          if (c < 0) eof = true;
+          else window[windowLen++] = (char) c;
+        }
+        if (windowLen == 0) return; // window start is past the end of the text
+
+        String chunkText = new String(window, 0, windowLen).trim();
+        // slide by one step; the overlap stays at the front of the buffer
+        if (windowLen > step) {
+          System.arraycopy(window, step, window, 0, windowLen - step);
+          windowLen -= step;
+        } else {
+          windowLen = 0;
+        }
+        if (!chunkText.isBlank()) {
+          String chunkId = chunkId(documentId, idx);
+          next = new Chunk(chunkId, documentId, title, source, idx, chunkText);
+          idx++;
+        }
       }
-      i += step;
     }
-    return out;
   }
 
-  private static String normalize(String s) {
-    return s.replace("\r\n", "\n")
-        .replaceAll("[ \t]+", " ")
-        .replaceAll("\\n{3,}", "\n\n")
-        .trim();
+  /**
+   * Single-pass equivalent of
+   * {@code s.replace("\r\n", "\n").replaceAll("[ \t]+", " ").replaceAll("\\n{3,}", "\n\n").trim()}.
+   * Whitespace (chars &lt;= ' ') after the last visible char is held back until a visible char
+   * follows, and dropped at the end of input.
+   */
+  private static final class Normalizer {
+    private static final int NONE = -2;
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int len;
+    private int pushback = NONE;
+
+    private boolean started;       // leading trim done
+    private boolean lastWasBlank;  // previous output was a collapsed space/tab run
+    private int newlines;          // consecutive newlines so far
+    private final StringBuilder pending = new StringBuilder();
+    private int flushPos = -1;     // >= 0 while pending is being emitted
+
+    Normalizer(Reader in) {
+      this.in = in;
+    }
+
+    int read() throws IOException {
+      while (true) {
+        if (flushPos >= 0) {
+          char c = pending.charAt(flushPos++);
+          if (flushPos == pending.length()) {
+            pending.setLength(0);
+            flushPos = -1;
+          }
+          return c;
+        }
+
+        int c = readCrLf();
+        if (c < 0) return -1; // trailing whitespace in pending is trimmed away
+
+        if (c == ' ' || c == '\t') {
+          if (lastWasBlank) continue;
+          lastWasBlank = true;
+          c = ' ';
+        } else {
+          lastWasBlank = false;
+        }
+        if (c == '\n') {
+          if (++newlines > 2) continue;
+        } else {
+          newlines = 0;
+        }
+
+        if (c <= ' ') {
+          if (started) pending.append((char) c);
+          continue;
+        }
+        started = true;
+        if (pending.length() == 0) return c;
+        pending.append((char) c);
+        flushPos = 0;
+      }
+    }
+
+    /** Next raw char with each "\r\n" pair read as '\n' (non-overlapping, left to right). */
+    private int readCrLf() throws IOException {
+      int c = raw();
+      if (c == '\r') {
+        int n = raw();
+        if (n == '\n') return '\n';
+        pushback = n;
+      }
+      return c;
+    }
+
+    private int raw() throws IOException {
+      if (pushback != NONE) {
+        int c = pushback;
+        pushback = NONE;
+        return c;
+      }
+      if (pos == len) {
+        len = in.read(buf, 0, buf.length);
+        pos = 0;
+        if (len <= 0) {
+          len = 0;
+          return -1;
+        }
+      }
+      return buf[pos++];
+    }
   }
 }
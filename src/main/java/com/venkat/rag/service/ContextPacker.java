@@ -0,0 +1,136 @@
+package com.venkat.rag.service;
+
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.store.VectorStore;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Builds the CONTEXT section of a RAG prompt within a token budget.
+ *
+ * Chunks are taken best score first; a chunk is kept only if the tokens it adds still fit in the
+ * budget, otherwise it is skipped and smaller ones further down may still fit. Chunks of the same document with consecutive chunkIndex values
+ * are merged into one passage and the text they share (the chunker's overlap) is written once, so
+ * a neighbour of an already-selected chunk costs only its new text. Token counts come from
+ * {@link TokenEstimator} for the chat model.
+ */
+@Component
+public class ContextPacker {
+
+  /** Shorter suffix/prefix matches between neighbours are treated as coincidence, not overlap. */
+  private static final int MIN_OVERLAP = 16;
+
+  private final LongAdder packs = new LongAdder();
+  private final LongAdder tokensPacked = new LongAdder();
+  private final LongAdder tokensSavedByMerge = new LongAdder();
+  private final LongAdder chunksDropped = new LongAdder();
+
+  /**
+   * @param context       the passages, one "- " line each, in score order of their best chunk
+   * @param chunkIds      every chunk that contributed text
+   * @param tokens        estimated tokens of {@code context}
+   * @param naiveTokens   tokens of the same chunks joined one per line without merging
+   * @param chunksDropped retrieved chunks left out because they did not fit
+   */
+  public record Packed(String context, List<String> chunkIds, int tokens, int naiveTokens, int chunksDropped) {
+    public int tokensSaved() { return naiveTokens - tokens; }
+  }
+
+  public record Stats(long packs, long tokensPacked, long tokensSavedByMerge, long chunksDropped) {}
+
+  public Packed pack(String model, List<VectorStore.ScoredRecord> results, int budgetTokens) {
+    // best first; vector stores already return this order, but packing must not depend on it
+    List<Chunk> ranked = results.stream()
+        .sorted(Comparator.comparingDouble(VectorStore.ScoredRecord::score).reversed())
+        .map(r -> r.record().payload())
+        .toList();
+
+    Map<String, TreeMap<Integer, Chunk>> selected = new LinkedHashMap<>();
+    List<String> passageOrder = new ArrayList<>();
+    int used = 0;
+    int naive = 0;
+    int dropped = 0;
+    for (Chunk c : ranked) {
+      TreeMap<Integer, Chunk> doc = selected.get(c.documentId());
+      if (doc != null && doc.containsKey(c.chunkIndex())) continue; // duplicate hit
+      int before = doc == null ? 0 : tokens(model, passages(doc));
+      TreeMap<Integer, Chunk> trial = doc == null ? new TreeMap<>() : new TreeMap<>(doc);
+      trial.put(c.chunkIndex(), c);
+      int cost = tokens(model, passages(trial)) - before;
+      if (used + cost > budgetTokens) {
+        dropped++;
+        continue;
+      }
+      used += cost;
+      naive += tokens(model, "- " + c.text() + "\n");
+      selected.put(c.documentId(), trial);
+      if (doc == null) passageOrder.add(c.documentId());
+    }
+
+    StringBuilder context = new StringBuilder();
+    List<String> ids = new ArrayList<>();
+    for (String docId : passageOrder) {
+      TreeMap<Integer, Chunk> doc = selected.get(docId);
+      doc.values().forEach(c -> ids.add(c.chunkId()));
+      for (String passage : passages(doc)) {
+        if (context.length() > 0) context.append('\n');
+        context.append("- ").append(passage);
+      }
+    }
+    int tokens = tokens(model, context);
+
+    packs.increment();
+    tokensPacked.add(tokens);
+    tokensSavedByMerge.add(Math.max(0, naive - tokens));
+    chunksDropped.add(dropped);
+    return new Packed(context.toString(), ids, tokens, naive, dropped);
+  }
+
+  public Stats stats() {
+    return new Stats(packs.sum(), tokensPacked.sum(), tokensSavedByMerge.sum(), chunksDropped.sum());
+  }
+
+  /** Runs of consecutive chunkIndex values become one passage with the shared overlap written once. */
+  static List<String> passages(TreeMap<Integer, Chunk> doc) {
+    List<String> out = new ArrayList<>();
+    StringBuilder current = null;
+    int lastIndex = Integer.MIN_VALUE;
+    for (Chunk c : doc.values()) {
+      if (current != null && c.chunkIndex() == lastIndex + 1) {
+        int shared = overlap(current, c.text());
+        if (shared == 0) current.append(' ');
+        current.append(c.text(), shared, c.text().length());
+      } else {
+        if (current != null) out.add(current.toString());
+        current = new StringBuilder(c.text());
+      }
+      lastIndex = c.chunkIndex();
+    }
+    if (current != null) out.add(current.toString());
+    return out;
+  }
+
+  /** Length of the longest suffix of {@code a} that is also a prefix of {@code b}, or 0. */
+  static int overlap(CharSequence a, String b) {
+    int max = Math.min(a.length(), b.length());
+    for (int k = max; k >= MIN_OVERLAP; k--) {
+      boolean match = true;
+      int offset = a.length() - k;
+      for (int i = 0; i < k && match; i++) match = a.charAt(offset + i) == b.charAt(i);
+      if (match) return k;
+    }
+    return 0;
+  }
+
+  private static int tokens(String model, List<String> passages) {
+    int t = 0;
+    for (String p : passages) t += tokens(model, "- " + p + "\n");
+    return t;
+  }
+
+  private static int tokens(String model, CharSequence text) {
+    return TokenEstimator.estimate(model, text);
+  }
+}
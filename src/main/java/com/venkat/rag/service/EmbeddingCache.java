@@ -0,0 +1,208 @@
+package com.venkat.rag.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of embedding vectors, keyed by SHA-256 of model name + text.
+ *
+ * Tier 1 is an in-heap Caffeine cache (W-TinyLFU) bounded by vector bytes rather than entry
+ * count. Tier 2, enabled by {@code aigateway.embedding.cache.dir}, keeps raw little-endian float32
+ * vectors in one file per key, so unchanged chunks survive restarts without a gateway call. The
+ * disk tier is bounded by {@code aigateway.embedding.cache.diskMaxBytes}: a disk hit refreshes the
+ * file's mtime, and once the files outgrow the bound the least recently used are deleted until
+ * they fit in 90% of it.
+ */
+@Component
+public class EmbeddingCache {
+  private static final Logger log = LoggerFactory.getLogger(EmbeddingCache.class);
+  private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+  private final Cache<String, float[]> heap;
+  private final Path dir;
+  private final long diskMaxBytes;
+  private final AtomicLong diskBytes = new AtomicLong();
+  private final AtomicBoolean evicting = new AtomicBoolean();
+  private final LongAdder diskHits = new LongAdder();
+  private final LongAdder diskWrites = new LongAdder();
+  private final LongAdder diskEvictions = new LongAdder();
+
+  public EmbeddingCache(
+      @Value("${aigateway.embedding.cache.maxBytes:67108864}") long maxBytes,
+      @Value("${aigateway.embedding.cache.dir:}") String dir,
+      @Value("${aigateway.embedding.cache.diskMaxBytes:1073741824}") long diskMaxBytes) throws IOException {
+    this.heap = Caffeine.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher((String k, float[] v) -> ENTRY_OVERHEAD_BYTES + k.length() * 2 + v.length * 4)
+        .recordStats()
+        .build();
+    this.dir = dir == null || dir.isBlank() ? null : Paths.get(dir);
+    this.diskMaxBytes = Math.max(0, diskMaxBytes);
+    if (this.dir != null) {
+      Files.createDirectories(this.dir);
+      diskBytes.set(scanDisk(true).stream().mapToLong(CachedFile::size).sum());
+      evictDiskIfNeeded();
+    }
+  }
+
+  public record Stats(long hits, long diskHits, long misses, long evictions, long diskWrites,
+                      long entries, long weightBytes, long diskBytes, long diskEvictions) {}
+
+  public float[] get(String model, String text) {
+    String key = key(model, text);
+    float[] v = heap.getIfPresent(key);
+    if (v != null || dir == null) return v;
+
+    v = readDisk(key);
+    if (v != null) {
+      diskHits.increment();
+      heap.put(key, v);
+    }
+    return v;
+  }
+
+  public void put(String model, String text, float[] vector) {
+    String key = key(model, text);
+    heap.put(key, vector);
+    if (dir != null) writeDisk(key, vector);
+  }
+
+  public Stats stats() {
+    CacheStats s = heap.stats();
+    long weight = heap.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L);
+    // a disk hit is first counted as a heap miss
+    return new Stats(s.hitCount(), diskHits.sum(), s.missCount() - diskHits.sum(), s.evictionCount(),
+        diskWrites.sum(), heap.estimatedSize(), weight, diskBytes.get(), diskEvictions.sum());
+  }
+
+  static String key(String model, String text) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(model.getBytes(StandardCharsets.UTF_8));
+      md.update((byte) 0);
+      md.update(text.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(md.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // -------------------- Disk tier --------------------
+
+  private Path file(String key) {
+    // two-level fan-out keeps directories small
+    return dir.resolve(key.substring(0, 2)).resolve(key.substring(2) + ".f32");
+  }
+
+  private float[] readDisk(String key) {
+    Path f = file(key);
+    try {
+      byte[] bytes = Files.readAllBytes(f);
+      float[] v = new float[bytes.length / 4];
+      ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(v);
+      Files.setLastModifiedTime(f, FileTime.fromMillis(System.currentTimeMillis())); // recency for eviction
+      return v;
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      log.warn("embedding_cache_read_failed file={} msg={}", f, e.getMessage());
+      return null;
+    }
+  }
+
+  private void writeDisk(String key, float[] vector) {
+    Path f = file(key);
+    if (Files.exists(f)) return;
+    try {
+      Files.createDirectories(f.getParent());
+      ByteBuffer b = ByteBuffer.allocate(vector.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+      b.asFloatBuffer().put(vector);
+      // write-then-rename so a reader never sees a truncated vector
+      Path tmp = Files.createTempFile(f.getParent(), key.substring(2), ".tmp");
+      Files.write(tmp, b.array());
+      Files.move(tmp, f, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      diskWrites.increment();
+      diskBytes.addAndGet(b.capacity());
+    } catch (IOException e) {
+      log.warn("embedding_cache_write_failed file={} msg={}", f, e.getMessage());
+    }
+    evictDiskIfNeeded();
+  }
+
+  private record CachedFile(Path path, long size, long modified) {}
+
+  /** Deletes the least recently used files until the tier fits in 90% of its bound; one sweep at a time. */
+  private void evictDiskIfNeeded() {
+    if (diskBytes.get() <= diskMaxBytes || !evicting.compareAndSet(false, true)) return;
+    try {
+      List<CachedFile> files = scanDisk(false);
+      long total = files.stream().mapToLong(CachedFile::size).sum();
+      long target = diskMaxBytes / 10 * 9;
+      files.sort(Comparator.comparingLong(CachedFile::modified));
+      int evicted = 0;
+      for (CachedFile f : files) {
+        if (total <= target) break;
+        try {
+          if (Files.deleteIfExists(f.path())) {
+            total -= f.size();
+            evicted++;
+          }
+        } catch (IOException e) {
+          log.warn("embedding_cache_evict_failed file={} msg={}", f.path(), e.getMessage());
+        }
+      }
+      diskBytes.set(total);
+      diskEvictions.add(evicted);
+      if (evicted > 0) log.info("embedding_cache_disk_evicted files={} bytes={}", evicted, total);
+    } finally {
+      evicting.set(false);
+    }
+  }
+
+  /** Every cached vector file; with {@code dropTemp}, leftovers of interrupted writes are deleted. */
+  private List<CachedFile> scanDisk(boolean dropTemp) {
+    List<CachedFile> files = new ArrayList<>();
+    try (Stream<Path> walk = Files.walk(dir, 2)) {
+      for (Path p : (Iterable<Path>) walk::iterator) {
+        String name = p.getFileName().toString();
+        try {
+          if (dropTemp && name.endsWith(".tmp")) {
+            Files.deleteIfExists(p);
+          } else if (name.endsWith(".f32")) {
+            BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+            files.add(new CachedFile(p, a.size(), a.lastModifiedTime().toMillis()));
+          }
+        } catch (IOException e) {
+          // deleted by a concurrent sweep or another process
+        }
+      }
+    } catch (IOException | UncheckedIOException e) {
+      log.warn("embedding_cache_scan_failed dir={} msg={}", dir, e.getMessage());
+    }
+    return files;
+  }
+}
@@ -2,100 +2,249 @@ package com.venkat.rag.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.venkat.rag.metrics.RagMetrics;
+import com.venkat.rag.metrics.TokenLedger;
 import okhttp3.*;
+import okio.BufferedSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 @Component
 public class EmbeddingClient {
+  private static final Logger log = LoggerFactory.getLogger(EmbeddingClient.class);
   private static final MediaType JSON = MediaType.parse("application/json");
 
-  private final OkHttpClient http = new OkHttpClient();
+  private final OkHttpClient http;
+  private final OkHttpClient chatHttp;
   private final ObjectMapper om = new ObjectMapper();
   private final String gatewayUrl;
   private final String embeddingModel;
   private final String chatModel;
   private final String apiKey;
+  private final int batchSize;
+  private final long batchTokens;
+  private final boolean base64;
+  private final int maxRetries;
+  private final long retryBackoffMs;
+  private final EmbeddingCache cache;
+  private final RagMetrics metrics;
+  private final TokenLedger ledger;
 
   public EmbeddingClient(
       @Value("${aigateway.baseurl}") String gatewayUrl,
       @Value("${aigateway.embedding.model}") String embeddingModel,
       @Value("${aigateway.chat.model}") String chatModel,
-      @Value("${aigateway.api-key:}") String apiKey) {
+      @Value("${aigateway.api-key:}") String apiKey,
+      @Value("${aigateway.embedding.batchSize:128}") int batchSize,
+      @Value("${aigateway.embedding.batchTokens:100000}") long batchTokens,
+      @Value("${aigateway.embedding.encodingFormat:float}") String encodingFormat,
+      @Value("${aigateway.embedding.maxRetries:2}") int maxRetries,
+      @Value("${aigateway.embedding.retryBackoffMs:200}") long retryBackoffMs,
+      EmbeddingCache cache,
+      GatewayTransport transport,
+      RagMetrics metrics,
+      TokenLedger ledger) {
+    this.http = transport.embedding();
+    this.chatHttp = transport.chat();
     this.gatewayUrl = gatewayUrl.replaceAll("/$", ""); // remove trailing slash
     this.embeddingModel = embeddingModel;
     this.chatModel = chatModel;
     this.apiKey = apiKey;
+    this.batchSize = Math.max(1, batchSize);
+    this.batchTokens = Math.max(1, batchTokens);
+    this.base64 = "base64".equalsIgnoreCase(encodingFormat.trim());
+    this.maxRetries = Math.max(0, maxRetries);
+    this.retryBackoffMs = Math.max(0, retryBackoffMs);
+    this.cache = cache;
+    this.metrics = metrics;
+    this.ledger = ledger;
   }
 
-  public List<Double> embed(String text) {
+  public float[] embed(String text) {
+    float[] cached = cache.get(embeddingModel, text);
+    if (cached != null) return cached;
     try {
-      String embedUrl = gatewayUrl + "/v1/embeddings";
-      String payload = om.writeValueAsString(
-          Map.of("model", embeddingModel, "input", text));
+      float[] v = requestWithRetry(List.of(text))[0];
+      cache.put(embeddingModel, text, v);
+      return v;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Embeds many texts with as few /v1/embeddings calls as possible. Inputs are packed into
+   * requests of at most {@code aigateway.embedding.batchSize} items and an estimated
+   * {@code aigateway.embedding.batchTokens} tokens. A request the gateway rejects as too large is
+   * split in half and retried until a single input fails on its own; transient failures are retried
+   * as they are, and any other failure fails the batch. Cached texts, and repeats within the batch,
+   * are not sent. Results are in input order.
+   */
+  public List<float[]> embedBatch(List<String> inputs) {
+    float[][] result = new float[inputs.size()][];
+    Map<String, List<Integer>> pending = new LinkedHashMap<>();
+    for (int i = 0; i < inputs.size(); i++) {
+      result[i] = cache.get(embeddingModel, inputs.get(i));
+      if (result[i] == null) pending.computeIfAbsent(inputs.get(i), t -> new ArrayList<>()).add(i);
+    }
+    if (pending.isEmpty()) return Arrays.asList(result);
+
+    List<String> texts = new ArrayList<>(pending.keySet());
+    float[][] out = new float[texts.size()][];
+    int from = 0;
+    while (from < texts.size()) {
+      int to = from;
+      long tokens = 0;
+      while (to < texts.size() && to - from < batchSize) {
+        long t = estimateTokens(texts.get(to));
+        if (to > from && tokens + t > batchTokens) break;
+        tokens += t;
+        to++;
+      }
+      embedRange(texts, from, to, out);
+      from = to;
+    }
+
+    for (int t = 0; t < texts.size(); t++) {
+      cache.put(embeddingModel, texts.get(t), out[t]);
+      for (int i : pending.get(texts.get(t))) result[i] = out[t];
+    }
+    return Arrays.asList(result);
+  }
+
+  private void embedRange(List<String> texts, int from, int to, float[][] out) {
+    try {
+      float[][] vectors = requestWithRetry(texts.subList(from, to));
+      System.arraycopy(vectors, 0, out, from, vectors.length);
+    } catch (IOException e) {
+      if (to - from == 1 || !(e instanceof EmbedFailure f && f.batchTooLarge())) throw new RuntimeException(e);
+      int mid = (from + to) >>> 1;
+      log.warn("embed_batch_split size={} reason={}", to - from, e.getMessage());
+      embedRange(texts, from, mid, out);
+      embedRange(texts, mid, to, out);
+    }
+  }
+
+  /**
+   * Retries network errors, timeouts, 408, 429 and 5xx up to {@code aigateway.embedding.maxRetries}
+   * times, doubling {@code aigateway.embedding.retryBackoffMs} per attempt. Anything else (other
+   * statuses, a response that does not decode) would fail the same way again and is thrown at once.
+   */
+  private float[][] requestWithRetry(List<String> inputs) throws IOException {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        return requestEmbeddings(inputs);
+      } catch (IOException e) {
+        if (!isTransient(e) || attempt >= maxRetries) throw e;
+        log.warn("embed_retry attempt={} size={} reason={}", attempt + 1, inputs.size(), e.getMessage());
+        try {
+          Thread.sleep(retryBackoffMs << Math.min(attempt, 10));
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while retrying embed");
+        }
+      }
+    }
+  }
+
+  private static boolean isTransient(IOException e) {
+    if (e instanceof EmbedFailure f) return f.transientFailure();
+    if (Thread.currentThread().isInterrupted()) return false;
+    // timeouts (SocketTimeoutException is one), refused or reset connections, DNS hiccups
+    return e instanceof InterruptedIOException || e instanceof SocketException || e instanceof UnknownHostException;
+  }
+
+  /** A non-2xx /v1/embeddings response. */
+  static final class EmbedFailure extends IOException {
+    private static final Pattern TOO_LARGE = Pattern.compile(
+        "(?i)too (large|long|many)|maximum (context|input|batch)|context length|token limit|exceed");
+    final int status;
+
+    EmbedFailure(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+
+    /** Payload or token limits: the same inputs in smaller requests can succeed. */
+    boolean batchTooLarge() {
+      return status == 413 || (status == 400 || status == 422) && TOO_LARGE.matcher(getMessage()).find();
+    }
+
+    boolean transientFailure() {
+      return status == 408 || status == 429 || status >= 500;
+    }
+  }
 
-      Request req = new Request.Builder()
-          .url(embedUrl)
-          .post(RequestBody.create(payload, JSON))
-          .addHeader("Content-Type", "application/json")
-          .addHeader("Authorization", "Bearer " + apiKey)
-          .build();
+  /** One /v1/embeddings call; vectors are placed by the response's "index" field. */
+  private float[][] requestEmbeddings(List<String> inputs) throws IOException {
+    String embedUrl = gatewayUrl + "/v1/embeddings";
+    Object input = inputs.size() == 1 ? inputs.get(0) : inputs;
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("model", embeddingModel);
+    body.put("input", input);
+    if (base64) body.put("encoding_format", "base64");
+    byte[] payload = om.writeValueAsBytes(body);
+    metrics.payload("embedding", "request", payload.length);
 
+    Request req = new Request.Builder()
+        .url(embedUrl)
+        .post(RequestBody.create(payload, JSON))
+        .addHeader("Content-Type", "application/json")
+        .addHeader("Authorization", "Bearer " + apiKey)
+        .build();
+
+    return metrics.time("embedding", embeddingModel, () -> {
       try (Response resp = http.newCall(req).execute()) {
         if (!resp.isSuccessful()) {
           String err = resp.body() != null ? resp.body().string() : "";
-          throw new IOException("Embed failed: " + resp.code() + " " + err);
-        }
-        String body = resp.body() != null ? resp.body().string() : "{}";
-        JsonNode root = om.readTree(body);
-        JsonNode dataArray = root.get("data");
-        if (dataArray == null || !dataArray.isArray() || dataArray.isEmpty()) {
-          throw new IOException("Missing 'data' in embed response: " + body);
+          throw new EmbedFailure(resp.code(), "Embed failed: " + resp.code() + " " + err);
         }
-        JsonNode vecNode = dataArray.get(0).get("embedding");
-        if (vecNode == null || !vecNode.isArray()) {
-          throw new IOException("Missing 'embedding' in response: " + body);
+        if (resp.body() == null) throw new IOException("Empty embed response");
+        // streamed straight from the socket into float[]s
+        try (BufferedSource source = RagMetrics.counting(resp.body().source(),
+            n -> metrics.payload("embedding", "response", n))) {
+          long[] tokens = {0};
+          float[][] vectors = EmbeddingDecoder.decode(om.getFactory(), source.inputStream(), inputs.size(),
+              n -> tokens[0] = n);
+          ledger.recordEmbedding(embeddingModel, tokens[0]);
+          return vectors;
         }
-        List<Double> vector = new ArrayList<>(vecNode.size());
-        for (JsonNode n : vecNode) vector.add(n.asDouble());
-        return vector;
       }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    });
   }
 
-  public String chat(String userMessage, String systemPrompt) {
-    try {
-      String chatUrl = gatewayUrl + "/v1/chat/completions";
-      String payload = om.writeValueAsString(
-          Map.of(
-              "model", chatModel,
-              "messages", new Object[] {
-                  Map.of("role", "system", "content", systemPrompt),
-                  Map.of("role", "user", "content", userMessage)
-              },
-              "temperature", 0.7));
-
-      Request req = new Request.Builder()
-          .url(chatUrl)
-          .post(RequestBody.create(payload, JSON))
-          .addHeader("Content-Type", "application/json")
-          .addHeader("Authorization", "Bearer " + apiKey)
-          .build();
+  /** Rough token count (~4 chars per token) used only to size batches. */
+  private static long estimateTokens(String text) {
+    return text.length() / 4 + 1;
+  }
 
-      try (Response resp = http.newCall(req).execute()) {
+  public String chat(String userMessage, String systemPrompt) {
+    return metrics.time("chat", chatModel, () -> {
+      try (Response resp = chatHttp.newCall(chatRequest(userMessage, systemPrompt, false)).execute()) {
         if (!resp.isSuccessful()) {
           String err = resp.body() != null ? resp.body().string() : "";
           throw new IOException("Chat failed: " + resp.code() + " " + err);
         }
-        String body = resp.body() != null ? resp.body().string() : "{}";
+        byte[] raw = resp.body() != null ? resp.body().bytes() : new byte[] {'{', '}'};
+        metrics.payload("chat", "response", raw.length);
+        String body = new String(raw, StandardCharsets.UTF_8);
         JsonNode root = om.readTree(body);
+        ledger.recordChat(chatModel, root.path("usage"));
         JsonNode choicesNode = root.get("choices");
         if (choicesNode == null || !choicesNode.isArray() || choicesNode.isEmpty()) {
           throw new IOException("Missing 'choices' in response: " + body);
@@ -105,9 +254,57 @@ public class EmbeddingClient {
           throw new IOException("Missing 'content' in response: " + body);
         }
         return contentNode.asText();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
       }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    });
+  }
+
+  /**
+   * Streamed variant of {@link #chat}: each content delta is passed to {@code onToken} as soon as
+   * it arrives. Returns the assembled completion, including the usage block.
+   */
+  public JsonNode chatStream(String userMessage, String systemPrompt, Consumer<String> onToken) {
+    // timed to the end of the stream, not just to the first byte
+    return metrics.time("chat", chatModel, () -> {
+      try (Response resp = chatHttp.newCall(chatRequest(userMessage, systemPrompt, true)).execute()) {
+        if (!resp.isSuccessful()) {
+          String err = resp.body() != null ? resp.body().string() : "";
+          throw new IOException("Chat failed: " + resp.code() + " " + err);
+        }
+        try (BufferedSource source = RagMetrics.counting(resp.body().source(),
+            n -> metrics.payload("chat", "response", n))) {
+          JsonNode completion = ChatCompletionStream.read(source, om, onToken);
+          ledger.recordChat(chatModel, completion.path("usage"));
+          return completion;
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  private Request chatRequest(String userMessage, String systemPrompt, boolean stream) throws IOException {
+    String chatUrl = gatewayUrl + "/v1/chat/completions";
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("model", chatModel);
+    body.put("messages", new Object[] {
+        Map.of("role", "system", "content", systemPrompt),
+        Map.of("role", "user", "content", userMessage)
+    });
+    body.put("temperature", 0.7);
+    if (stream) {
+      body.put("stream", true);
+      body.put("stream_options", Map.of("include_usage", true));
     }
+
+    byte[] payload = om.writeValueAsBytes(body);
+    metrics.payload("chat", "request", payload.length);
+    return new Request.Builder()
+        .url(chatUrl)
+        .post(RequestBody.create(payload, JSON))
+        .addHeader("Content-Type", "application/json")
+        .addHeader("Authorization", "Bearer " + apiKey)
+        .build();
   }
 }
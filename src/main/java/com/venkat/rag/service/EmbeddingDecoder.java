@@ -0,0 +1,169 @@
+package com.venkat.rag.service;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Streaming decoder for /v1/embeddings responses.
+ *
+ * Reads the body with a JsonParser, token by token, and writes each vector straight into a
+ * float[]: no response String, no JsonNode tree, no boxed numbers, no per-number String. Numeric
+ * arrays are collected in a per-thread scratch buffer (their length is not known up front) and
+ * copied once into an exact array. Base64 embeddings (encoding_format=base64, little-endian float32) are decoded directly.
+ * Fields other than data[].index, data[].embedding and usage.prompt_tokens are skipped.
+ */
+final class EmbeddingDecoder {
+  private static final ThreadLocal<float[]> SCRATCH = ThreadLocal.withInitial(() -> new float[2048]);
+
+  private EmbeddingDecoder() {}
+
+  /**
+   * Vectors placed by their "index" field; fails unless exactly {@code expected} are present.
+   * {@code usage.prompt_tokens} (or {@code total_tokens}), when the gateway reports it, is passed
+   * to {@code onTokens}.
+   */
+  static float[][] decode(JsonFactory factory, InputStream body, int expected, LongConsumer onTokens)
+      throws IOException {
+    float[][] out = new float[expected][];
+    int seen = 0;
+    try (JsonParser p = factory.createParser(body)) {
+      if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("Embed response is not a JSON object");
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String field = p.currentName();
+        JsonToken value = p.nextToken();
+        if ("usage".equals(field) && value == JsonToken.START_OBJECT) {
+          long tokens = readUsage(p);
+          if (tokens >= 0) onTokens.accept(tokens);
+          continue;
+        }
+        if (!"data".equals(field) || value != JsonToken.START_ARRAY) {
+          p.skipChildren();
+          continue;
+        }
+        int position = 0;
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+          int index = position;
+          float[] vector = null;
+          while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            if ("index".equals(name) && t == JsonToken.VALUE_NUMBER_INT) {
+              index = p.getIntValue();
+            } else if ("embedding".equals(name) && t == JsonToken.START_ARRAY) {
+              vector = readFloats(p);
+            } else if ("embedding".equals(name) && t == JsonToken.VALUE_STRING) {
+              vector = readBase64(p);
+            } else {
+              p.skipChildren();
+            }
+          }
+          if (vector == null) throw new IOException("Missing 'embedding' in response item " + position);
+          if (index < 0 || index >= expected) throw new IOException("Embed response index out of range: " + index);
+          if (out[index] == null) seen++;
+          out[index] = vector;
+          position++;
+        }
+      }
+    }
+    if (seen != expected) throw new IOException("Embed response has " + seen + " vectors, expected " + expected);
+    return out;
+  }
+
+  /** prompt_tokens, else total_tokens, else -1; leaves the parser after the usage object. */
+  private static long readUsage(JsonParser p) throws IOException {
+    long prompt = -1;
+    long total = -1;
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String name = p.currentName();
+      JsonToken t = p.nextToken();
+      if (t == JsonToken.VALUE_NUMBER_INT && "prompt_tokens".equals(name)) {
+        prompt = p.getLongValue();
+      } else if (t == JsonToken.VALUE_NUMBER_INT && "total_tokens".equals(name)) {
+        total = p.getLongValue();
+      } else {
+        p.skipChildren();
+      }
+    }
+    return prompt >= 0 ? prompt : total;
+  }
+
+  private static float[] readFloats(JsonParser p) throws IOException {
+    float[] buf = SCRATCH.get();
+    int n = 0;
+    JsonToken t;
+    while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+      if (t != JsonToken.VALUE_NUMBER_FLOAT && t != JsonToken.VALUE_NUMBER_INT) {
+        throw new IOException("Non-numeric value in embedding: " + t);
+      }
+      if (n == buf.length) {
+        buf = Arrays.copyOf(buf, n * 2);
+        SCRATCH.set(buf);
+      }
+      buf[n++] = number(p);
+    }
+    return Arrays.copyOf(buf, n);
+  }
+
+  /**
+   * Parses the number from the parser's own char buffer. Typical embedding values (at most 15
+   * significant digits, small exponent) take the exact fast path: mantissa and power of ten are
+   * both exact doubles, so one multiply/divide is correctly rounded. Anything else goes through
+   * Jackson. Either way the result equals {@code (float) Double.parseDouble(text)}.
+   */
+  private static float number(JsonParser p) throws IOException {
+    char[] c = p.getTextCharacters();
+    int i = p.getTextOffset();
+    int end = i + p.getTextLength();
+    boolean negative = c[i] == '-';
+    if (negative) i++;
+    long mantissa = 0;
+    int digits = 0;
+    int exp10 = 0;
+    for (; i < end && c[i] >= '0' && c[i] <= '9'; i++) {
+      if (mantissa != 0 || c[i] != '0') digits++;
+      mantissa = mantissa * 10 + (c[i] - '0');
+      if (digits > 15) return (float) p.getDoubleValue();
+    }
+    if (i < end && c[i] == '.') {
+      for (i++; i < end && c[i] >= '0' && c[i] <= '9'; i++) {
+        if (mantissa != 0 || c[i] != '0') digits++;
+        mantissa = mantissa * 10 + (c[i] - '0');
+        exp10--;
+        if (digits > 15) return (float) p.getDoubleValue();
+      }
+    }
+    if (i < end && (c[i] == 'e' || c[i] == 'E')) {
+      i++;
+      boolean expNegative = i < end && c[i] == '-';
+      if (i < end && (c[i] == '-' || c[i] == '+')) i++;
+      int e = 0;
+      for (; i < end && c[i] >= '0' && c[i] <= '9' && e < 1000; i++) e = e * 10 + (c[i] - '0');
+      exp10 += expNegative ? -e : e;
+    }
+    if (i != end || exp10 < -22 || exp10 > 22) return (float) p.getDoubleValue();
+    double v = exp10 < 0 ? mantissa / POW10[-exp10] : mantissa * POW10[exp10];
+    return (float) (negative ? -v : v);
+  }
+
+  private static final double[] POW10 = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private static float[] readBase64(JsonParser p) throws IOException {
+    byte[] bytes = p.getBinaryValue(Base64Variants.MIME_NO_LINEFEEDS);
+    if ((bytes.length & 3) != 0) throw new IOException("Base64 embedding is not a whole number of float32s");
+    float[] v = new float[bytes.length >> 2];
+    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(v);
+    return v;
+  }
+}
@@ -0,0 +1,185 @@
+package com.venkat.rag.service;
+
+import jakarta.annotation.PreDestroy;
+import okhttp3.*;
+import okio.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One HTTP transport for every gateway client: a single connection pool and dispatcher, shared
+ * by an embedding client and a chat client that differ only in timeouts.
+ *
+ * OkHttp's dispatcher limits only apply to async calls, and the clients here call execute(), so
+ * {@code maxRequestsPerHost} is also enforced by an interceptor that holds a per-host permit until
+ * the response body is closed (for streamed chat, until the stream ends). Responses are gzip'd
+ * transparently by OkHttp; request bodies above {@code gzipRequestMinBytes} are gzip'd when
+ * {@code gzipRequests} is on (the gateway must accept Content-Encoding: gzip).
+ */
+@Component
+public class GatewayTransport {
+
+  private final ConnectionPool pool;
+  private final Dispatcher dispatcher;
+  private final OkHttpClient embedding;
+  private final OkHttpClient chat;
+  private final int maxRequestsPerHost;
+  private final long acquireTimeoutMs;
+  private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+  private final LongAdder connectionsOpened = new LongAdder();
+  private final LongAdder connectionsAcquired = new LongAdder();
+  private final LongAdder callsFailed = new LongAdder();
+  private final LongAdder permitWaits = new LongAdder();
+
+  public GatewayTransport(
+      @Value("${aigateway.http.maxIdleConnections:32}") int maxIdleConnections,
+      @Value("${aigateway.http.keepAliveSeconds:300}") long keepAliveSeconds,
+      @Value("${aigateway.http.maxRequests:256}") int maxRequests,
+      @Value("${aigateway.http.maxRequestsPerHost:64}") int maxRequestsPerHost,
+      @Value("${aigateway.http.acquireTimeoutMs:30000}") long acquireTimeoutMs,
+      @Value("${aigateway.http.connectTimeoutMs:2000}") long connectTimeoutMs,
+      @Value("${aigateway.http.writeTimeoutMs:30000}") long writeTimeoutMs,
+      @Value("${aigateway.http.embedding.readTimeoutMs:30000}") long embeddingReadTimeoutMs,
+      @Value("${aigateway.http.chat.readTimeoutMs:120000}") long chatReadTimeoutMs,
+      @Value("${aigateway.http.h2PriorKnowledge:false}") boolean h2PriorKnowledge,
+      @Value("${aigateway.http.gzipRequests:false}") boolean gzipRequests,
+      @Value("${aigateway.http.gzipRequestMinBytes:4096}") long gzipRequestMinBytes) {
+    this.pool = new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS);
+    this.dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(maxRequests);
+    dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+    this.maxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+    this.acquireTimeoutMs = acquireTimeoutMs;
+
+    OkHttpClient.Builder base = new OkHttpClient.Builder()
+        .connectionPool(pool)
+        .dispatcher(dispatcher)
+        .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+        .writeTimeout(writeTimeoutMs, TimeUnit.MILLISECONDS)
+        .retryOnConnectionFailure(true)
+        .eventListener(new Metrics())
+        .addInterceptor(this::limitPerHost);
+    // cleartext h2 only if the gateway speaks it; over TLS, h2 is negotiated via ALPN anyway
+    if (h2PriorKnowledge) base.protocols(List.of(Protocol.H2_PRIOR_KNOWLEDGE));
+    if (gzipRequests) base.addInterceptor(chain -> chain.proceed(gzip(chain.request(), gzipRequestMinBytes)));
+    OkHttpClient shared = base.build();
+
+    // newBuilder() keeps the pool, dispatcher and interceptors; only the timeouts differ
+    this.embedding = shared.newBuilder().readTimeout(embeddingReadTimeoutMs, TimeUnit.MILLISECONDS).build();
+    this.chat = shared.newBuilder().readTimeout(chatReadTimeoutMs, TimeUnit.MILLISECONDS).build();
+  }
+
+  public record Stats(int connections, int idleConnections, long connectionsOpened, long connectionsReused,
+                      long callsFailed, long permitWaits, int asyncRunning, int asyncQueued) {}
+
+  public OkHttpClient embedding() {
+    return embedding;
+  }
+
+  public OkHttpClient chat() {
+    return chat;
+  }
+
+  public Stats stats() {
+    long opened = connectionsOpened.sum();
+    return new Stats(pool.connectionCount(), pool.idleConnectionCount(), opened,
+        Math.max(0, connectionsAcquired.sum() - opened), callsFailed.sum(), permitWaits.sum(),
+        dispatcher.runningCallsCount(), dispatcher.queuedCallsCount());
+  }
+
+  @PreDestroy
+  public void close() {
+    dispatcher.executorService().shutdown();
+    pool.evictAll();
+  }
+
+  // -------------------- Interceptors --------------------
+
+  private Response limitPerHost(Interceptor.Chain chain) throws IOException {
+    Semaphore permits = hostPermits.computeIfAbsent(chain.request().url().host(),
+        h -> new Semaphore(maxRequestsPerHost, true));
+    try {
+      if (!permits.tryAcquire()) {
+        permitWaits.increment();
+        if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+          throw new InterruptedIOException("Gateway busy: no connection slot within " + acquireTimeoutMs + " ms");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a gateway connection slot");
+    }
+
+    AtomicBoolean released = new AtomicBoolean();
+    Runnable release = () -> { if (released.compareAndSet(false, true)) permits.release(); };
+    try {
+      Response response = chain.proceed(chain.request());
+      ResponseBody body = response.body();
+      if (body == null) {
+        release.run();
+        return response;
+      }
+      // keep the permit until the body is consumed or closed
+      BufferedSource source = Okio.buffer(new ForwardingSource(body.source()) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            release.run();
+          }
+        }
+      });
+      return response.newBuilder().body(ResponseBody.create(source, body.contentType(), body.contentLength())).build();
+    } catch (IOException | RuntimeException e) {
+      release.run();
+      throw e;
+    }
+  }
+
+  private static Request gzip(Request request, long minBytes) throws IOException {
+    RequestBody body = request.body();
+    if (body == null || request.header("Content-Encoding") != null || body.contentLength() < minBytes) {
+      return request;
+    }
+    Buffer compressed = new Buffer();
+    try (BufferedSink sink = Okio.buffer(new GzipSink(compressed))) {
+      body.writeTo(sink);
+    }
+    RequestBody gzipped = RequestBody.create(compressed.readByteString(), body.contentType());
+    return request.newBuilder()
+        .header("Content-Encoding", "gzip")
+        .method(request.method(), gzipped)
+        .build();
+  }
+
+  private final class Metrics extends EventListener {
+    @Override
+    public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+      connectionsOpened.increment();
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+      connectionsAcquired.increment();
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+      callsFailed.increment();
+    }
+  }
+}
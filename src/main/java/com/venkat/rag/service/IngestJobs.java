@@ -0,0 +1,521 @@
+package com.venkat.rag.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.venkat.rag.dto.IngestJobStatus;
+import com.venkat.rag.dto.IngestRequest;
+import com.venkat.rag.metrics.RagMetrics;
+import com.venkat.rag.metrics.RequestRoute;
+import com.venkat.rag.model.Chunk;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Asynchronous, restartable ingest jobs.
+ *
+ * A submitted corpus is written to {@code <dir>/<jobId>/documents.ndjson} and processed on a
+ * dedicated executor in batches of {@code rag.jobs.batchSize} chunks, filled across documents so a
+ * corpus of small documents still makes one embedding call and one store flush per batch. After
+ * each batch is upserted, its documents' stale chunks deleted and the store flushed, the manifests
+ * of the documents it completed are committed and the position reached (document ordinal, chunks
+ * done within it) is appended to {@code checkpoint.log} and fsync'd. A failed job is retried from
+ * its last checkpoint; jobs still queued or running when the process stopped are resumed on
+ * startup, and failed ones on request. Documents are chunked
+ * deterministically, so skipping the first {@code chunk} chunks of the checkpointed document lands
+ * exactly after the last stored batch; at worst one batch is embedded and upserted again (by id).
+ * Unchanged chunks are skipped and stale ones deleted as in {@link RagService#ingest}. Progress
+ * lines carry a fingerprint of the document's plan; if the manifest moved on in between (another
+ * ingest committed the document), the resumed document starts over instead of skipping chunks.
+ *
+ * checkpoint.log lines: {@code {"state":"QUEUED","documents":N}}, {@code {"doc":i,"chunk":n,"stored":s,"plan":p}},
+ * {@code {"state":"FAILED","error":"..."}}; the last line of each kind wins. When a job ends the log
+ * is compacted to one line holding both, and documents.ndjson is deleted unless the job FAILED
+ * (it is needed to resume). Finished jobs are forgotten, directory and all, after
+ * {@code rag.jobs.retentionHours}.
+ */
+@Service
+public class IngestJobs {
+  private static final Logger log = LoggerFactory.getLogger(IngestJobs.class);
+
+  public enum State { QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED }
+
+  private static final String DOCUMENTS = "documents.ndjson";
+  private static final String CHECKPOINT = "checkpoint.log";
+
+  private final Chunker chunker;
+  private final ChunkWriter chunkWriter;
+  private final RagMetrics metrics;
+  private final ObjectMapper om = new ObjectMapper();
+  private final ObjectReader documentReader = om.readerFor(IngestRequest.DocumentDto.class);
+
+  private final Path dir;
+  private final int batchSize;
+  private final int maxAttempts;
+  private final long retryBackoffMs;
+  private final long retentionMillis;
+  private final ExecutorService executor;
+  private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+  private volatile boolean closing;
+
+  public IngestJobs(Chunker chunker, ChunkWriter chunkWriter, RagMetrics metrics,
+      @Value("${rag.jobs.dir:./data/jobs}") String dir,
+      @Value("${rag.jobs.threads:2}") int threads,
+      @Value("${rag.jobs.batchSize:512}") int batchSize,
+      @Value("${rag.jobs.maxAttempts:3}") int maxAttempts,
+      @Value("${rag.jobs.retryBackoffMs:1000}") long retryBackoffMs,
+      @Value("${rag.jobs.retentionHours:24}") long retentionHours) throws IOException {
+    this.chunker = chunker;
+    this.chunkWriter = chunkWriter;
+    this.metrics = metrics;
+    this.dir = Paths.get(dir);
+    this.batchSize = Math.max(1, batchSize);
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.retryBackoffMs = Math.max(0, retryBackoffMs);
+    this.retentionMillis = Math.max(0, retentionHours) * 3_600_000;
+    this.executor = VirtualThreads.platformExecutor("ingest-job", threads);
+    Files.createDirectories(this.dir);
+    recover();
+  }
+
+  /** Progress of one job; fields are written by its worker and read by status calls. */
+  private static final class Job {
+    final String id;
+    final Path dir;
+    volatile int documentsTotal;
+    volatile State state = State.QUEUED;
+    volatile int doc;        // next document ordinal to process
+    volatile int chunk;      // upserts of that document already stored
+    volatile long stored;    // chunks stored over the whole job
+    volatile int plan;       // fingerprint of that document's plan when chunk > 0
+    volatile long finishedAt;
+    volatile int attempts;
+    volatile String error;
+    volatile boolean cancelRequested;
+    Future<?> future;
+
+    Job(String id, Path dir) {
+      this.id = id;
+      this.dir = dir;
+    }
+  }
+
+  private static final class CancelledException extends RuntimeException {}
+
+  // -------------------- API --------------------
+
+  public IngestJobStatus submit(List<IngestRequest.DocumentDto> documents) {
+    purgeExpired();
+    String id = UUID.randomUUID().toString();
+    Job job = new Job(id, dir.resolve(id));
+    job.documentsTotal = documents.size();
+    try {
+      Files.createDirectories(job.dir);
+      Path tmp = job.dir.resolve(DOCUMENTS + ".tmp");
+      try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        for (IngestRequest.DocumentDto d : documents) {
+          w.write(om.writeValueAsString(d));
+          w.write('\n');
+        }
+      }
+      Files.move(tmp, job.dir.resolve(DOCUMENTS), StandardCopyOption.ATOMIC_MOVE);
+      append(job, om.createObjectNode().put("state", State.QUEUED.name()).put("documents", documents.size()));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    jobs.put(id, job);
+    schedule(job);
+    log.info("ingest_job_submitted job={} documents={}", id, documents.size());
+    return toStatus(job);
+  }
+
+  public Optional<IngestJobStatus> status(String jobId) {
+    return Optional.ofNullable(jobs.get(jobId)).map(IngestJobs::toStatus);
+  }
+
+  public List<IngestJobStatus> list() {
+    return jobs.values().stream().map(IngestJobs::toStatus)
+        .sorted(Comparator.comparing(IngestJobStatus::getJobId)).toList();
+  }
+
+  /** Stops a queued or running job after its current batch; finished jobs are left as they are. */
+  public Optional<IngestJobStatus> cancel(String jobId) {
+    Job job = jobs.get(jobId);
+    if (job == null) return Optional.empty();
+    synchronized (job) {
+      switch (job.state) {
+        case RUNNING -> job.cancelRequested = true; // the worker stops at its next batch
+        case QUEUED, FAILED -> {
+          job.cancelRequested = true;
+          if (job.future != null) job.future.cancel(false);
+          finish(job, State.CANCELLED, null);
+        }
+        default -> { }
+      }
+    }
+    return Optional.of(toStatus(job));
+  }
+
+  /** Runs a failed job again from its last checkpoint. */
+  public Optional<IngestJobStatus> resume(String jobId) {
+    Job job = jobs.get(jobId);
+    if (job == null) return Optional.empty();
+    synchronized (job) {
+      if (job.state == State.FAILED) {
+        job.attempts = 0;
+        job.error = null;
+        job.state = State.QUEUED;
+        appendQuietly(job, om.createObjectNode().put("state", State.QUEUED.name()).put("documents", job.documentsTotal));
+        schedule(job);
+      }
+    }
+    return Optional.of(toStatus(job));
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void resumeInterrupted() {
+    // after startup, so the chunker is configured before any job chunks a document
+    for (Job job : jobs.values()) {
+      if (job.state == State.QUEUED || job.state == State.RUNNING) {
+        log.info("ingest_job_resumed job={} doc={} chunk={}", job.id, job.doc, job.chunk);
+        job.state = State.QUEUED;
+        schedule(job);
+      }
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    // running jobs stop at their next batch and are resumed from the checkpoint on restart
+    closing = true;
+    executor.shutdownNow();
+  }
+
+  // -------------------- Worker --------------------
+
+  private void schedule(Job job) {
+    synchronized (job) {
+      job.future = executor.submit(RequestRoute.wrap("ingest_job", () -> run(job)));
+    }
+  }
+
+  private void run(Job job) {
+    synchronized (job) {
+      if (job.state != State.QUEUED) return;
+      job.state = State.RUNNING;
+    }
+    while (true) {
+      try {
+        job.attempts++;
+        process(job);
+        finish(job, State.SUCCEEDED, null);
+        log.info("ingest_job_done job={} documents={} chunks={} attempts={}", job.id, job.documentsTotal, job.stored, job.attempts);
+        return;
+      } catch (CancelledException e) {
+        if (!job.cancelRequested) return; // shutting down; resumed on restart
+        finish(job, State.CANCELLED, null);
+        log.info("ingest_job_cancelled job={} doc={} chunks={}", job.id, job.doc, job.stored);
+        return;
+      } catch (RuntimeException | IOException e) {
+        log.warn("ingest_job_attempt_failed job={} attempt={} doc={} chunk={} error={}",
+            job.id, job.attempts, job.doc, job.chunk, e.toString());
+        if (closing) return; // shutting down; resumed on restart
+        if (job.attempts >= maxAttempts) {
+          finish(job, State.FAILED, String.valueOf(e.getMessage()));
+          return;
+        }
+        try {
+          Thread.sleep(retryBackoffMs << Math.min(job.attempts - 1, 10));
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        if (closing) return;
+      }
+    }
+  }
+
+  /** Upserts gathered across documents, and the plans of the documents they complete. */
+  private static final class Batch {
+    final Map<String, Chunk> upserts = new LinkedHashMap<>(); // by id: a document listed twice keeps its later chunk
+    final Set<String> removed = new LinkedHashSet<>();
+    final List<ChunkManifest.Plan> finished = new ArrayList<>();
+
+    void add(Chunk c) {
+      removed.remove(c.chunkId());
+      upserts.remove(c.chunkId());
+      upserts.put(c.chunkId(), c);
+    }
+
+    void finish(ChunkManifest.Plan plan) {
+      for (String id : plan.removedIds()) {
+        upserts.remove(id);
+        removed.add(id);
+      }
+      finished.add(plan);
+    }
+
+    boolean isEmpty() {
+      return upserts.isEmpty() && finished.isEmpty();
+    }
+  }
+
+  private void process(Job job) throws IOException {
+    // where the last checkpoint left off; job.doc/chunk move on as batches are written
+    int resumeDoc = job.doc;
+    int resumeChunk = job.chunk;
+    int resumePlan = job.plan;
+    try (MappingIterator<IngestRequest.DocumentDto> docs = documentReader.readValues(job.dir.resolve(DOCUMENTS).toFile());
+         ChunkManifest.Session session = chunkWriter.session()) {
+      Batch batch = new Batch();
+      int ordinal = 0;
+      while (docs.hasNextValue()) {
+        IngestRequest.DocumentDto d = docs.nextValue();
+        int index = ordinal++;
+        if (index < resumeDoc) continue; // stored before the last checkpoint
+        checkCancelled(job);
+
+        // the manifest is only committed once the document is done, so a resumed attempt gets the
+        // same plan and job.chunk counts into the same list of upserts
+        List<Chunk> all = new ArrayList<>();
+        String text = d.getText() == null ? "" : d.getText();
+        metrics.time("chunking", null, () -> chunker.iterator(d.getDocumentId(), d.getTitle(), d.getSource(),
+            new StringReader(text)).forEachRemaining(all::add));
+        ChunkManifest.Plan plan = session.plan(d.getDocumentId(), all);
+        List<Chunk> upserts = plan.upserts();
+        int fingerprint = fingerprint(plan);
+
+        int from = 0;
+        if (index == resumeDoc && resumeChunk > 0 && resumePlan == fingerprint) {
+          from = Math.min(resumeChunk, upserts.size());
+        } else if (index == resumeDoc && resumeChunk > 0) {
+          log.info("ingest_job_replanned job={} doc={} skipped={}", job.id, index, resumeChunk);
+        }
+        for (int i = from; i < upserts.size(); i++) {
+          batch.add(upserts.get(i));
+          if (batch.upserts.size() >= batchSize && i + 1 < upserts.size()) {
+            write(job, session, batch, index, i + 1, fingerprint);
+            batch = new Batch();
+          }
+        }
+        batch.finish(plan);
+        if (batch.upserts.size() >= batchSize) {
+          write(job, session, batch, index + 1, 0, 0);
+          batch = new Batch();
+        }
+      }
+      if (!batch.isEmpty()) write(job, session, batch, ordinal, 0, 0);
+    }
+  }
+
+  /**
+   * Embeds and upserts the batch, deletes its documents' stale chunks, flushes, commits the
+   * manifests of the documents it completed, then checkpoints at ({@code doc}, {@code chunk}).
+   */
+  private void write(Job job, ChunkManifest.Session session, Batch batch, int doc, int chunk, int plan) throws IOException {
+    chunkWriter.upsert(chunkWriter.embed(List.copyOf(batch.upserts.values())));
+    chunkWriter.delete(List.copyOf(batch.removed));
+    chunkWriter.flush(); // durable before the manifests and the checkpoint say so
+    batch.finished.forEach(p -> session.commit(p.documentId(), p.hashes()));
+    checkpoint(job, doc, chunk, plan, batch.upserts.size());
+    checkCancelled(job);
+  }
+
+  private void checkpoint(Job job, int doc, int chunk, int plan, int added) throws IOException {
+    long stored = job.stored + added;
+    append(job, om.createObjectNode().put("doc", doc).put("chunk", chunk).put("stored", stored).put("plan", plan));
+    job.doc = doc;
+    job.chunk = chunk;
+    job.plan = plan;
+    job.stored = stored;
+  }
+
+  /** Identifies a plan's upsert list, so a checkpointed offset is only applied to the same list. */
+  private static int fingerprint(ChunkManifest.Plan plan) {
+    int h = 1;
+    for (Chunk c : plan.upserts()) h = 31 * h + (c.chunkIndex() + ":" + plan.hashes().get(c.chunkIndex())).hashCode();
+    return h;
+  }
+
+  private void checkCancelled(Job job) {
+    if (job.cancelRequested || closing) throw new CancelledException();
+  }
+
+  private void finish(Job job, State state, String error) {
+    synchronized (job) {
+      job.error = error;
+      job.finishedAt = System.currentTimeMillis();
+      try {
+        compact(job, state);
+      } catch (IOException e) {
+        log.warn("ingest_job_compact_failed job={} error={}", job.id, e.toString());
+        ObjectNode line = om.createObjectNode().put("state", state.name());
+        if (error != null) line.put("error", error);
+        appendQuietly(job, line);
+      }
+      if (state != State.FAILED) deleteQuietly(job.dir.resolve(DOCUMENTS));
+      job.state = state; // last, so a finished status means the files are settled
+    }
+  }
+
+  /** Drops finished jobs older than the retention, directory and status. */
+  private void purgeExpired() {
+    long cutoff = System.currentTimeMillis() - retentionMillis;
+    for (Job job : jobs.values()) {
+      synchronized (job) {
+        if (!isFinished(job.state) || job.finishedAt > cutoff) continue;
+        try (Stream<Path> files = Files.list(job.dir)) {
+          for (Path f : files.toList()) Files.deleteIfExists(f);
+          Files.deleteIfExists(job.dir);
+          jobs.remove(job.id);
+          log.info("ingest_job_purged job={} state={}", job.id, job.state);
+        } catch (IOException e) {
+          log.warn("ingest_job_purge_failed job={} error={}", job.id, e.toString());
+        }
+      }
+    }
+  }
+
+  private static boolean isFinished(State state) {
+    return state == State.SUCCEEDED || state == State.FAILED || state == State.CANCELLED;
+  }
+
+  // -------------------- Checkpoint log --------------------
+
+  private static void append(Job job, ObjectNode line) throws IOException {
+    byte[] bytes = (line.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+    try (FileChannel ch = FileChannel.open(job.dir.resolve(CHECKPOINT),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      ByteBuffer buf = ByteBuffer.wrap(bytes);
+      while (buf.hasRemaining()) ch.write(buf);
+      ch.force(false);
+    }
+  }
+
+  /** Replaces the log with one line holding the job's final state and progress. */
+  private void compact(Job job, State state) throws IOException {
+    ObjectNode line = om.createObjectNode().put("state", state.name()).put("documents", job.documentsTotal)
+        .put("doc", job.doc).put("chunk", job.chunk).put("stored", job.stored).put("plan", job.plan);
+    if (job.error != null) line.put("error", job.error);
+    Path tmp = job.dir.resolve(CHECKPOINT + ".tmp");
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buf = ByteBuffer.wrap((line.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+      while (buf.hasRemaining()) ch.write(buf);
+      ch.force(false);
+    }
+    Files.move(tmp, job.dir.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      log.warn("ingest_job_cleanup_failed file={} error={}", file, e.toString());
+    }
+  }
+
+  private static void appendQuietly(Job job, ObjectNode line) {
+    try {
+      append(job, line);
+    } catch (IOException e) {
+      log.warn("ingest_job_checkpoint_failed job={} error={}", job.id, e.toString());
+    }
+  }
+
+  private void recover() throws IOException {
+    try (Stream<Path> dirs = Files.list(dir)) {
+      for (Path jobDir : dirs.filter(Files::isDirectory).toList()) {
+        Path checkpoint = jobDir.resolve(CHECKPOINT);
+        if (!Files.exists(checkpoint)) continue;
+        try {
+          Job job = replay(jobDir, checkpoint);
+          boolean resumable = job.state == State.QUEUED || job.state == State.RUNNING || job.state == State.FAILED;
+          if (resumable && !Files.exists(jobDir.resolve(DOCUMENTS))) continue;
+          // a crash between compacting the log and deleting the corpus
+          if (!resumable) deleteQuietly(jobDir.resolve(DOCUMENTS));
+          job.finishedAt = Files.getLastModifiedTime(checkpoint).toMillis();
+          jobs.put(job.id, job);
+        } catch (IOException | RuntimeException e) {
+          log.warn("ingest_job_unreadable dir={} error={}", jobDir, e.toString());
+        }
+      }
+    }
+    purgeExpired();
+    if (!jobs.isEmpty()) log.info("ingest_jobs_recovered count={}", jobs.size());
+  }
+
+  /** Rebuilds a job from its checkpoint log; a torn last line (crash mid-append) is cut off. */
+  private Job replay(Path jobDir, Path checkpoint) throws IOException {
+    Job job = new Job(jobDir.getFileName().toString(), jobDir);
+    byte[] bytes = Files.readAllBytes(checkpoint);
+    int end = bytes.length;
+    while (end > 0 && bytes[end - 1] != '\n') end--;
+    if (end < bytes.length) {
+      try (FileChannel ch = FileChannel.open(checkpoint, StandardOpenOption.WRITE)) {
+        ch.truncate(end);
+      }
+    }
+    for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+      if (line.isBlank()) continue;
+      JsonNode n = om.readTree(line);
+      if (n.has("state")) {
+        job.state = State.valueOf(n.get("state").asText());
+        job.error = n.path("error").asText(null);
+        if (n.has("documents")) job.documentsTotal = n.get("documents").asInt();
+      }
+      if (n.has("doc")) {
+        job.doc = n.get("doc").asInt();
+        job.chunk = n.path("chunk").asInt();
+        job.stored = n.path("stored").asLong();
+        job.plan = n.path("plan").asInt();
+      }
+    }
+    return job;
+  }
+
+  private static IngestJobStatus toStatus(Job job) {
+    return IngestJobStatus.builder()
+        .jobId(job.id)
+        .state(job.state.name())
+        .documentsTotal(job.documentsTotal)
+        .documentsCompleted(Math.min(job.doc, job.documentsTotal))
+        .chunksStored(job.stored)
+        .attempts(job.attempts)
+        .error(job.error)
+        .build();
+  }
+}
@@ -0,0 +1,314 @@
+package com.venkat.rag.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.venkat.rag.dto.IngestProgress;
+import com.venkat.rag.dto.IngestRequest;
+import com.venkat.rag.metrics.RagMetrics;
+import com.venkat.rag.metrics.RequestRoute;
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.model.VectorRecord;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streaming ingest: newline-delimited documents in, newline-delimited progress out.
+ *
+ * Three stages joined by bounded queues, each on its own thread:
+ * <pre>
+ *   request thread: read one document, chunk it  --chunks-->  embed: batch, embedBatch
+ *     --records-->  upsert: upsertAll, report finished documents
+ * </pre>
+ * A full queue blocks the stage in front of it, so a slow embedding gateway or Milvus slows down
+ * reading the upload instead of buffering it; at most one document plus the queued chunks and
+ * batches are in memory. Each document's end travels through the queues behind its last chunk,
+ * so once the upsert stage has written a batch, every document whose marker rode on it is stored.
+ *
+ * Ingest is incremental (see {@link ChunkManifest}): only new and changed chunks enter the queues,
+ * and the upsert stage deletes a document's stale chunks when its marker arrives. Manifests are
+ * committed after a store flush, every {@code MANIFEST_COMMIT_DOCS} documents and at the end.
+ */
+@Service
+public class IngestPipeline {
+  private static final Logger log = LoggerFactory.getLogger(IngestPipeline.class);
+  private static final int MANIFEST_COMMIT_DOCS = 256;
+
+  private final Chunker chunker;
+  private final ChunkWriter chunkWriter;
+  private final RagMetrics metrics;
+  private final ObjectMapper om = new ObjectMapper();
+
+  private final int batchSize;
+  private final int chunkQueueSize;
+  private final int batchQueueSize;
+  private final long lingerMs;
+  private final long acquireTimeoutMs;
+  private final Semaphore streams;
+  private final ExecutorService stages;
+
+  public IngestPipeline(Chunker chunker, ChunkWriter chunkWriter, RagMetrics metrics,
+      @Value("${rag.ingest.batchSize:128}") int batchSize,
+      @Value("${rag.ingest.chunkQueueSize:1024}") int chunkQueueSize,
+      @Value("${rag.ingest.batchQueueSize:4}") int batchQueueSize,
+      @Value("${rag.ingest.lingerMs:50}") long lingerMs,
+      @Value("${rag.ingest.maxConcurrentStreams:4}") int maxConcurrentStreams,
+      @Value("${rag.ingest.acquireTimeoutMs:30000}") long acquireTimeoutMs) {
+    this.chunker = chunker;
+    this.chunkWriter = chunkWriter;
+    this.metrics = metrics;
+    this.batchSize = Math.max(1, batchSize);
+    this.chunkQueueSize = Math.max(1, chunkQueueSize);
+    this.batchQueueSize = Math.max(1, batchQueueSize);
+    this.lingerMs = Math.max(0, lingerMs);
+    this.acquireTimeoutMs = acquireTimeoutMs;
+    int maxStreams = Math.max(1, maxConcurrentStreams);
+    this.streams = new Semaphore(maxStreams, true);
+    // two stage threads per stream, so an admitted stream never waits for a thread
+    this.stages = VirtualThreads.newExecutor("ingest-stage", 2 * maxStreams);
+  }
+
+  @PreDestroy
+  public void close() {
+    stages.shutdownNow();
+  }
+
+  /** A document's end, queued behind its last changed chunk. */
+  private record DocEnd(String documentId, int chunks, int unchanged, List<String> removedIds, List<String> hashes) {}
+
+  /** Records to upsert plus the documents that are complete once they are written. */
+  private record Batch(List<VectorRecord> records, List<DocEnd> finished) {}
+
+  private static final Object END = new Object();
+  private static final Batch LAST = new Batch(List.of(), List.of());
+
+  /**
+   * Ingests every document in {@code ndjson} (one IngestRequest.DocumentDto object per line)
+   * and writes progress lines to {@code out} as documents are stored. Returns when the input is
+   * exhausted and everything is flushed, or after the first failure has been reported.
+   */
+  public void ingest(InputStream ndjson, OutputStream out) {
+    ProgressWriter progress = new ProgressWriter(out);
+    try {
+      if (!streams.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+        progress.write(IngestProgress.builder().event("error").message("Too many concurrent ingest streams").build());
+        return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    try (ChunkManifest.Session session = chunkWriter.session()) {
+      run(ndjson, progress, session);
+    } finally {
+      streams.release();
+    }
+  }
+
+  private void run(InputStream ndjson, ProgressWriter progress, ChunkManifest.Session session) {
+    long start = System.nanoTime();
+    BlockingQueue<Object> chunks = new ArrayBlockingQueue<>(chunkQueueSize);
+    BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(batchQueueSize);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    int[] stored = new int[4]; // documents, chunks, unchanged, removed; written by the upsert stage only
+
+    Future<?> embed = stages.submit(RequestRoute.wrap(() -> guard(failure, () -> embedStage(chunks, batches, failure))));
+    Future<?> upsert = stages.submit(RequestRoute.wrap(() -> guard(failure, () -> upsertStage(batches, progress, session, stored, failure))));
+
+    int line = 0;
+    try (MappingIterator<IngestRequest.DocumentDto> docs =
+             om.readerFor(IngestRequest.DocumentDto.class)
+                 .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES).readValues(ndjson)) {
+      while (failure.get() == null && docs.hasNextValue()) {
+        IngestRequest.DocumentDto d = docs.nextValue();
+        line++;
+        if (d.getDocumentId() == null || d.getDocumentId().isBlank() || d.getText() == null) {
+          progress.write(IngestProgress.builder().event("error").line(line)
+              .message("documentId and text are required").build());
+          continue;
+        }
+        List<Chunk> all = new ArrayList<>();
+        metrics.time("chunking", null, () -> chunker.iterator(d.getDocumentId(), d.getTitle(), d.getSource(),
+            new StringReader(d.getText())).forEachRemaining(all::add));
+        ChunkManifest.Plan plan = session.plan(d.getDocumentId(), all);
+        for (Chunk c : plan.upserts()) if (!put(chunks, c, failure)) break;
+        put(chunks, new DocEnd(d.getDocumentId(), plan.upserts().size(), plan.unchanged(), plan.removedIds(), plan.hashes()), failure);
+      }
+    } catch (IOException | RuntimeException e) {
+      failure.compareAndSet(null, e);
+    } finally {
+      put(chunks, END, failure);
+    }
+
+    await(embed, failure);
+    await(upsert, failure);
+
+    Throwable error = failure.get();
+    long latencyMs = (System.nanoTime() - start) / 1_000_000;
+    if (error != null) {
+      log.warn("ingest_stream_failed lines={} documents={} chunks={} error={}", line, stored[0], stored[1], error.toString());
+      progress.tryWrite(IngestProgress.builder().event("error").documents(stored[0]).chunks(stored[1])
+          .message(String.valueOf(error.getMessage())).build());
+      return;
+    }
+    log.info("ingest_stream_done lines={} documents={} chunks={} unchanged={} removed={} latencyMs={}",
+        line, stored[0], stored[1], stored[2], stored[3], latencyMs);
+    progress.write(IngestProgress.builder().event("done").documents(stored[0]).chunks(stored[1])
+        .unchanged(stored[2]).removed(stored[3]).latencyMs(latencyMs).build());
+  }
+
+  // -------------------- Stages --------------------
+
+  private void embedStage(BlockingQueue<Object> in, BlockingQueue<Batch> out, AtomicReference<Throwable> failure)
+      throws InterruptedException {
+    List<Chunk> pending = new ArrayList<>(batchSize);
+    List<DocEnd> finished = new ArrayList<>();
+    while (true) {
+      // wait for the first item; after that linger briefly so a slow upload still makes progress
+      Object item = pending.isEmpty() && finished.isEmpty() ? in.take() : in.poll(lingerMs, TimeUnit.MILLISECONDS);
+      if (item == null || item == END || pending.size() == batchSize) {
+        if (!pending.isEmpty() || !finished.isEmpty()) {
+          if (!put(out, new Batch(chunkWriter.embed(pending), List.copyOf(finished)), failure)) return;
+          pending.clear();
+          finished.clear();
+        }
+        if (item == END) {
+          put(out, LAST, failure);
+          return;
+        }
+      }
+      if (item instanceof Chunk c) pending.add(c);
+      else if (item instanceof DocEnd d) finished.add(d);
+    }
+  }
+
+  private void upsertStage(BlockingQueue<Batch> in, ProgressWriter progress, ChunkManifest.Session session,
+      int[] stored, AtomicReference<Throwable> failure) throws InterruptedException {
+    List<DocEnd> uncommitted = new ArrayList<>();
+    while (failure.get() == null) {
+      Batch batch = in.take();
+      if (batch == LAST || uncommitted.size() >= MANIFEST_COMMIT_DOCS) {
+        chunkWriter.flush();
+        uncommitted.forEach(d -> session.commit(d.documentId(), d.hashes()));
+        uncommitted.clear();
+      }
+      if (batch == LAST) return;
+      chunkWriter.upsert(batch.records());
+      stored[1] += batch.records().size();
+      for (DocEnd d : batch.finished()) {
+        chunkWriter.delete(d.removedIds());
+        uncommitted.add(d);
+        stored[0]++;
+        stored[2] += d.unchanged();
+        stored[3] += d.removedIds().size();
+        progress.write(IngestProgress.builder().event("stored").documentId(d.documentId()).chunks(d.chunks())
+            .unchanged(d.unchanged()).removed(d.removedIds().size()).build());
+      }
+    }
+  }
+
+  // -------------------- Plumbing --------------------
+
+  private interface Stage {
+    void run() throws Exception;
+  }
+
+  private static void guard(AtomicReference<Throwable> failure, Stage stage) {
+    try {
+      stage.run();
+    } catch (InterruptedException e) {
+      failure.compareAndSet(null, e);
+      Thread.currentThread().interrupt();
+    } catch (Throwable e) {
+      failure.compareAndSet(null, e);
+    }
+  }
+
+  /** Blocks while the queue is full; gives up (returns false) once any stage has failed. */
+  private static <T> boolean put(BlockingQueue<T> queue, T item, AtomicReference<Throwable> failure) {
+    try {
+      while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+        if (failure.get() != null) return false;
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure.compareAndSet(null, e);
+      return false;
+    }
+  }
+
+  private static void await(Future<?> stage, AtomicReference<Throwable> failure) {
+    try {
+      while (true) {
+        try {
+          stage.get(100, TimeUnit.MILLISECONDS);
+          return;
+        } catch (TimeoutException e) {
+          // a stage blocked on take() after another failed would wait forever
+          if (failure.get() != null) {
+            stage.cancel(true);
+            return;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure.compareAndSet(null, e);
+      stage.cancel(true);
+    } catch (ExecutionException e) {
+      failure.compareAndSet(null, e.getCause());
+    } catch (CancellationException e) {
+      // already failed
+    }
+  }
+
+  /** Serializes progress lines from the request and upsert threads onto one response stream. */
+  private final class ProgressWriter {
+    private final OutputStream out;
+
+    ProgressWriter(OutputStream out) {
+      this.out = out;
+    }
+
+    synchronized void write(IngestProgress event) {
+      try {
+        out.write(om.writeValueAsBytes(event));
+        out.write('\n');
+        out.flush();
+      } catch (IOException e) {
+        // client went away; failing the stage stops the pipeline
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    void tryWrite(IngestProgress event) {
+      try {
+        write(event);
+      } catch (UncheckedIOException ignored) {
+        // nothing left to report to
+      }
+    }
+  }
+}
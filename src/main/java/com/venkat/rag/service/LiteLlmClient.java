@@ -3,55 +3,108 @@ package com.venkat.rag.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.venkat.rag.metrics.RagMetrics;
+import com.venkat.rag.metrics.TokenLedger;
 import okhttp3.*;
+import okio.BufferedSource;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Component
 public class LiteLlmClient {
   private static final MediaType JSON = MediaType.parse("application/json");
 
-  private final OkHttpClient http = new OkHttpClient();
+  private final OkHttpClient http;
   private final ObjectMapper om = new ObjectMapper();
 
   private final String baseUrl;
   private final String chatPath;
   private final String apiKey;
+  private final RagMetrics metrics;
+  private final TokenLedger ledger;
 
   public LiteLlmClient(
       @Value("${litellm.baseUrl}") String baseUrl,
       @Value("${litellm.chatPath}") String chatPath,
-      @Value("${litellm.api-key:local-test-key}") String apiKey) {
+      @Value("${litellm.api-key:local-test-key}") String apiKey,
+      GatewayTransport transport,
+      RagMetrics metrics,
+      TokenLedger ledger) {
+    this.http = transport.chat();
     this.baseUrl = baseUrl;
     this.chatPath = chatPath;
     this.apiKey = apiKey;
+    this.metrics = metrics;
+    this.ledger = ledger;
   }
 
   public JsonNode chatCompletions(Map<String, Object> requestBody, Map<String, String> headers) {
-    try {
-      String url = baseUrl + chatPath;
-      String body = om.writeValueAsString(requestBody);
-
-      Request.Builder rb = new Request.Builder().url(url).post(RequestBody.create(body, JSON))
-          .addHeader("Content-Type", "application/json")
-          .addHeader("Authorization", "Bearer " + apiKey);
-
-      if (headers != null) {
-        headers.forEach(rb::addHeader);
+    return metrics.time("chat", model(requestBody), () -> {
+      try (Response resp = http.newCall(buildRequest(requestBody, headers)).execute()) {
+        byte[] raw = resp.body() != null ? resp.body().bytes() : new byte[] {'{', '}'};
+        metrics.payload("chat", "response", raw.length);
+        if (!resp.isSuccessful()) {
+          throw new IOException("LiteLLM error: " + resp.code() + " " + new String(raw, StandardCharsets.UTF_8));
+        }
+        JsonNode completion = om.readTree(raw);
+        ledger.recordChat(model(requestBody), completion.path("usage"));
+        return completion;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
       }
+    });
+  }
 
-      try (Response resp = http.newCall(rb.build()).execute()) {
-        String respBody = resp.body() != null ? resp.body().string() : "{}";
+  /**
+   * Same call with {@code "stream": true}: content deltas go to {@code onToken} as they arrive and
+   * the assembled completion (including the final usage block) is returned.
+   */
+  public JsonNode streamChatCompletions(Map<String, Object> requestBody, Map<String, String> headers,
+      Consumer<String> onToken) {
+    Map<String, Object> streamed = new LinkedHashMap<>(requestBody);
+    streamed.put("stream", true);
+    streamed.put("stream_options", Map.of("include_usage", true));
+    return metrics.time("chat", model(requestBody), () -> {
+      try (Response resp = http.newCall(buildRequest(streamed, headers)).execute()) {
         if (!resp.isSuccessful()) {
-          throw new IOException("LiteLLM error: " + resp.code() + " " + respBody);
+          String err = resp.body() != null ? resp.body().string() : "";
+          throw new IOException("LiteLLM error: " + resp.code() + " " + err);
+        }
+        try (BufferedSource source = RagMetrics.counting(resp.body().source(),
+            n -> metrics.payload("chat", "response", n))) {
+          JsonNode completion = ChatCompletionStream.read(source, om, onToken);
+          ledger.recordChat(model(requestBody), completion.path("usage"));
+          return completion;
         }
-        return om.readTree(respBody);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
       }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    });
+  }
+
+  private static String model(Map<String, Object> requestBody) {
+    Object m = requestBody.get("model");
+    return m == null ? null : m.toString();
+  }
+
+  private Request buildRequest(Map<String, Object> requestBody, Map<String, String> headers) throws IOException {
+    String url = baseUrl + chatPath;
+    byte[] body = om.writeValueAsBytes(requestBody);
+    metrics.payload("chat", "request", body.length);
+
+    Request.Builder rb = new Request.Builder().url(url).post(RequestBody.create(body, JSON))
+        .addHeader("Content-Type", "application/json")
+        .addHeader("Authorization", "Bearer " + apiKey);
+
+    if (headers != null) {
+      headers.forEach(rb::addHeader);
     }
+    return rb.build();
   }
-}
\ No newline at end of file
+}
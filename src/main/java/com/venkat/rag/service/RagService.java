@@ -1,64 +1,210 @@
 package com.venkat.rag.service;
 
-import com.venkat.rag.model.Chunk;
+import com.venkat.rag.dto.IngestResponse;
+import com.venkat.rag.metrics.RagMetrics;
+import com.venkat.rag.metrics.RequestRoute;
 import com.venkat.rag.model.Document;
 import com.venkat.rag.model.VectorRecord;
+import com.venkat.rag.store.Bm25Index;
+import com.venkat.rag.store.SearchFilter;
 import com.venkat.rag.store.VectorStore;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 
 @Service
 public class RagService {
+  private static final Logger log = LoggerFactory.getLogger(RagService.class);
+
+  private static final String SYSTEM_PROMPT = "You are a helpful RAG assistant. Answer questions based only on the provided context. If the answer is not in the context, say: \"I don't know based on the provided context.\"";
 
   private final Chunker chunker;
   private final EmbeddingClient embeddingClient;
   private final VectorStore vectorStore;
-
-  public RagService(Chunker chunker, EmbeddingClient embeddingClient, VectorStore vectorStore) {
+  private final SemanticAnswerCache answerCache;
+  private final Bm25Index lexicalIndex;
+  private final RagMetrics metrics;
+  private final String vectorStoreType;
+  private final ContextPacker contextPacker;
+  private final ChunkWriter chunkWriter;
+  private final String chatModel;
+  private final int askTopK;
+  private final int maxPromptTokens;
+  private final int hybridCandidates;
+  private final int rrfK;
+  private final ExecutorService hybridExecutor;
+
+  /** vector: embedding search; lexical: BM25 only, no embedding call; hybrid: both, rank-fused. */
+  public enum RetrievalMode { VECTOR, LEXICAL, HYBRID }
+
+  public RagService(Chunker chunker, EmbeddingClient embeddingClient, VectorStore vectorStore,
+      SemanticAnswerCache answerCache, Bm25Index lexicalIndex, ContextPacker contextPacker, ChunkWriter chunkWriter,
+      RagMetrics metrics,
+      @Value("${rag.vectorStore:milvus}") String vectorStoreType,
+      @Value("${aigateway.chat.model}") String chatModel,
+      @Value("${rag.ask.topK:5}") int askTopK,
+      @Value("${rag.ask.maxPromptTokens:2000}") int maxPromptTokens,
+      @Value("${rag.hybrid.candidates:50}") int hybridCandidates,
+      @Value("${rag.hybrid.rrfK:60}") int rrfK,
+      @Value("${rag.hybrid.threads:32}") int hybridThreads) {
     this.chunker = chunker;
     this.embeddingClient = embeddingClient;
     this.vectorStore = vectorStore;
+    this.answerCache = answerCache;
+    this.lexicalIndex = lexicalIndex;
+    this.metrics = metrics;
+    this.vectorStoreType = vectorStoreType;
+    this.contextPacker = contextPacker;
+    this.chunkWriter = chunkWriter;
+    this.chatModel = chatModel;
+    this.askTopK = Math.max(1, askTopK);
+    this.maxPromptTokens = maxPromptTokens;
+    this.hybridCandidates = hybridCandidates;
+    this.rrfK = rrfK;
+    this.hybridExecutor = VirtualThreads.newExecutor("hybrid-search", hybridThreads);
   }
 
-  public int ingest(List<Document> docs) {
-    int totalChunks = 0;
-    for (Document doc : docs) {
-      List<Chunk> chunks = chunker.chunk(doc);
-      totalChunks += chunks.size();
+  @PreDestroy
+  public void close() {
+    hybridExecutor.shutdownNow();
+  }
 
-      for (Chunk c : chunks) {
-        List<Double> vec = embeddingClient.embed(c.text());
-        vectorStore.upsert(new VectorRecord(c.chunkId(), vec, c));
+  /**
+   * Incremental: only chunks whose content differs from the document's {@link ChunkManifest} are
+   * embedded and upserted, and chunks past a document's new end are deleted.
+   */
+  public IngestResponse ingest(List<Document> docs) {
+    List<ChunkManifest.Plan> plans = new ArrayList<>(docs.size());
+    List<VectorRecord> records;
+    try (ChunkManifest.Session session = chunkWriter.session()) {
+      session.hold(docs.stream().map(Document::documentId).toList());
+      for (Document doc : docs) {
+        plans.add(session.plan(doc.documentId(), metrics.time("chunking", null, () -> chunker.chunk(doc))));
       }
+      // one batched embedding pass for all changed chunks of all documents
+      records = chunkWriter.write(session, plans);
     }
-    return totalChunks;
+
+    IngestResponse response = IngestResponse.builder()
+        .documentsIngested(docs.size())
+        .chunksStored(records.size())
+        .chunksAdded(plans.stream().mapToInt(ChunkManifest.Plan::added).sum())
+        .chunksChanged(plans.stream().mapToInt(ChunkManifest.Plan::changed).sum())
+        .chunksUnchanged(plans.stream().mapToInt(ChunkManifest.Plan::unchanged).sum())
+        .chunksRemoved(plans.stream().mapToInt(ChunkManifest.Plan::removed).sum())
+        .build();
+    log.info("ingest_done documents={} added={} changed={} unchanged={} removed={}", docs.size(),
+        response.getChunksAdded(), response.getChunksChanged(), response.getChunksUnchanged(), response.getChunksRemoved());
+    return response;
   }
 
-  public List<VectorStore.ScoredRecord> retrieve(String query, int topK) {
-    List<Double> qVec = embeddingClient.embed(query);
-    return vectorStore.search(qVec, topK);
+  /**
+   * @param filter restricts results before ranking; null searches everything
+   * @param mode   hybrid runs the vector search (with its embedding call) on another thread while
+   *               BM25 runs on this one, each taking {@code rag.hybrid.candidates}, then fuses them
+   *               with reciprocal rank fusion ({@code rag.hybrid.rrfK})
+   */
+  public List<VectorStore.ScoredRecord> retrieve(String query, int topK, SearchFilter filter, RetrievalMode mode) {
+    if (!retrievalModes().contains(mode)) throw new IllegalArgumentException("Retrieval mode " + mode + " is disabled");
+    return switch (mode) {
+      case VECTOR -> vectorSearch(embeddingClient.embed(query), topK, filter);
+      case LEXICAL -> metrics.time("lexical_search", "bm25", () -> lexicalIndex.search(query, topK, filter));
+      case HYBRID -> {
+        int depth = Math.max(topK, hybridCandidates);
+        CompletableFuture<List<VectorStore.ScoredRecord>> vector = CompletableFuture.supplyAsync(
+            () -> vectorSearch(embeddingClient.embed(query), depth, filter), command -> hybridExecutor.execute(RequestRoute.wrap(command)));
+        List<VectorStore.ScoredRecord> lexical = metrics.time("lexical_search", "bm25",
+            () -> lexicalIndex.search(query, depth, filter));
+        try {
+          yield RankFusion.reciprocalRank(List.of(vector.join(), lexical), rrfK, topK);
+        } catch (CompletionException e) {
+          if (e.getCause() instanceof RuntimeException re) throw re;
+          throw e;
+        }
+      }
+    };
   }
 
-  public String ask(String query) {
+  /** Modes this instance serves; lexical and hybrid need {@code rag.lexical.enabled}. */
+  public List<RetrievalMode> retrievalModes() {
+    return lexicalIndex.isEnabled() ? List.of(RetrievalMode.values()) : List.of(RetrievalMode.VECTOR);
+  }
 
-    List<VectorStore.ScoredRecord> results = retrieve(query, 1);
+  /** Case-insensitive; null or blank means vector. Throws for unknown or disabled modes. */
+  public RetrievalMode retrievalMode(String name) {
+    if (name == null || name.isBlank()) return RetrievalMode.VECTOR;
+    for (RetrievalMode m : retrievalModes()) {
+      if (m.name().equalsIgnoreCase(name.trim())) return m;
+    }
+    boolean known = Arrays.stream(RetrievalMode.values()).anyMatch(m -> m.name().equalsIgnoreCase(name.trim()));
+    throw new IllegalArgumentException((known ? "Retrieval mode '" + name + "' needs rag.lexical.enabled=true"
+        : "Unknown retrieval mode '" + name + "'") + "; expected one of "
+        + retrievalModes().stream().map(m -> m.name().toLowerCase(Locale.ROOT)).toList());
+  }
 
-    List<Chunk> chunksFromRag = results.stream().map(record -> record.record().payload()).toList();
+  private List<VectorStore.ScoredRecord> vectorSearch(float[] qVec, int topK, SearchFilter filter) {
+    return metrics.time("vector_search", vectorStoreType, () -> vectorStore.search(qVec, topK, filter));
+  }
 
-    return this.getSummaryFromLLM(query, chunksFromRag);
+  public boolean isReady() {
+    return vectorStore.isReady();
+  }
 
+  public String ask(String query) {
+    return ask(query, null);
   }
 
-  private String getSummaryFromLLM(String prompt, List<Chunk> relevantChunks) {
+  /**
+   * Answers from the top {@code rag.ask.topK} chunks, packed into at most
+   * {@code rag.ask.maxPromptTokens} prompt tokens (system prompt and question included). With a non-null {@code onToken} the completion is
+   * streamed and each token is passed on as it arrives; a cached answer is passed as one token.
+   */
+  public String ask(String query, Consumer<String> onToken) {
+    // embed once; the same vector is the answer-cache key and the retrieval query
+    float[] qVec = embeddingClient.embed(query);
+    long generation = answerCache.generation(); // before retrieval, so re-ingesting a retrieved chunk meanwhile rejects the put
+    String cached = answerCache.get(qVec);
+    if (cached != null) {
+      if (onToken != null) onToken.accept(cached);
+      return cached;
+    }
+
+    List<VectorStore.ScoredRecord> results = vectorSearch(qVec, askTopK, null);
 
-    String context = relevantChunks.stream().map(c -> "- " + c.text()).collect(Collectors.joining("\n"));
+    // what the prompt costs without any context; the rest of the budget goes to chunks
+    int fixedTokens = TokenEstimator.estimate(chatModel, SYSTEM_PROMPT)
+        + TokenEstimator.estimate(chatModel, userMessage("", query))
+        + 2 * TokenEstimator.MESSAGE_OVERHEAD;
+    ContextPacker.Packed packed = contextPacker.pack(chatModel, results, Math.max(0, maxPromptTokens - fixedTokens));
+    log.info("context_packed retrieved={} used={} dropped={} tokens={} saved={} promptTokens={}",
+        results.size(), packed.chunkIds().size(), packed.chunksDropped(), packed.tokens(), packed.tokensSaved(),
+        fixedTokens + packed.tokens());
 
-    String systemPrompt = "You are a helpful RAG assistant. Answer questions based only on the provided context. If the answer is not in the context, say: \"I don't know based on the provided context.\"";
-    
-    String userMessage = "CONTEXT:\n" + context + "\n\nQUESTION:\n" + prompt;
+    String answer = this.getSummaryFromLLM(query, packed.context(), onToken);
+    answerCache.put(qVec, answer, packed.chunkIds(), generation);
+    return answer;
+  }
+
+  private String getSummaryFromLLM(String prompt, String context, Consumer<String> onToken) {
+    String userMessage = userMessage(context, prompt);
+
+    if (onToken == null) return embeddingClient.chat(userMessage, SYSTEM_PROMPT);
+    return embeddingClient.chatStream(userMessage, SYSTEM_PROMPT, onToken)
+        .path("choices").path(0).path("message").path("content").asText("");
+  }
 
-    return embeddingClient.chat(userMessage, systemPrompt);
+  private static String userMessage(String context, String question) {
+    return "CONTEXT:\n" + context + "\n\nQUESTION:\n" + question;
   }
 }
@@ -0,0 +1,34 @@
+package com.venkat.rag.service;
+
+import com.venkat.rag.store.VectorStore;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reciprocal rank fusion: a chunk scores the sum of 1 / (k + rank) over the rankings it appears
+ * in. Only ranks are used, so BM25 and cosine scores never have to be put on one scale.
+ */
+public final class RankFusion {
+  private RankFusion() {}
+
+  /** Fused top-K, best first; each result keeps the record from the first ranking that had it. */
+  public static List<VectorStore.ScoredRecord> reciprocalRank(List<List<VectorStore.ScoredRecord>> rankings,
+      int k, int topK) {
+    Map<String, VectorStore.ScoredRecord> first = new LinkedHashMap<>();
+    Map<String, Double> fused = new LinkedHashMap<>();
+    for (List<VectorStore.ScoredRecord> ranking : rankings) {
+      for (int rank = 0; rank < ranking.size(); rank++) {
+        VectorStore.ScoredRecord r = ranking.get(rank);
+        first.putIfAbsent(r.record().id(), r);
+        fused.merge(r.record().id(), 1.0 / (k + rank + 1), Double::sum);
+      }
+    }
+    List<VectorStore.ScoredRecord> out = new ArrayList<>(fused.size());
+    fused.forEach((id, score) -> out.add(new VectorStore.ScoredRecord(first.get(id).record(), score)));
+    out.sort((a, b) -> Double.compare(b.score(), a.score()));
+    return out.size() > topK ? new ArrayList<>(out.subList(0, topK)) : out;
+  }
+}
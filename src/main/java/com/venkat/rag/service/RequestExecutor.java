@@ -0,0 +1,77 @@
+package com.venkat.rag.service;
+
+import com.venkat.rag.metrics.RequestRoute;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Where the blocking /rag and /agent handlers run ({@code rag.execution.mode}).
+ *
+ * platform: on the Tomcat request thread, as before. virtual: the handler returns a
+ * CompletableFuture and the work runs on a virtual thread, so the Tomcat thread goes back to the
+ * pool while the request waits on the gateway or Milvus. On a runtime without virtual threads
+ * (Java &lt; 21) "virtual" falls back to {@code rag.execution.threads} platform threads.
+ * Streaming (SSE) responses always run on {@link #executor()}.
+ */
+@Component
+public class RequestExecutor {
+  private static final Logger log = LoggerFactory.getLogger(RequestExecutor.class);
+
+  public enum Mode { PLATFORM, VIRTUAL }
+
+  private final Mode mode;
+  private final ExecutorService executor;
+
+  public RequestExecutor(
+      @Value("${rag.execution.mode:platform}") String mode,
+      @Value("${rag.execution.threads:200}") int threads) {
+    this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+    this.executor = this.mode == Mode.VIRTUAL
+        ? VirtualThreads.newExecutor("rag-request", threads)
+        : VirtualThreads.platformExecutor("rag-request", threads);
+    log.info("request_execution mode={} virtualThreads={}", this.mode,
+        this.mode == Mode.VIRTUAL && VirtualThreads.available());
+  }
+
+  public Mode mode() {
+    return mode;
+  }
+
+  /** Runs the task inline in platform mode, otherwise on the request executor. */
+  public <T> CompletableFuture<T> submit(Callable<T> task) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    if (mode == Mode.PLATFORM) {
+      complete(future, task);
+    } else {
+      executor.execute(RequestRoute.wrap(() -> complete(future, task)));
+    }
+    return future;
+  }
+
+  /** Tasks run under the submitting thread's {@link RequestRoute}. */
+  public Executor executor() {
+    return command -> executor.execute(RequestRoute.wrap(command));
+  }
+
+  @PreDestroy
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private static <T> void complete(CompletableFuture<T> future, Callable<T> task) {
+    try {
+      future.complete(task.call());
+    } catch (Throwable t) {
+      future.completeExceptionally(t);
+    }
+  }
+}
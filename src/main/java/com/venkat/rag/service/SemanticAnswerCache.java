@@ -0,0 +1,242 @@
+package com.venkat.rag.service;
+
+import com.venkat.rag.store.VectorMath;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reuses /rag/ask answers for semantically equivalent questions.
+ *
+ * An entry is keyed by the question's embedding; a new question whose cosine similarity to a
+ * cached one is at least {@code rag.answerCache.threshold} gets the cached answer. Candidates are
+ * found with random-hyperplane LSH (several tables, probing the exact bucket and every bucket one
+ * bit away), so lookups do not scan the whole cache. Entries expire after a TTL, the least
+ * recently used are evicted past {@code maxEntries}, and an entry is dropped as soon as any chunk
+ * it was answered from is re-ingested or deleted. Chunks added later that an answer did not use do
+ * not invalidate it, so it can miss new content for up to the TTL; answers built from no context
+ * are never cached.
+ *
+ * Each invalidation advances a generation and remembers it per chunk (the most recent
+ * {@code RECENT_INVALIDATIONS} chunks). A put carries the generation read before its retrieval and
+ * is ignored if one of its chunks was invalidated since, so an answer built from a chunk that an
+ * ingest replaced mid-request is never cached.
+ */
+@Component
+public class SemanticAnswerCache {
+  private static final int RECENT_INVALIDATIONS = 1 << 16;
+
+  private final boolean enabled;
+  private final double threshold;
+  private final long ttlMillis;
+  private final int maxEntries;
+  private final int tables;
+  private final int bits;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final List<Map<Integer, Set<Long>>> buckets = new ArrayList<>();
+  private final Map<String, Set<Long>> entriesByChunk = new HashMap<>();
+  private float[][][] hyperplanes; // [table][bit][dim], created on first put
+  private long nextId;
+  private long generation;
+  private final LinkedHashMap<String, Long> invalidatedAt = new LinkedHashMap<>(); // oldest first
+  private long forgottenUpTo; // generations at or below this may have dropped out of invalidatedAt
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public SemanticAnswerCache(
+      @Value("${rag.answerCache.enabled:true}") boolean enabled,
+      @Value("${rag.answerCache.threshold:0.95}") double threshold,
+      @Value("${rag.answerCache.ttlSeconds:3600}") long ttlSeconds,
+      @Value("${rag.answerCache.maxEntries:10000}") int maxEntries,
+      @Value("${rag.answerCache.lshTables:4}") int tables,
+      @Value("${rag.answerCache.lshBits:10}") int bits) {
+    this.enabled = enabled;
+    this.threshold = threshold;
+    this.ttlMillis = ttlSeconds * 1000;
+    this.maxEntries = Math.max(1, maxEntries);
+    this.tables = Math.max(1, tables);
+    this.bits = Math.min(Math.max(1, bits), 30);
+    for (int t = 0; t < this.tables; t++) buckets.add(new HashMap<>());
+  }
+
+  private record Entry(long id, float[] vector, String answer, List<String> chunkIds, long createdAt, int[] codes) {}
+
+  public record Stats(long hits, long misses, int entries) {}
+
+  /** Cached answer for the nearest cached question above the threshold, or null. */
+  public String get(float[] queryVector) {
+    if (!enabled) return null;
+    float[] q = normalized(queryVector);
+    long now = System.currentTimeMillis();
+    lock.lock();
+    try {
+      if (hyperplanes == null || hyperplanes[0][0].length != q.length) {
+        misses.increment();
+        return null;
+      }
+      Entry best = null;
+      double bestScore = threshold;
+      Set<Long> seen = new HashSet<>();
+      for (int t = 0; t < tables; t++) {
+        int code = code(t, q);
+        for (int flip = -1; flip < bits; flip++) {
+          Set<Long> ids = buckets.get(t).get(flip < 0 ? code : code ^ (1 << flip));
+          if (ids == null) continue;
+          for (Long id : ids) {
+            if (!seen.add(id)) continue;
+            Entry e = entries.get(id);
+            if (e == null || now - e.createdAt() > ttlMillis) continue;
+            double score = VectorMath.dot(q, e.vector());
+            if (score >= bestScore) { best = e; bestScore = score; }
+          }
+        }
+      }
+      if (best == null) {
+        misses.increment();
+        return null;
+      }
+      entries.get(best.id()); // touch for LRU
+      hits.increment();
+      return best.answer();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Current invalidation generation; read it before retrieving the context an answer is built from. */
+  public long generation() {
+    lock.lock();
+    try {
+      return generation;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Caches an answer built from {@code chunkIds}, retrieved at {@code generation}. Ignored when no
+   * chunk backed the answer or when one of them has been invalidated since that retrieval.
+   */
+  public void put(float[] queryVector, String answer, List<String> chunkIds, long generation) {
+    if (!enabled || chunkIds.isEmpty()) return;
+    float[] q = normalized(queryVector);
+    lock.lock();
+    try {
+      if (generation < forgottenUpTo) return; // too old to tell
+      for (String c : chunkIds) {
+        Long at = invalidatedAt.get(c);
+        if (at != null && at > generation) return;
+      }
+      if (hyperplanes == null || hyperplanes[0][0].length != q.length) reset(q.length);
+      int[] codes = new int[tables];
+      for (int t = 0; t < tables; t++) codes[t] = code(t, q);
+      Entry e = new Entry(nextId++, q, answer, List.copyOf(chunkIds), System.currentTimeMillis(), codes);
+
+      entries.put(e.id(), e);
+      for (int t = 0; t < tables; t++) buckets.get(t).computeIfAbsent(codes[t], k -> new HashSet<>()).add(e.id());
+      for (String c : e.chunkIds()) entriesByChunk.computeIfAbsent(c, k -> new HashSet<>()).add(e.id());
+
+      evictExpiredAndOverflow();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Drops every answer built from any of these chunks. */
+  public void invalidateChunks(Collection<String> chunkIds) {
+    if (!enabled || chunkIds.isEmpty()) return;
+    lock.lock();
+    try {
+      generation++;
+      for (String c : chunkIds) {
+        Set<Long> ids = entriesByChunk.remove(c);
+        if (ids != null) for (Long id : ids) remove(id);
+        invalidatedAt.remove(c); // re-insert at the young end
+        invalidatedAt.put(c, generation);
+      }
+      for (Iterator<Long> it = invalidatedAt.values().iterator(); invalidatedAt.size() > RECENT_INVALIDATIONS; ) {
+        forgottenUpTo = Math.max(forgottenUpTo, it.next());
+        it.remove();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public Stats stats() {
+    lock.lock();
+    try {
+      return new Stats(hits.sum(), misses.sum(), entries.size());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // -------------------- Internals (caller holds lock) --------------------
+
+  private void evictExpiredAndOverflow() {
+    long now = System.currentTimeMillis();
+    Iterator<Entry> it = entries.values().iterator();
+    List<Long> victims = new ArrayList<>();
+    int over = entries.size() - maxEntries;
+    // access order: eldest (least recently used) first
+    while (it.hasNext()) {
+      Entry e = it.next();
+      if (over > 0) { victims.add(e.id()); over--; }
+      else if (now - e.createdAt() > ttlMillis) victims.add(e.id());
+      else if (over <= 0) break;
+    }
+    for (Long id : victims) remove(id);
+  }
+
+  private void remove(long id) {
+    Entry e = entries.remove(id);
+    if (e == null) return;
+    for (int t = 0; t < tables; t++) {
+      Set<Long> ids = buckets.get(t).get(e.codes()[t]);
+      if (ids != null && ids.remove(id) && ids.isEmpty()) buckets.get(t).remove(e.codes()[t]);
+    }
+    for (String c : e.chunkIds()) {
+      Set<Long> ids = entriesByChunk.get(c);
+      if (ids != null && ids.remove(id) && ids.isEmpty()) entriesByChunk.remove(c);
+    }
+  }
+
+  /** New hyperplanes for a (new) embedding dimension; existing entries are unusable and dropped. */
+  private void reset(int dim) {
+    entries.clear();
+    entriesByChunk.clear();
+    buckets.forEach(Map::clear);
+    SplittableRandom random = new SplittableRandom(0x5EED);
+    hyperplanes = new float[tables][bits][dim];
+    for (float[][] table : hyperplanes) {
+      for (float[] plane : table) {
+        for (int i = 0; i < dim; i++) plane[i] = (float) gaussian(random);
+      }
+    }
+  }
+
+  private int code(int table, float[] q) {
+    int c = 0;
+    for (int b = 0; b < bits; b++) if (VectorMath.dot(q, hyperplanes[table][b]) > 0) c |= 1 << b;
+    return c;
+  }
+
+  private static double gaussian(SplittableRandom r) {
+    // Box-Muller
+    return Math.sqrt(-2 * Math.log(1 - r.nextDouble())) * Math.cos(2 * Math.PI * r.nextDouble());
+  }
+
+  private static float[] normalized(float[] v) {
+    float inv = VectorMath.inverseNorm(v, 0, v.length);
+    float[] out = new float[v.length];
+    for (int i = 0; i < v.length; i++) out[i] = v[i] * inv;
+    return out;
+  }
+}
@@ -0,0 +1,66 @@
+package com.venkat.rag.service;
+
+import java.util.Locale;
+
+/**
+ * Fast local token estimate, one pass over the chars, no vocabulary.
+ *
+ * Mimics how the OpenAI BPE encodings split text: a word together with its leading space is
+ * usually one token and long words are split into pieces, digits go in groups of three,
+ * punctuation is roughly a token per char, each newline run is a token, and non-Latin scripts cost
+ * about a token per char. The o200k encoding (gpt-4o family) merges more, so it gets longer word
+ * pieces and cheaper non-Latin text than cl100k (everything else).
+ */
+public final class TokenEstimator {
+
+  /** Per-message framing the chat format adds around each message's content. */
+  public static final int MESSAGE_OVERHEAD = 4;
+
+  private TokenEstimator() {}
+
+  public static int estimate(String model, CharSequence text) {
+    boolean o200k = isO200k(model);
+    int wordPiece = o200k ? 9 : 8;
+    int tokens = 0;
+    int n = text.length();
+    int i = 0;
+    while (i < n) {
+      char c = text.charAt(i);
+      if (Character.isLetter(c) && c < 0x2E80) {
+        // a word; its leading space (if any) was already skipped below and rides along free
+        int start = i;
+        while (i < n && Character.isLetter(text.charAt(i)) && text.charAt(i) < 0x2E80) i++;
+        tokens += 1 + (i - start - 1) / wordPiece;
+      } else if (c >= '0' && c <= '9') {
+        int start = i;
+        while (i < n && text.charAt(i) >= '0' && text.charAt(i) <= '9') i++;
+        tokens += (i - start + 2) / 3;
+      } else if (c == ' ') {
+        int start = i;
+        while (i < n && text.charAt(i) == ' ') i++;
+        boolean beforeWord = i < n && Character.isLetterOrDigit(text.charAt(i));
+        if (i - start > 1 || !beforeWord) tokens++;
+      } else if (c == '\n' || c == '\r' || c == '\t') {
+        while (i < n && (text.charAt(i) == '\n' || text.charAt(i) == '\r' || text.charAt(i) == '\t')) i++;
+        tokens++;
+      } else if (c >= 0x2E80) {
+        // CJK and other scripts without spaces between words
+        int start = i;
+        while (i < n && text.charAt(i) >= 0x2E80) i++;
+        tokens += o200k ? (2 * (i - start) + 2) / 3 : i - start;
+      } else {
+        i++;
+        tokens++;
+      }
+    }
+    return tokens;
+  }
+
+  static boolean isO200k(String model) {
+    String m = model == null ? "" : model.toLowerCase(Locale.ROOT);
+    int slash = m.lastIndexOf('/');
+    if (slash >= 0) m = m.substring(slash + 1); // provider prefixes, e.g. "openai/gpt-4o"
+    return m.startsWith("gpt-4o") || m.startsWith("gpt-4.1") || m.startsWith("gpt-5")
+        || m.startsWith("o1") || m.startsWith("o3") || m.startsWith("o4");
+  }
+}
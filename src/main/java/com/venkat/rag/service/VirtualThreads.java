@@ -0,0 +1,54 @@
+package com.venkat.rag.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking work. On Java 21+ a virtual-thread-per-task executor is created
+ * (looked up reflectively, since the build targets 17); on older runtimes this falls back to a
+ * fixed pool of daemon platform threads.
+ */
+public final class VirtualThreads {
+  private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+  private static final Method NEW_VIRTUAL_EXECUTOR = lookup();
+
+  private VirtualThreads() {}
+
+  public static boolean available() {
+    return NEW_VIRTUAL_EXECUTOR != null;
+  }
+
+  /** Virtual thread per task when available, else {@code fallbackThreads} platform threads named {@code name-N}. */
+  public static ExecutorService newExecutor(String name, int fallbackThreads) {
+    if (NEW_VIRTUAL_EXECUTOR != null) {
+      try {
+        return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+      } catch (ReflectiveOperationException e) {
+        log.warn("virtual_threads_unavailable msg={}", e.getMessage());
+      }
+    }
+    return platformExecutor(name, fallbackThreads);
+  }
+
+  public static ExecutorService platformExecutor(String name, int threads) {
+    AtomicInteger n = new AtomicInteger();
+    return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+      Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  private static Method lookup() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+}
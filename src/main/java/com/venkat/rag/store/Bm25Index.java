@@ -0,0 +1,571 @@
+package com.venkat.rag.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.model.VectorRecord;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process BM25 index over chunk text, for identifier- and keyword-heavy queries that embeddings
+ * rank poorly. A lexical query needs no embedding call.
+ *
+ * Every indexed chunk gets the next internal doc number; re-indexing a chunk id or deleting it
+ * only marks the old number dead, so posting lists are append-only: per term, (doc gap, tf) pairs
+ * as varints, with a skip entry every {@value #SKIP} postings so a cursor can jump ahead. Term
+ * statistics (document frequency, max tf, shortest document) live in the dictionary next to the
+ * postings and give each term a score upper bound; top-K is evaluated with WAND over those
+ * bounds, so documents that cannot beat the current k-th score are skipped, not scored. Dead
+ * documents (deleted or re-indexed) count towards the statistics until they outnumber live ones
+ * and the index is rebuilt.
+ *
+ * With {@code rag.lexical.dir} set, indexed chunks and deletes are appended to a log there and
+ * replayed at startup, since the chunk manifest skips unchanged chunks on re-ingest and they would
+ * otherwise never be re-indexed. Like the manifest, the log lives in a subdirectory named by the
+ * vector store's {@link VectorStore#storeId}, so a recreated collection or wiped segment directory
+ * starts from an empty index instead of replaying chunks the store no longer holds. Stores without
+ * an id (memory, hnsw) and an empty dir keep the index in memory only. With
+ * {@code rag.lexical.enabled=false} nothing is indexed or logged and lexical and hybrid retrieval
+ * are unavailable.
+ */
+@Component
+public class Bm25Index {
+  private static final Logger log = LoggerFactory.getLogger(Bm25Index.class);
+  private static final int SKIP = 64;
+  private static final int MAX_TOKEN = 64;
+  private static final int COMPACT_MIN_DEAD = 1024;
+  private static final int NO_MORE = Integer.MAX_VALUE;
+  private static final String LOG = "chunks.log";
+
+  private final boolean enabled;
+  private final float k1;
+  private final float b;
+  private final Path dir;
+  private final ObjectMapper om = new ObjectMapper();
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final Map<String, Term> terms = new HashMap<>();
+  private final Map<String, Integer> docById = new HashMap<>();
+  private Chunk[] chunks = new Chunk[1024];
+  private int[] lengths = new int[1024];
+  private final BitSet dead = new BitSet();
+  private int docs;
+  private int deadDocs;
+  private long totalLength;
+  private long postingBytes;
+  private long postings;
+
+  private FileOutputStream logOut;
+  private Writer logWriter;
+
+  private final LongAdder chunksIndexed = new LongAdder();
+  private final LongAdder indexNanos = new LongAdder();
+  private final LongAdder queries = new LongAdder();
+  private final LongAdder queryNanos = new LongAdder();
+  private final LongAdder docsScored = new LongAdder();
+  private final LongAdder compactions = new LongAdder();
+
+  public Bm25Index(
+      @Value("${rag.lexical.enabled:true}") boolean enabled,
+      @Value("${rag.lexical.k1:1.2}") double k1,
+      @Value("${rag.lexical.b:0.75}") double b,
+      @Value("${rag.lexical.dir:}") String dir,
+      VectorStore vectorStore) throws IOException {
+    this.enabled = enabled;
+    this.k1 = (float) k1;
+    this.b = (float) b;
+    this.dir = enabled ? VectorStore.stateDir(dir, vectorStore) : null;
+    if (this.dir != null) {
+      Files.createDirectories(this.dir);
+      long t0 = System.nanoTime();
+      replay(this.dir.resolve(LOG));
+      openLog();
+      compactIfNeeded(); // a log of many re-indexes replays into mostly dead documents
+      log.info("lexical_index_open dir={} documents={} terms={} ms={}", this.dir, docs - deadDocs, terms.size(),
+          (System.nanoTime() - t0) / 1_000_000);
+    }
+  }
+
+  /**
+   * Dictionary entry: compressed postings plus the statistics the scorer needs. A skip entry
+   * records the doc number preceding the posting at its byte offset.
+   */
+  private static final class Term {
+    byte[] bytes = new byte[8];
+    int size;
+    int df;
+    int lastDoc = -1;
+    int maxTf;
+    int minLength = Integer.MAX_VALUE;
+    int[] skipDocs = new int[0];
+    int[] skipOffsets = new int[0];
+    int skips;
+
+    void add(int doc, int tf, int length) {
+      if (df > 0 && df % SKIP == 0) {
+        if (skips == skipDocs.length) {
+          skipDocs = Arrays.copyOf(skipDocs, Math.max(4, skips * 2));
+          skipOffsets = Arrays.copyOf(skipOffsets, skipDocs.length);
+        }
+        skipDocs[skips] = lastDoc;
+        skipOffsets[skips++] = size;
+      }
+      writeVarint(doc - lastDoc);
+      writeVarint(tf);
+      lastDoc = doc;
+      df++;
+      maxTf = Math.max(maxTf, tf);
+      minLength = Math.min(minLength, length);
+    }
+
+    private void writeVarint(int v) {
+      if (size + 5 > bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      while ((v & ~0x7F) != 0) {
+        bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      bytes[size++] = (byte) v;
+    }
+  }
+
+  /** Forward iterator over one term's postings. */
+  private static final class Cursor {
+    final Term term;
+    final float idf;
+    final float upperBound;
+    int pos;
+    int doc = -1;
+    int tf;
+    int skip;
+
+    Cursor(Term term, float idf, float upperBound) {
+      this.term = term;
+      this.idf = idf;
+      this.upperBound = upperBound;
+    }
+
+    void next() {
+      if (pos >= term.size) {
+        doc = NO_MORE;
+        return;
+      }
+      doc += readVarint();
+      tf = readVarint();
+    }
+
+    /** Moves to the first posting with doc >= target. */
+    void advance(int target) {
+      while (skip < term.skips && term.skipDocs[skip] < target) {
+        if (term.skipOffsets[skip] > pos) {
+          pos = term.skipOffsets[skip];
+          doc = term.skipDocs[skip];
+        }
+        skip++;
+      }
+      while (doc < target) next();
+    }
+
+    private int readVarint() {
+      int v = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte x = term.bytes[pos++];
+        v |= (x & 0x7F) << shift;
+        if (x >= 0) return v;
+      }
+    }
+  }
+
+  public record Stats(long documents, long deletedDocuments, long terms, long postings, long postingBytes,
+                      double bytesPerPosting, long chunksIndexed, double indexChunksPerSecond, long queries,
+                      double avgQueryMicros, double docsScoredPerQuery, long compactions) {}
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void index(List<Chunk> batch) {
+    if (!enabled || batch.isEmpty()) return;
+    long t0 = System.nanoTime();
+    List<Map<String, int[]>> tfs = new ArrayList<>(batch.size());
+    for (Chunk c : batch) tfs.add(termFrequencies(c.text()));
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < batch.size(); i++) {
+        append(put(batch.get(i)));
+        add(batch.get(i), tfs.get(i));
+      }
+      compactIfNeeded(); // re-indexed chunk ids leave dead documents too
+    } finally {
+      lock.writeLock().unlock();
+    }
+    chunksIndexed.add(batch.size());
+    indexNanos.add(System.nanoTime() - t0);
+  }
+
+  /** Unknown ids are ignored. */
+  public void delete(Collection<String> ids) {
+    if (!enabled || ids.isEmpty()) return;
+    lock.writeLock().lock();
+    try {
+      for (String id : ids) {
+        Integer doc = docById.remove(id);
+        if (doc == null) continue;
+        append(om.createObjectNode().put("del", id));
+        markDead(doc);
+      }
+      compactIfNeeded();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Makes everything indexed so far durable; callers flush before committing the chunk manifest. */
+  public void flush() {
+    if (logWriter == null) return;
+    FileChannel ch;
+    lock.writeLock().lock();
+    try {
+      logWriter.flush();
+      ch = logOut.getChannel();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    // fsync outside the lock so searches are not held up by it
+    try {
+      ch.force(false);
+    } catch (ClosedChannelException e) {
+      // replaced by a compaction, which forced the rewritten log itself
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    if (logWriter == null) return;
+    flush();
+    logWriter.close();
+  }
+
+  /** BM25 top-K for the query's distinct terms, restricted to chunks matching {@code filter}. */
+  public List<VectorStore.ScoredRecord> search(String query, int topK, SearchFilter filter) {
+    long t0 = System.nanoTime();
+    Set<String> queryTerms = new LinkedHashSet<>(tokens(query));
+    SearchFilter f = SearchFilter.isEmpty(filter) ? null : filter;
+    long scored = 0;
+    lock.readLock().lock();
+    try {
+      if (topK <= 0 || docs == deadDocs) return List.of();
+      topK = Math.min(topK, docs - deadDocs); // the heap is sized by it
+      float avgLength = (float) totalLength / docs;
+      List<Cursor> list = new ArrayList<>(queryTerms.size());
+      for (String t : queryTerms) {
+        Term term = terms.get(t);
+        if (term == null) continue;
+        float idf = idf(term.df);
+        // tf saturates upwards and the length norm downwards, so max tf on the shortest doc bounds the term
+        float bound = idf * tfNorm(term.maxTf, term.minLength, avgLength) * 1.0001f;
+        Cursor c = new Cursor(term, idf, bound);
+        c.next();
+        list.add(c);
+      }
+      Cursor[] cs = list.toArray(new Cursor[0]);
+      TopK top = new TopK(topK);
+
+      while (true) {
+        sortByDoc(cs);
+        // pivot: first cursor at which the summed bounds could beat the current k-th score
+        float acc = 0;
+        int pivot = -1;
+        for (int i = 0; i < cs.length && cs[i].doc != NO_MORE; i++) {
+          acc += cs[i].upperBound;
+          if (acc > top.threshold()) {
+            pivot = i;
+            break;
+          }
+        }
+        if (pivot < 0) break;
+        int pivotDoc = cs[pivot].doc;
+
+        if (cs[0].doc == pivotDoc) {
+          if (!dead.get(pivotDoc) && (f == null || f.matches(chunks[pivotDoc]))) {
+            float score = 0;
+            for (Cursor c : cs) {
+              if (c.doc != pivotDoc) break;
+              score += c.idf * tfNorm(c.tf, lengths[pivotDoc], avgLength);
+            }
+            top.offer(pivotDoc, score);
+            scored++;
+          }
+          for (Cursor c : cs) {
+            if (c.doc != pivotDoc) break;
+            c.next();
+          }
+        } else {
+          // docs before pivotDoc only hold terms whose bounds sum to no more than the threshold
+          for (int i = 0; i < pivot; i++) cs[i].advance(pivotDoc);
+        }
+      }
+
+      float[] scores = new float[top.size()];
+      int[] rows = top.drainRows(scores);
+      List<VectorStore.ScoredRecord> out = new ArrayList<>(rows.length);
+      for (int i = 0; i < rows.length; i++) {
+        Chunk c = chunks[rows[i]];
+        out.add(new VectorStore.ScoredRecord(new VectorRecord(c.chunkId(), new float[0], c), scores[i]));
+      }
+      return out;
+    } finally {
+      lock.readLock().unlock();
+      queries.increment();
+      docsScored.add(scored);
+      queryNanos.add(System.nanoTime() - t0);
+    }
+  }
+
+  public Stats stats() {
+    lock.readLock().lock();
+    try {
+      long q = queries.sum();
+      long n = indexNanos.sum();
+      return new Stats(docs - deadDocs, deadDocs, terms.size(), postings, postingBytes,
+          postings == 0 ? 0 : (double) postingBytes / postings, chunksIndexed.sum(),
+          n == 0 ? 0 : chunksIndexed.sum() * 1e9 / n, q,
+          q == 0 ? 0 : queryNanos.sum() / 1e3 / q, q == 0 ? 0 : (double) docsScored.sum() / q, compactions.sum());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // -------------------- Scoring --------------------
+
+  private float idf(int df) {
+    return (float) Math.log(1 + (docs - df + 0.5) / (df + 0.5));
+  }
+
+  private float tfNorm(int tf, int length, float avgLength) {
+    return tf * (k1 + 1) / (tf + k1 * (1 - b + b * length / avgLength));
+  }
+
+  private static void sortByDoc(Cursor[] cs) {
+    for (int i = 1; i < cs.length; i++) {
+      Cursor c = cs[i];
+      int j = i - 1;
+      while (j >= 0 && cs[j].doc > c.doc) {
+        cs[j + 1] = cs[j];
+        j--;
+      }
+      cs[j + 1] = c;
+    }
+  }
+
+  // -------------------- Tokenizing --------------------
+
+  /**
+   * Lower-cased runs of letters, digits and '_'. Runs joined by a single '-', '.', '/' or ':'
+   * (service names, error codes, versions, paths) are also emitted whole, so "payment-svc" matches
+   * both itself and "payment".
+   */
+  static List<String> tokens(String text) {
+    List<String> out = new ArrayList<>();
+    StringBuilder word = new StringBuilder();
+    StringBuilder compound = new StringBuilder();
+    boolean joined = false;
+    for (int i = 0, n = text.length(); i <= n; i++) {
+      char c = i < n ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c) || c == '_') {
+        word.append(Character.toLowerCase(c));
+        compound.append(Character.toLowerCase(c));
+        continue;
+      }
+      boolean connector = (c == '-' || c == '.' || c == '/' || c == ':') && word.length() > 0 && i + 1 < n
+          && (Character.isLetterOrDigit(text.charAt(i + 1)) || text.charAt(i + 1) == '_');
+      emit(out, word);
+      word.setLength(0);
+      if (connector) {
+        compound.append(c);
+        joined = true;
+      } else {
+        if (joined) emit(out, compound);
+        compound.setLength(0);
+        joined = false;
+      }
+    }
+    return out;
+  }
+
+  private static void emit(List<String> out, StringBuilder sb) {
+    if (sb.length() > 0 && sb.length() <= MAX_TOKEN) out.add(sb.toString());
+  }
+
+  private static Map<String, int[]> termFrequencies(String text) {
+    Map<String, int[]> tf = new HashMap<>();
+    for (String t : tokens(text)) tf.computeIfAbsent(t, k -> new int[1])[0]++;
+    return tf;
+  }
+
+  // -------------------- Index structure (write lock held) --------------------
+
+  private void add(Chunk c, Map<String, int[]> tfs) {
+    Integer previous = docById.put(c.chunkId(), docs);
+    if (previous != null) markDead(previous);
+    if (docs == chunks.length) {
+      chunks = Arrays.copyOf(chunks, docs * 2);
+      lengths = Arrays.copyOf(lengths, docs * 2);
+    }
+    int length = 0;
+    for (int[] n : tfs.values()) length += n[0];
+    chunks[docs] = c;
+    lengths[docs] = length;
+    for (Map.Entry<String, int[]> e : tfs.entrySet()) {
+      Term t = terms.computeIfAbsent(e.getKey(), k -> new Term());
+      int before = t.size;
+      t.add(docs, e.getValue()[0], length);
+      postingBytes += t.size - before;
+      postings++;
+    }
+    totalLength += length;
+    docs++;
+  }
+
+  private void markDead(int doc) {
+    dead.set(doc);
+    chunks[doc] = null;
+    deadDocs++;
+  }
+
+  private void compactIfNeeded() {
+    if (deadDocs >= COMPACT_MIN_DEAD && deadDocs > docs - deadDocs) compact();
+  }
+
+  /** Rebuilds from the live chunks, dropping dead postings and their statistics. */
+  private void compact() {
+    long t0 = System.nanoTime();
+    List<Chunk> live = new ArrayList<>(docs - deadDocs);
+    for (int d = 0; d < docs; d++) if (!dead.get(d)) live.add(chunks[d]);
+    terms.clear();
+    docById.clear();
+    dead.clear();
+    chunks = new Chunk[Math.max(1024, live.size())];
+    lengths = new int[chunks.length];
+    docs = deadDocs = 0;
+    totalLength = postingBytes = postings = 0;
+    for (Chunk c : live) add(c, termFrequencies(c.text()));
+
+    if (dir != null) {
+      try {
+        logWriter.close();
+        Path target = dir.resolve(LOG);
+        Path tmp = Files.createTempFile(dir, LOG, ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile());
+             Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+          for (Chunk c : live) w.write(om.writeValueAsString(put(c)) + "\n");
+          w.flush();
+          out.getChannel().force(false);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        openLog();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    compactions.increment();
+    log.info("lexical_index_compacted documents={} terms={} ms={}", docs, terms.size(), (System.nanoTime() - t0) / 1_000_000);
+  }
+
+  // -------------------- Log --------------------
+
+  private ObjectNode put(Chunk c) {
+    ObjectNode n = om.createObjectNode();
+    n.set("put", om.valueToTree(c));
+    return n;
+  }
+
+  private void append(ObjectNode entry) {
+    if (logWriter == null) return;
+    try {
+      logWriter.write(om.writeValueAsString(entry));
+      logWriter.write('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void openLog() throws IOException {
+    logOut = new FileOutputStream(dir.resolve(LOG).toFile(), true);
+    logWriter = new BufferedWriter(new OutputStreamWriter(logOut, StandardCharsets.UTF_8), 1 << 16);
+  }
+
+  /** Rebuilds the index from the log; a torn last line (crash mid-append) is cut off first. */
+  private void replay(Path file) throws IOException {
+    if (!Files.exists(file)) return;
+    truncateTornTail(file);
+    try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      for (String line; (line = r.readLine()) != null; ) {
+        if (line.isBlank()) continue;
+        JsonNode n = om.readTree(line);
+        if (n.has("put")) {
+          Chunk c = om.treeToValue(n.get("put"), Chunk.class);
+          add(c, termFrequencies(c.text()));
+        } else if (n.has("del")) {
+          Integer doc = docById.remove(n.get("del").asText());
+          if (doc != null) markDead(doc);
+        }
+      }
+    }
+  }
+
+  private static void truncateTornTail(Path file) throws IOException {
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long end = ch.size();
+      ByteBuffer buf = ByteBuffer.allocate(8192);
+      while (end > 0) {
+        int n = (int) Math.min(buf.capacity(), end);
+        buf.clear().limit(n);
+        ch.read(buf, end - n);
+        int i = n - 1;
+        while (i >= 0 && buf.get(i) != '\n') i--;
+        if (i >= 0) {
+          end = end - n + i + 1;
+          break;
+        }
+        end -= n;
+      }
+      if (end < ch.size()) ch.truncate(end);
+    }
+  }
+}
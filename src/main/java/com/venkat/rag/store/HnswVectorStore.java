@@ -0,0 +1,435 @@
+package com.venkat.rag.store;
+
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.model.VectorRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process HNSW graph (Malkov & Yashunin) over cosine similarity.
+ *
+ * Vectors are stored L2-normalized so similarity is a plain dot product. Inserts are incremental
+ * and take the write lock; searches share the read lock, so any number of readers run concurrently.
+ * Re-upserting an id inserts a fresh node and hides the old one, which stays in the graph for
+ * routing only; deleting an id hides its node the same way. Searches walk through hidden nodes but
+ * only collect live ones, so they still return topK results under churn. Once hidden nodes exceed
+ * {@code hnsw.maxDeadRatio} of the graph (and number at least {@value #MIN_DEAD_FOR_REBUILD}), the
+ * graph is rebuilt from the live nodes under the write lock.
+ */
+@Component
+public class HnswVectorStore implements VectorStore {
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int MIN_DEAD_FOR_REBUILD = 1024;
+
+  private final int m;
+  private final int mMax0;
+  private final int efConstruction;
+  private final int ef;
+  private final double levelMult;
+  private final double maxDeadRatio;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<String, Integer> nodeById = new HashMap<>();
+  private final SplittableRandom random = new SplittableRandom(42);
+  private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+  private int dim = -1;
+  private int count = 0;
+  private int live = 0;
+  private int entryPoint = -1;
+  private int maxLevel = -1;
+  private long rebuilds = 0;
+
+  private float[][] vectors = new float[INITIAL_CAPACITY][];
+  private String[] ids = new String[INITIAL_CAPACITY];
+  private Chunk[] payloads = new Chunk[INITIAL_CAPACITY];
+  private boolean[] deleted = new boolean[INITIAL_CAPACITY];
+  // links[node][level] = {count, n1, n2, ...}
+  private int[][][] links = new int[INITIAL_CAPACITY][][];
+
+  public HnswVectorStore(
+      @Value("${hnsw.M:16}") int m,
+      @Value("${hnsw.efConstruction:200}") int efConstruction,
+      @Value("${hnsw.ef:64}") int ef,
+      @Value("${hnsw.maxDeadRatio:0.5}") double maxDeadRatio) {
+    if (m < 2) throw new IllegalArgumentException("hnsw.M must be >= 2");
+    this.m = m;
+    this.mMax0 = 2 * m;
+    this.efConstruction = Math.max(efConstruction, m);
+    this.ef = Math.max(1, ef);
+    this.levelMult = 1 / Math.log(m);
+    this.maxDeadRatio = maxDeadRatio;
+  }
+
+  @Override
+  public void upsert(VectorRecord record) {
+    float[] v = normalized(record.vector());
+    lock.writeLock().lock();
+    try {
+      if (dim < 0) dim = v.length;
+      if (v.length != dim) throw new IllegalArgumentException("Embedding dim mismatch. Expected " + dim + " got " + v.length);
+
+      Integer previous = nodeById.get(record.id());
+      int node = count++;
+      ensureCapacity(count);
+      vectors[node] = v;
+      ids[node] = record.id();
+      payloads[node] = record.payload();
+      insert(node, randomLevel());
+
+      nodeById.put(record.id(), node);
+      if (previous != null) deleted[previous] = true;
+      else live++;
+      rebuildIfNeeded();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void delete(Collection<String> ids) {
+    lock.writeLock().lock();
+    try {
+      for (String id : ids) {
+        Integer node = nodeById.remove(id);
+        if (node == null) continue;
+        deleted[node] = true;
+        live--;
+      }
+      rebuildIfNeeded();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public List<ScoredRecord> search(float[] queryVector, int topK) {
+    if (topK <= 0) return List.of();
+    float[] q = normalized(queryVector);
+    lock.readLock().lock();
+    try {
+      if (entryPoint < 0 || live == 0) return List.of();
+      if (q.length != dim) throw new IllegalArgumentException("Vector size mismatch");
+      topK = Math.min(topK, live); // the beam's heap is sized by it
+
+      int ep = entryPoint;
+      for (int level = maxLevel; level > 0; level--) ep = greedyClosest(q, ep, level);
+
+      TopK w = searchLayer(q, ep, Math.max(ef, topK), 0, true);
+      float[] scores = new float[w.size()];
+      int[] nodes = w.drainRows(scores);
+
+      List<ScoredRecord> out = new ArrayList<>(Math.min(topK, nodes.length));
+      for (int i = 0; i < nodes.length && out.size() < topK; i++) {
+        int n = nodes[i];
+        out.add(new ScoredRecord(new VectorRecord(ids[n], vectors[n].clone(), payloads[n]), scores[i]));
+      }
+      return out;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return live;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Nodes in the graph, hidden ones included. */
+  public int graphNodes() {
+    lock.readLock().lock();
+    try {
+      return count;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public long rebuilds() {
+    lock.readLock().lock();
+    try {
+      return rebuilds;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // -------------------- Rebuild --------------------
+
+  /** Caller holds the write lock. */
+  private void rebuildIfNeeded() {
+    int dead = count - live;
+    if (dead >= MIN_DEAD_FOR_REBUILD && dead > count * maxDeadRatio) rebuild();
+  }
+
+  /** Re-inserts the live nodes, in insertion order, into an empty graph. */
+  private void rebuild() {
+    float[][] oldVectors = vectors;
+    String[] oldIds = ids;
+    Chunk[] oldPayloads = payloads;
+    boolean[] oldDeleted = deleted;
+    int oldCount = count;
+
+    int cap = Math.max(INITIAL_CAPACITY, live);
+    vectors = new float[cap][];
+    ids = new String[cap];
+    payloads = new Chunk[cap];
+    deleted = new boolean[cap];
+    links = new int[cap][][];
+    count = 0;
+    entryPoint = -1;
+    maxLevel = -1;
+    nodeById.clear();
+    for (int n = 0; n < oldCount; n++) {
+      if (oldDeleted[n]) continue;
+      int node = count++;
+      vectors[node] = oldVectors[n];
+      ids[node] = oldIds[n];
+      payloads[node] = oldPayloads[n];
+      insert(node, randomLevel());
+      nodeById.put(ids[node], node);
+    }
+    rebuilds++;
+  }
+
+  // -------------------- Graph construction --------------------
+
+  private void insert(int node, int level) {
+    links[node] = new int[level + 1][];
+    for (int l = 0; l <= level; l++) links[node][l] = new int[1 + maxConnections(l)];
+
+    if (entryPoint < 0) {
+      entryPoint = node;
+      maxLevel = level;
+      return;
+    }
+
+    float[] q = vectors[node];
+    int ep = entryPoint;
+    for (int l = maxLevel; l > level; l--) ep = greedyClosest(q, ep, l);
+
+    for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+      TopK w = searchLayer(q, ep, efConstruction, l, false);
+      float[] scores = new float[w.size()];
+      int[] candidates = w.drainRows(scores);
+      ep = candidates[0];
+
+      int[] selected = selectNeighbors(candidates, scores, candidates.length, m);
+      int[] own = links[node][l];
+      own[0] = selected.length;
+      System.arraycopy(selected, 0, own, 1, selected.length);
+
+      for (int n : selected) link(n, node, l);
+    }
+
+    if (level > maxLevel) {
+      entryPoint = node;
+      maxLevel = level;
+    }
+  }
+
+  /** Adds a reverse edge n -> node, re-pruning n's neighbourhood with the heuristic on overflow. */
+  private void link(int n, int node, int level) {
+    int[] nl = links[n][level];
+    int cap = maxConnections(level);
+    if (nl[0] < cap) {
+      nl[++nl[0]] = node;
+      return;
+    }
+    int[] cand = new int[cap + 1];
+    float[] scores = new float[cap + 1];
+    for (int i = 0; i < cap; i++) cand[i] = nl[i + 1];
+    cand[cap] = node;
+    for (int i = 0; i <= cap; i++) scores[i] = VectorMath.dot(vectors[n], vectors[cand[i]]);
+    sortBestFirst(cand, scores);
+
+    int[] kept = selectNeighbors(cand, scores, cand.length, cap);
+    nl[0] = kept.length;
+    System.arraycopy(kept, 0, nl, 1, kept.length);
+  }
+
+  /**
+   * Neighbour-selection heuristic: keep a candidate only if it is closer to the base than to every
+   * neighbour already kept, which preserves edges in sparse directions. Candidates are best-first.
+   */
+  private int[] selectNeighbors(int[] candidates, float[] scores, int n, int max) {
+    int[] out = new int[Math.min(n, max)];
+    int size = 0;
+    for (int i = 0; i < n && size < max; i++) {
+      int c = candidates[i];
+      boolean good = true;
+      for (int j = 0; j < size; j++) {
+        if (VectorMath.dot(vectors[c], vectors[out[j]]) > scores[i]) { good = false; break; }
+      }
+      if (good) out[size++] = c;
+    }
+    // top up with the closest rejected candidates so low-degree nodes stay reachable
+    for (int i = 0; i < n && size < out.length; i++) {
+      int c = candidates[i];
+      boolean present = false;
+      for (int j = 0; j < size; j++) if (out[j] == c) { present = true; break; }
+      if (!present) out[size++] = c;
+    }
+    return size == out.length ? out : Arrays.copyOf(out, size);
+  }
+
+  // -------------------- Search --------------------
+
+  private int greedyClosest(float[] q, int ep, int level) {
+    int best = ep;
+    float bestScore = VectorMath.dot(q, vectors[ep]);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      int[] nl = links[best][level];
+      for (int i = 1; i <= nl[0]; i++) {
+        float s = VectorMath.dot(q, vectors[nl[i]]);
+        if (s > bestScore) { bestScore = s; best = nl[i]; changed = true; }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Beam search on one layer; returns the ef best nodes found. With {@code liveOnly}, hidden nodes
+   * are still expanded but never collected, so the beam keeps going until it holds ef live nodes.
+   */
+  private TopK searchLayer(float[] q, int ep, int efSearch, int level, boolean liveOnly) {
+    Visited seen = visited.get().reset(count);
+    Candidates candidates = new Candidates();
+    TopK results = new TopK(efSearch);
+
+    float s0 = VectorMath.dot(q, vectors[ep]);
+    seen.mark(ep);
+    candidates.push(ep, s0);
+    if (!liveOnly || !deleted[ep]) results.offer(ep, s0);
+
+    while (candidates.size() > 0) {
+      float cs = candidates.topScore();
+      if (results.size() >= efSearch && cs < results.threshold()) break;
+      int c = candidates.pop();
+      int[] nl = links[c][level];
+      for (int i = 1; i <= nl[0]; i++) {
+        int e = nl[i];
+        if (!seen.mark(e)) continue;
+        float s = VectorMath.dot(q, vectors[e]);
+        if (results.size() < efSearch || s > results.threshold()) {
+          candidates.push(e, s);
+          if (!liveOnly || !deleted[e]) results.offer(e, s);
+        }
+      }
+    }
+    return results;
+  }
+
+  // -------------------- Helpers --------------------
+
+  private int maxConnections(int level) { return level == 0 ? mMax0 : m; }
+
+  private int randomLevel() {
+    double u = random.nextDouble();
+    return (int) Math.floor(-Math.log(u == 0 ? Double.MIN_VALUE : u) * levelMult);
+  }
+
+  private static float[] normalized(float[] v) {
+    float inv = VectorMath.inverseNorm(v, 0, v.length);
+    float[] out = new float[v.length];
+    for (int i = 0; i < v.length; i++) out[i] = v[i] * inv;
+    return out;
+  }
+
+  private static void sortBestFirst(int[] nodes, float[] scores) {
+    // small arrays (<= 2M+1): insertion sort
+    for (int i = 1; i < nodes.length; i++) {
+      int n = nodes[i];
+      float s = scores[i];
+      int j = i - 1;
+      while (j >= 0 && scores[j] < s) { nodes[j + 1] = nodes[j]; scores[j + 1] = scores[j]; j--; }
+      nodes[j + 1] = n;
+      scores[j + 1] = s;
+    }
+  }
+
+  private void ensureCapacity(int needed) {
+    if (needed <= ids.length) return;
+    int cap = Math.max(needed, ids.length * 2);
+    vectors = Arrays.copyOf(vectors, cap);
+    ids = Arrays.copyOf(ids, cap);
+    payloads = Arrays.copyOf(payloads, cap);
+    deleted = Arrays.copyOf(deleted, cap);
+    links = Arrays.copyOf(links, cap);
+  }
+
+  /** Per-thread visited marks; bumping the epoch clears them in O(1). */
+  private static final class Visited {
+    private int[] marks = new int[0];
+    private int epoch = 0;
+
+    Visited reset(int size) {
+      if (marks.length < size) marks = new int[Math.max(size, marks.length * 2)];
+      if (++epoch == 0) { Arrays.fill(marks, 0); epoch = 1; }
+      return this;
+    }
+
+    /** @return true if the node was not seen before in this search */
+    boolean mark(int node) {
+      if (marks[node] == epoch) return false;
+      marks[node] = epoch;
+      return true;
+    }
+  }
+
+  /** Growable max-heap of (node, score): pops the most similar unexpanded candidate first. */
+  private static final class Candidates {
+    private int[] nodes = new int[64];
+    private float[] scores = new float[64];
+    private int size;
+
+    int size() { return size; }
+
+    float topScore() { return scores[0]; }
+
+    void push(int node, float score) {
+      if (size == nodes.length) {
+        nodes = Arrays.copyOf(nodes, size * 2);
+        scores = Arrays.copyOf(scores, size * 2);
+      }
+      int i = size++;
+      while (i > 0) {
+        int p = (i - 1) >>> 1;
+        if (scores[p] >= score) break;
+        nodes[i] = nodes[p];
+        scores[i] = scores[p];
+        i = p;
+      }
+      nodes[i] = node;
+      scores[i] = score;
+    }
+
+    int pop() {
+      int top = nodes[0];
+      int lastNode = nodes[--size];
+      float last = scores[size];
+      int i = 0;
+      while (true) {
+        int l = 2 * i + 1;
+        if (l >= size) break;
+        int c = (l + 1 < size && scores[l + 1] > scores[l]) ? l + 1 : l;
+        if (last >= scores[c]) break;
+        nodes[i] = nodes[c];
+        scores[i] = scores[c];
+        i = c;
+      }
+      nodes[i] = lastNode;
+      scores[i] = last;
+      return top;
+    }
+  }
+}
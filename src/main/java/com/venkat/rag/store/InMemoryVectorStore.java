@@ -1,42 +1,451 @@
 package com.venkat.rag.store;
 
+import com.venkat.rag.model.Chunk;
 import com.venkat.rag.model.VectorRecord;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Brute-force store. Vectors are packed row-major into fixed-size float[] blocks with a
+ * pre-computed inverse norm per row, so a query is one dot product per row and no boxing.
+ *
+ * Rows are appended. A writer reserves a row with a CAS, fills it, then publishes its
+ * {@link Row} with a volatile store; readers take no locks and skip rows that are not yet
+ * published or were superseded. Upserts of the same id are serialized by the id map's bin lock,
+ * so unrelated ids append concurrently. Large scans are split into partitions on a ForkJoin
+ * pool, each with its own top-K heap, merged at the end.
+ *
+ * Superseded and deleted slots are reclaimed by compaction once they outnumber the live rows
+ * (and fill at least a block): live rows are copied into fresh blocks and the new {@link Layout}
+ * is swapped in. Writers share a gate that compaction takes exclusively; searches never wait and
+ * finish on the layout they started with. Slots are never recycled in place, so a running scan
+ * cannot see a vector change under it.
+ *
+ * With {@code rag.store.quantization} set to int8 or binary, each block also holds compact codes;
+ * the scan runs over the codes to pick {@code topK * oversample} candidates, which are then
+ * re-scored with exact cosine against the float vectors.
+ *
+ * Each slot is also recorded in a bitmap per documentId, source and documentTitle value. A
+ * filtered search ANDs/ORs those bitmaps into a mask up front and the scan visits only the slots
+ * set in it. Bits are only dropped by compaction, which rebuilds them; the published-row check still applies.
+ */
 @Component
 public class InMemoryVectorStore implements VectorStore {
-  private final List<VectorRecord> records = new ArrayList<>();
+  private static final int BLOCK_SHIFT = 10;
+  private static final int BLOCK_ROWS = 1 << BLOCK_SHIFT;
+
+  private final AtomicInteger dim = new AtomicInteger(-1);
+  private final AtomicInteger reserved = new AtomicInteger();
+  private final AtomicInteger live = new AtomicInteger();
+  private final ConcurrentHashMap<String, Integer> rowById = new ConcurrentHashMap<>();
+  private final ReentrantLock growLock = new ReentrantLock();
+  private final ReentrantLock compactLock = new ReentrantLock();
+  private final ReentrantReadWriteLock writeGate = new ReentrantReadWriteLock();
+  private volatile Layout layout = Layout.empty();
+  private final AtomicLong compactions = new AtomicLong();
+
+  private final ForkJoinPool pool;
+  private final int partitionRows;
+  private final Quantization.Mode quantization;
+  private final int oversample;
+
+  public InMemoryVectorStore(
+      @Value("${rag.store.searchParallelism:0}") int searchParallelism,
+      @Value("${rag.store.partitionRows:8192}") int partitionRows,
+      @Value("${rag.store.quantization:none}") String quantization,
+      @Value("${rag.store.oversample:4}") int oversample) {
+    int parallelism = searchParallelism > 0 ? searchParallelism : Runtime.getRuntime().availableProcessors();
+    this.pool = new ForkJoinPool(parallelism);
+    this.partitionRows = Math.max(BLOCK_ROWS, partitionRows);
+    this.quantization = Quantization.Mode.parse(quantization);
+    this.oversample = Math.max(1, oversample);
+  }
+
+  /** Published row metadata; null in the slot means "not visible". */
+  private record Row(String id, Chunk payload) {}
+
+  /** Blocks plus the filter bitmaps over their slot numbers; replaced as a whole by compaction. */
+  private record Layout(Block[] blocks, Map<String, SlotBitmap> byDocumentId, Map<String, SlotBitmap> bySource,
+      Map<String, SlotBitmap> byTitle) {
+    static Layout empty() {
+      return new Layout(new Block[0], new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+    }
+
+    Layout withBlocks(Block[] next) {
+      return new Layout(next, byDocumentId, bySource, byTitle);
+    }
+  }
+
+  private static final class Block {
+    final float[] vectors;
+    final float[] invNorms = new float[BLOCK_ROWS];
+    final AtomicReferenceArray<Row> rows = new AtomicReferenceArray<>(BLOCK_ROWS);
+    // only the arrays for the configured quantization mode are allocated
+    final byte[] int8;
+    final float[] int8Scales;
+    final long[] bits;
+
+    Block(int dim, Quantization.Mode mode) {
+      this.vectors = new float[BLOCK_ROWS * dim];
+      this.int8 = mode == Quantization.Mode.INT8 ? new byte[BLOCK_ROWS * dim] : null;
+      this.int8Scales = mode == Quantization.Mode.INT8 ? new float[BLOCK_ROWS] : null;
+      this.bits = mode == Quantization.Mode.BINARY ? new long[BLOCK_ROWS * Quantization.words(dim)] : null;
+    }
+  }
+
+  /** Slot set for one field value, grown block by block; bits are set with a CAS and never cleared. */
+  private static final class SlotBitmap {
+    private static final int WORDS = BLOCK_ROWS / Long.SIZE;
+    private final AtomicReference<AtomicLongArray[]> blocks = new AtomicReference<>(new AtomicLongArray[0]);
+
+    void set(int slot) {
+      int index = slot >>> BLOCK_SHIFT;
+      AtomicLongArray[] current = blocks.get();
+      while (index >= current.length || current[index] == null) {
+        AtomicLongArray[] next = Arrays.copyOf(current, Math.max(current.length, index + 1));
+        next[index] = new AtomicLongArray(WORDS);
+        if (blocks.compareAndSet(current, next)) current = next;
+        else current = blocks.get();
+      }
+      int local = slot & (BLOCK_ROWS - 1);
+      current[index].getAndAccumulate(local >>> 6, 1L << local, (a, b) -> a | b);
+    }
+
+    void orInto(long[] mask) {
+      AtomicLongArray[] current = blocks.get();
+      for (int bi = 0; bi < current.length; bi++) {
+        if (current[bi] == null) continue;
+        for (int w = 0; w < WORDS && bi * WORDS + w < mask.length; w++) mask[bi * WORDS + w] |= current[bi].get(w);
+      }
+    }
+  }
+
+  /** Query vector in every representation the scan may need. */
+  private record Query(float[] v, float inv, byte[] int8, float int8Scale, long[] bits) {}
 
   @Override
   public void upsert(VectorRecord record) {
-    records.add(record);
+    float[] v = record.vector();
+    dim.compareAndSet(-1, v.length);
+    int d = dim.get();
+    if (v.length != d) throw new IllegalArgumentException("Embedding dim mismatch. Expected " + d + " got " + v.length);
+
+    Row row = new Row(record.id(), record.payload());
+    writeGate.readLock().lock();
+    try {
+      rowById.compute(record.id(), (id, previous) -> {
+        int slot = reserved.getAndIncrement();
+        Block b = block(slot >>> BLOCK_SHIFT, d);
+        int local = slot & (BLOCK_ROWS - 1);
+        System.arraycopy(v, 0, b.vectors, local * d, d);
+        b.invNorms[local] = VectorMath.inverseNorm(v, 0, d);
+        if (b.int8 != null) b.int8Scales[local] = Quantization.encodeInt8(v, 0, d, b.int8, local * d);
+        if (b.bits != null) Quantization.encodeBits(v, 0, d, b.bits, local * Quantization.words(d));
+        index(layout, slot, record.payload());
+        b.rows.set(local, row); // publish after the vector is written
+
+        if (previous == null) live.incrementAndGet();
+        else layout.blocks()[previous >>> BLOCK_SHIFT].rows.set(previous & (BLOCK_ROWS - 1), null);
+        return slot;
+      });
+    } finally {
+      writeGate.readLock().unlock();
+    }
+    compactIfNeeded();
+  }
+
+  /** Unpublishes the rows; their slots are reclaimed by compaction, like rows superseded by an upsert. */
+  @Override
+  public void delete(Collection<String> ids) {
+    writeGate.readLock().lock();
+    try {
+      for (String id : ids) {
+        rowById.computeIfPresent(id, (key, slot) -> {
+          layout.blocks()[slot >>> BLOCK_SHIFT].rows.set(slot & (BLOCK_ROWS - 1), null);
+          live.decrementAndGet();
+          return null;
+        });
+      }
+    } finally {
+      writeGate.readLock().unlock();
+    }
+    compactIfNeeded();
+  }
+
+  private static void index(Layout l, int slot, Chunk c) {
+    if (c == null) return;
+    if (c.documentId() != null) l.byDocumentId().computeIfAbsent(c.documentId(), k -> new SlotBitmap()).set(slot);
+    if (c.source() != null) l.bySource().computeIfAbsent(c.source(), k -> new SlotBitmap()).set(slot);
+    if (c.documentTitle() != null) l.byTitle().computeIfAbsent(c.documentTitle(), k -> new SlotBitmap()).set(slot);
+  }
+
+  /** Superseded or deleted slots not yet reclaimed. */
+  public int deadRows() { return Math.max(0, reserved.get() - live.get()); }
+
+  public long compactions() { return compactions.get(); }
+
+  private void compactIfNeeded() {
+    int dead = deadRows();
+    if (dead < BLOCK_ROWS || dead <= live.get() || !compactLock.tryLock()) return;
+    try {
+      writeGate.writeLock().lock();
+      try {
+        if (deadRows() >= BLOCK_ROWS && deadRows() > live.get()) compact();
+      } finally {
+        writeGate.writeLock().unlock();
+      }
+    } finally {
+      compactLock.unlock();
+    }
+  }
+
+  /**
+   * Copies the live rows, in slot order, into fresh blocks and rebuilds the bitmaps. Runs with
+   * all writers excluded; the new layout is published before the smaller reserved count, so a
+   * search that reads the count first never scans the new layout short.
+   */
+  private void compact() {
+    int d = dim.get();
+    Layout old = layout;
+    Layout next = Layout.empty();
+    int rows = Math.min(reserved.get(), old.blocks().length * BLOCK_ROWS);
+    int words = Quantization.words(d);
+    List<Block> out = new ArrayList<>();
+    int to = 0;
+    for (int slot = 0; slot < rows; slot++) {
+      Block b = old.blocks()[slot >>> BLOCK_SHIFT];
+      int local = slot & (BLOCK_ROWS - 1);
+      Row r = b == null ? null : b.rows.get(local);
+      if (r == null) continue;
+      if ((to >>> BLOCK_SHIFT) == out.size()) out.add(new Block(d, quantization));
+      Block nb = out.get(to >>> BLOCK_SHIFT);
+      int nl = to & (BLOCK_ROWS - 1);
+      System.arraycopy(b.vectors, local * d, nb.vectors, nl * d, d);
+      nb.invNorms[nl] = b.invNorms[local];
+      if (b.int8 != null) {
+        System.arraycopy(b.int8, local * d, nb.int8, nl * d, d);
+        nb.int8Scales[nl] = b.int8Scales[local];
+      }
+      if (b.bits != null) System.arraycopy(b.bits, local * words, nb.bits, nl * words, words);
+      nb.rows.set(nl, r);
+      index(next, to, r.payload());
+      rowById.put(r.id(), to);
+      to++;
+    }
+    layout = next.withBlocks(out.toArray(new Block[0]));
+    reserved.set(to);
+    compactions.incrementAndGet();
   }
 
   @Override
-  public List<ScoredRecord> search(List<Double> queryVector, int topK) {
-    PriorityQueue<ScoredRecord> heap = new PriorityQueue<>(Comparator.comparingDouble(ScoredRecord::score));
-    for (VectorRecord r : records) {
-      double score = cosineSimilarity(queryVector, r.vector());
-      if (heap.size() < topK) heap.offer(new ScoredRecord(r, score));
-      else if (score > heap.peek().score()) { heap.poll(); heap.offer(new ScoredRecord(r, score)); }
-    }
-    List<ScoredRecord> out = new ArrayList<>(heap);
-    out.sort((a, b) -> Double.compare(b.score(), a.score()));
+  public List<ScoredRecord> search(float[] queryVector, int topK) {
+    return searchBatch(List.of(queryVector), topK).get(0);
+  }
+
+  @Override
+  public List<ScoredRecord> search(float[] queryVector, int topK, SearchFilter filter) {
+    return searchBatch(List.of(queryVector), topK, filter).get(0);
+  }
+
+  @Override
+  public List<List<ScoredRecord>> searchBatch(List<float[]> queryVectors, int topK) {
+    return searchBatch(queryVectors, topK, null);
+  }
+
+  /**
+   * Scores every query in one pass over the corpus: each stored row is loaded once and dotted
+   * against all queries while it is hot in cache, instead of one full scan per query.
+   */
+  public List<List<ScoredRecord>> searchBatch(List<float[]> queryVectors, int topK, SearchFilter filter) {
+    int reservedRows = reserved.get(); // before the layout; see compact()
+    Layout l = layout;
+    Block[] snapshot = l.blocks();
+    int rows = Math.min(reservedRows, snapshot.length * BLOCK_ROWS);
+    int d = dim.get();
+    if (rows == 0 || topK <= 0) return queryVectors.stream().map(q -> List.<ScoredRecord>of()).toList();
+    Query[] qs = new Query[queryVectors.size()];
+    for (int i = 0; i < qs.length; i++) {
+      if (queryVectors.get(i).length != d) throw new IllegalArgumentException("Vector size mismatch");
+      qs[i] = query(queryVectors.get(i), d);
+    }
+    long[] mask = SearchFilter.isEmpty(filter) ? null : mask(l, filter, rows);
+
+    // heaps are sized by k, so never ask for more rows than are published
+    topK = Math.min(topK, rows);
+    int k = quantization == Quantization.Mode.NONE ? topK : (int) Math.min((long) topK * oversample, rows);
+    TopK[] tops;
+    int partitions = Math.min(pool.getParallelism(), (rows + partitionRows - 1) / partitionRows);
+    if (partitions <= 1) {
+      tops = scan(snapshot, d, qs, mask, 0, rows, k);
+    } else {
+      tops = scatterGather(snapshot, d, qs, mask, rows, partitions, k);
+    }
+
+    List<List<ScoredRecord>> results = new ArrayList<>(qs.length);
+    for (int qi = 0; qi < qs.length; qi++) {
+      TopK top = quantization == Quantization.Mode.NONE ? tops[qi] : rescore(snapshot, d, qs[qi], tops[qi], topK);
+      results.add(materialize(snapshot, d, top));
+    }
+    return results;
+  }
+
+  public int size() { return live.get(); }
+
+  private static List<ScoredRecord> materialize(Block[] snapshot, int d, TopK top) {
+    float[] scores = new float[top.size()];
+    int[] slots = top.drainRows(scores);
+    List<ScoredRecord> out = new ArrayList<>(slots.length);
+    for (int i = 0; i < slots.length; i++) {
+      Block b = snapshot[slots[i] >>> BLOCK_SHIFT];
+      int local = slots[i] & (BLOCK_ROWS - 1);
+      Row r = b.rows.get(local);
+      if (r == null) continue; // superseded after it was scored
+      float[] vec = Arrays.copyOfRange(b.vectors, local * d, (local + 1) * d);
+      out.add(new ScoredRecord(new VectorRecord(r.id(), vec, r.payload()), scores[i]));
+    }
     return out;
   }
 
-  public int size() { return records.size(); }
+  private Query query(float[] v, int d) {
+    float inv = VectorMath.inverseNorm(v, 0, d);
+    return switch (quantization) {
+      case NONE -> new Query(v, inv, null, 0f, null);
+      case INT8 -> {
+        byte[] codes = new byte[d];
+        float scale = Quantization.encodeInt8(v, 0, d, codes, 0);
+        yield new Query(v, inv, codes, scale, null);
+      }
+      case BINARY -> {
+        long[] bits = new long[Quantization.words(d)];
+        Quantization.encodeBits(v, 0, d, bits, 0);
+        yield new Query(v, inv, null, 0f, bits);
+      }
+    };
+  }
+
+  /** Slots allowed by the filter, one bit per slot in [0, rows): OR within a field, AND across fields. */
+  private static long[] mask(Layout l, SearchFilter filter, int rows) {
+    long[] mask = and(null, l.byDocumentId(), filter.documentIds(), rows);
+    mask = and(mask, l.bySource(), filter.sources(), rows);
+    return and(mask, l.byTitle(), filter.documentTitles(), rows);
+  }
+
+  private static long[] and(long[] mask, Map<String, SlotBitmap> index, Set<String> values, int rows) {
+    if (values.isEmpty()) return mask;
+    long[] field = new long[(rows + Long.SIZE - 1) / Long.SIZE];
+    for (String v : values) {
+      SlotBitmap bitmap = index.get(v);
+      if (bitmap != null) bitmap.orInto(field);
+    }
+    if (mask != null) for (int w = 0; w < field.length; w++) field[w] &= mask[w];
+    return field;
+  }
+
+  private TopK[] scatterGather(Block[] snapshot, int d, Query[] qs, long[] mask, int rows, int partitions, int topK) {
+    // partition boundaries are block-aligned so each task walks whole blocks
+    int blocksTotal = (rows + BLOCK_ROWS - 1) >>> BLOCK_SHIFT;
+    int blocksPer = (blocksTotal + partitions - 1) / partitions;
+    List<ForkJoinTask<TopK[]>> tasks = new ArrayList<>(partitions);
+    for (int p = 0; p < partitions; p++) {
+      int from = p * blocksPer * BLOCK_ROWS;
+      int to = Math.min(rows, (p + 1) * blocksPer * BLOCK_ROWS);
+      if (from >= to) break;
+      tasks.add(pool.submit(() -> scan(snapshot, d, qs, mask, from, to, topK)));
+    }
+
+    TopK[] merged = new TopK[qs.length];
+    for (int qi = 0; qi < qs.length; qi++) merged[qi] = new TopK(topK);
+    for (ForkJoinTask<TopK[]> t : tasks) {
+      TopK[] parts = t.join();
+      for (int qi = 0; qi < qs.length; qi++) {
+        float[] scores = new float[parts[qi].size()];
+        int[] slots = parts[qi].drainRows(scores);
+        for (int i = 0; i < slots.length; i++) merged[qi].offer(slots[i], scores[i]);
+      }
+    }
+    return merged;
+  }
+
+  /** Scores the published rows in [from, to); with a mask, only the slots set in it. */
+  private TopK[] scan(Block[] snapshot, int d, Query[] qs, long[] mask, int from, int to, int topK) {
+    TopK[] tops = new TopK[qs.length];
+    for (int qi = 0; qi < qs.length; qi++) tops[qi] = new TopK(topK);
+    if (mask == null) {
+      for (int slot = from; slot < to; slot++) {
+        Block b = snapshot[slot >>> BLOCK_SHIFT];
+        if (b == null) { slot |= BLOCK_ROWS - 1; continue; }
+        score(b, slot, d, qs, tops);
+      }
+      return tops;
+    }
+    // from is block-aligned, so whole mask words belong to this range
+    for (int w = from >>> 6; w < mask.length && (w << 6) < to; w++) {
+      for (long bits = mask[w]; bits != 0; bits &= bits - 1) {
+        int slot = (w << 6) + Long.numberOfTrailingZeros(bits);
+        if (slot >= to) break;
+        Block b = snapshot[slot >>> BLOCK_SHIFT];
+        if (b != null) score(b, slot, d, qs, tops);
+      }
+    }
+    return tops;
+  }
+
+  private void score(Block b, int slot, int d, Query[] qs, TopK[] tops) {
+    int local = slot & (BLOCK_ROWS - 1);
+    if (b.rows.get(local) == null) return;
+    int words = Quantization.words(d);
+    for (int qi = 0; qi < qs.length; qi++) {
+      Query q = qs[qi];
+      float score = switch (quantization) {
+        case NONE -> VectorMath.dot(q.v(), 0, b.vectors, local * d, d) * q.inv() * b.invNorms[local];
+        case INT8 -> Quantization.dotInt8(q.int8(), 0, b.int8, local * d, d)
+            * q.int8Scale() * b.int8Scales[local] * q.inv() * b.invNorms[local];
+        case BINARY -> -Quantization.hamming(q.bits(), 0, b.bits, local * words, words);
+      };
+      tops[qi].offer(slot, score);
+    }
+  }
+
+  /** Exact cosine over the oversampled candidates. */
+  private static TopK rescore(Block[] snapshot, int d, Query q, TopK candidates, int topK) {
+    float[] ignored = new float[candidates.size()];
+    int[] slots = candidates.drainRows(ignored);
+    TopK top = new TopK(topK);
+    for (int slot : slots) {
+      Block b = snapshot[slot >>> BLOCK_SHIFT];
+      int local = slot & (BLOCK_ROWS - 1);
+      top.offer(slot, VectorMath.dot(q.v(), 0, b.vectors, local * d, d) * q.inv() * b.invNorms[local]);
+    }
+    return top;
+  }
 
-  private static double cosineSimilarity(List<Double> a, List<Double> b) {
-    if (a.size() != b.size()) throw new IllegalArgumentException("Vector size mismatch");
-    double dot = 0, na = 0, nb = 0;
-    for (int i = 0; i < a.size(); i++) {
-      double x = a.get(i), y = b.get(i);
-      dot += x * y; na += x * x; nb += y * y;
+  private Block block(int index, int d) {
+    Block[] current = layout.blocks();
+    if (index < current.length && current[index] != null) return current[index];
+    growLock.lock();
+    try {
+      Layout l = layout;
+      current = l.blocks();
+      if (index < current.length && current[index] != null) return current[index];
+      // copy-on-write directory so readers holding an older snapshot are unaffected
+      Block[] next = Arrays.copyOf(current, Math.max(current.length, index + 1));
+      for (int i = 0; i <= index; i++) if (next[i] == null) next[i] = new Block(d, quantization);
+      layout = l.withBlocks(next);
+      return next[index];
+    } finally {
+      growLock.unlock();
     }
-    double denom = Math.sqrt(na) * Math.sqrt(nb);
-    return denom == 0 ? 0 : dot / denom;
   }
 }
@@ -1,6 +1,7 @@
 package com.venkat.rag.store;
 
 
+import com.venkat.rag.metrics.RagMetrics;
 import com.venkat.rag.model.Chunk;
 import com.venkat.rag.model.VectorRecord;
 import io.milvus.client.MilvusServiceClient;
@@ -9,25 +10,53 @@ import io.milvus.param.IndexType;
 import io.milvus.param.MetricType;
 import io.milvus.param.R;
 import io.milvus.grpc.DataType;
+import io.milvus.grpc.DescribeCollectionResponse;
+import io.milvus.grpc.GetLoadStateResponse;
+import io.milvus.grpc.LoadState;
 import io.milvus.param.collection.*;
 import io.milvus.param.index.CreateIndexParam;
+import io.milvus.param.dml.DeleteParam;
 import io.milvus.param.dml.InsertParam;
 import io.milvus.param.dml.SearchParam;
+import io.milvus.param.dml.UpsertParam;
 import io.milvus.response.SearchResultsWrapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
-
-@Primary
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/** Lazy so nothing connects to Milvus unless {@code rag.vectorStore=milvus}. */
+@Lazy
 @Component
 public class MilvusVectorStore implements VectorStore {
+  private static final Logger log = LoggerFactory.getLogger(MilvusVectorStore.class);
 
   private final MilvusServiceClient client;
   private final String collection;
   private final int vectorDim;
   private final MetricType metricType;
+  private final int insertBatchSize;
+  private final AtomicBoolean dirty = new AtomicBoolean();
+  private final ScheduledExecutorService flusher;
+  private final ReentrantLock loadLock = new ReentrantLock();
+  private volatile boolean loaded;
+  // bulkhead: with virtual threads nothing else caps how many callers pile onto the gRPC channel
+  private final Semaphore rpcPermits;
+  private final long rpcAcquireTimeoutMs;
+  private final int sourcePartitions;
+  private final RagMetrics metrics;
+  private final String storeId;
 
   // Field names in Milvus
   private static final String F_ID = "id";
@@ -43,7 +72,13 @@ public class MilvusVectorStore implements VectorStore {
       @Value("${milvus.port}") int port,
       @Value("${milvus.collection}") String collection,
       @Value("${milvus.vectorDim}") int vectorDim,
-      @Value("${milvus.metricType:COSINE}") String metricType
+      @Value("${milvus.metricType:COSINE}") String metricType,
+      @Value("${milvus.insertBatchSize:512}") int insertBatchSize,
+      @Value("${milvus.flushIntervalMs:10000}") long flushIntervalMs,
+      @Value("${milvus.maxConcurrentRpcs:32}") int maxConcurrentRpcs,
+      @Value("${milvus.rpcAcquireTimeoutMs:30000}") long rpcAcquireTimeoutMs,
+      @Value("${milvus.sourcePartitions:16}") int sourcePartitions,
+      RagMetrics metrics
   ) {
     this.client = new MilvusServiceClient(
         ConnectParam.newBuilder()
@@ -54,58 +89,173 @@ public class MilvusVectorStore implements VectorStore {
     this.collection = collection;
     this.vectorDim = vectorDim;
     this.metricType = MetricType.valueOf(metricType.toUpperCase(Locale.ROOT));
+    this.insertBatchSize = Math.max(1, insertBatchSize);
+    this.rpcPermits = new Semaphore(Math.max(1, maxConcurrentRpcs), true);
+    this.rpcAcquireTimeoutMs = rpcAcquireTimeoutMs;
+    this.sourcePartitions = sourcePartitions;
+    this.metrics = metrics;
 
     ensureCollectionAndIndex();
+    this.storeId = "milvus-" + host + "-" + port + "-" + collection + "-" + collectionId();
+    try {
+      ensureLoaded();
+    } catch (RuntimeException e) {
+      // not fatal: the first search retries, and isReady() reports false until then
+      log.warn("milvus_load_deferred collection={} msg={}", collection, e.getMessage());
+    }
+
+    if (flushIntervalMs > 0) {
+      this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "milvus-flush");
+        t.setDaemon(true);
+        return t;
+      });
+      flusher.scheduleWithFixedDelay(() -> {
+        try {
+          flush();
+        } catch (RuntimeException e) {
+          log.warn("milvus_flush_failed collection={}", collection, e);
+        }
+      }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    } else {
+      this.flusher = null;
+    }
   }
 
   @Override
   public void upsert(VectorRecord record) {
-    // Milvus "upsert" behavior depends on PK settings; simplest:
-    // insert with primary key = id. If same id exists and you want replace,
-    // delete-by-id then insert (we keep Day-3 simple: insert unique chunk ids).
-    if (record.vector().size() != vectorDim) {
-      throw new IllegalArgumentException("Embedding dim mismatch. Expected " + vectorDim + " got " + record.vector().size());
-    }
-
-    // Convert Double -> Float (Milvus expects float vectors)
-    List<Float> floatVec = record.vector().stream().map(Double::floatValue).toList();
-
-    Chunk c = record.payload();
-
-    List<InsertParam.Field> fields = List.of(
-        new InsertParam.Field(F_ID, List.of(record.id())),
-        new InsertParam.Field(F_VECTOR, List.of(floatVec)),
-        new InsertParam.Field(F_DOC_ID, List.of(c.documentId())),
-        new InsertParam.Field(F_TITLE, List.of(c.documentTitle())),
-        new InsertParam.Field(F_SOURCE, List.of(c.source())),
-        new InsertParam.Field(F_CHUNK_INDEX, List.of((long) c.chunkIndex())),
-        new InsertParam.Field(F_TEXT, List.of(c.text()))
-    );
+    upsertAll(List.of(record));
+  }
 
-    R<?> res = client.insert(
-        InsertParam.newBuilder()
-            .withCollectionName(collection)
-            .withFields(fields)
-            .build()
-    );
+  /**
+   * Columnar, multi-row upserts of {@code milvus.insertBatchSize} rows per RPC. Upsert (delete +
+   * insert by primary key) makes re-ingesting a document replace its chunks instead of failing or
+   * duplicating them. Rows are searchable right away from growing segments; sealing is left to
+   * {@link #flush()}.
+   */
+  @Override
+  public void upsertAll(List<VectorRecord> records) {
+    for (int from = 0; from < records.size(); from += insertBatchSize) {
+      List<VectorRecord> batch = records.subList(from, Math.min(records.size(), from + insertBatchSize));
+
+      List<String> ids = new ArrayList<>(batch.size());
+      List<List<Float>> vectors = new ArrayList<>(batch.size());
+      List<String> docIds = new ArrayList<>(batch.size());
+      List<String> titles = new ArrayList<>(batch.size());
+      List<String> sources = new ArrayList<>(batch.size());
+      List<Long> chunkIdxs = new ArrayList<>(batch.size());
+      List<String> texts = new ArrayList<>(batch.size());
+
+      for (VectorRecord record : batch) {
+        if (record.vector().length != vectorDim) {
+          throw new IllegalArgumentException("Embedding dim mismatch. Expected " + vectorDim + " got " + record.vector().length);
+        }
+        Chunk c = record.payload();
+        ids.add(record.id());
+        vectors.add(toFloatList(record.vector())); // the SDK only takes List<Float> for float vectors
+        docIds.add(c.documentId());
+        titles.add(c.documentTitle());
+        sources.add(c.source());
+        chunkIdxs.add((long) c.chunkIndex());
+        texts.add(c.text());
+      }
+
+      List<InsertParam.Field> fields = List.of(
+          new InsertParam.Field(F_ID, ids),
+          new InsertParam.Field(F_VECTOR, vectors),
+          new InsertParam.Field(F_DOC_ID, docIds),
+          new InsertParam.Field(F_TITLE, titles),
+          new InsertParam.Field(F_SOURCE, sources),
+          new InsertParam.Field(F_CHUNK_INDEX, chunkIdxs),
+          new InsertParam.Field(F_TEXT, texts)
+      );
+
+      R<?> res = metrics.time("milvus_upsert", "milvus", () -> rpc(() -> client.upsert(
+          UpsertParam.newBuilder()
+              .withCollectionName(collection)
+              .withFields(fields)
+              .build()
+      )));
+
+      if (res.getStatus() != 0) {
+        throw new RuntimeException("Milvus upsert failed: " + res.getMessage());
+      }
+      dirty.set(true);
+    }
+  }
+
+  /** Deletes by primary key, {@code milvus.insertBatchSize} ids per {@code id in [...]} expression. */
+  @Override
+  public void delete(Collection<String> ids) {
+    List<String> all = new ArrayList<>(ids);
+    for (int from = 0; from < all.size(); from += insertBatchSize) {
+      StringBuilder expr = new StringBuilder(F_ID).append(" in [");
+      for (int i = from; i < Math.min(all.size(), from + insertBatchSize); i++) {
+        if (i > from) expr.append(',');
+        expr.append(quote(all.get(i)));
+      }
+      expr.append(']');
+
+      R<?> res = metrics.time("milvus_delete", "milvus", () -> rpc(() -> client.delete(
+          DeleteParam.newBuilder()
+              .withCollectionName(collection)
+              .withExpr(expr.toString())
+              .build()
+      )));
+      if (res.getStatus() != 0) {
+        throw new RuntimeException("Milvus delete failed: " + res.getMessage());
+      }
+      dirty.set(true);
+    }
+  }
 
+  /** Seals pending rows; called once per ingest job and on the {@code milvus.flushIntervalMs} timer. */
+  @Override
+  public void flush() {
+    if (!dirty.getAndSet(false)) return;
+    R<?> res = metrics.time("milvus_flush", "milvus",
+        () -> rpc(() -> client.flush(FlushParam.newBuilder().withCollectionNames(List.of(collection)).build())));
     if (res.getStatus() != 0) {
-      throw new RuntimeException("Milvus insert failed: " + res.getMessage());
+      dirty.set(true);
+      throw new RuntimeException("Milvus flush failed: " + res.getMessage());
     }
+  }
+
+  @PreDestroy
+  public void close() {
+    if (flusher != null) flusher.shutdown();
+    flush();
+  }
+
+  @Override
+  public List<ScoredRecord> search(float[] queryVector, int topK) {
+    return searchBatch(List.of(queryVector), topK).get(0);
+  }
 
-    // Ensure data is searchable
-    client.flush(FlushParam.newBuilder().withCollectionNames(List.of(collection)).build());
+  /** The filter becomes the search's boolean expr, so Milvus filters before ranking. */
+  @Override
+  public List<ScoredRecord> search(float[] queryVector, int topK, SearchFilter filter) {
+    return searchBatch(List.of(queryVector), topK, filter).get(0);
   }
 
   @Override
-  public List<ScoredRecord> search(List<Double> queryVector, int topK) {
-    if (queryVector.size() != vectorDim) {
-      throw new IllegalArgumentException("Query embedding dim mismatch. Expected " + vectorDim + " got " + queryVector.size());
+  public List<List<ScoredRecord>> searchBatch(List<float[]> queryVectors, int topK) {
+    return searchBatch(queryVectors, topK, null);
+  }
+
+  /** All queries go out in a single multi-vector search RPC; results come back per query index. */
+  public List<List<ScoredRecord>> searchBatch(List<float[]> queryVectors, int topK, SearchFilter filter) {
+    if (queryVectors.isEmpty()) return List.of();
+    List<List<Float>> q = new ArrayList<>(queryVectors.size());
+    for (float[] v : queryVectors) {
+      if (v.length != vectorDim) {
+        throw new IllegalArgumentException("Query embedding dim mismatch. Expected " + vectorDim + " got " + v.length);
+      }
+      q.add(toFloatList(v));
     }
-    List<Float> q = queryVector.stream().map(Double::floatValue).toList();
 
-    // Load collection into memory (needed for search)
-    client.loadCollection(LoadCollectionParam.newBuilder().withCollectionName(collection).build());
+    // Loaded once and cached; steady-state searches are a single RPC
+    ensureLoaded();
 
     // Return fields (payload)
     List<String> outFields = List.of(F_ID, F_DOC_ID, F_TITLE, F_SOURCE, F_CHUNK_INDEX, F_TEXT);
@@ -116,32 +266,70 @@ public class MilvusVectorStore implements VectorStore {
     // We'll use HNSW here (fast & good).
     String searchParamsJson = "{\"ef\":64}";
 
-    SearchParam searchParam = SearchParam.newBuilder()
+    SearchParam.Builder builder = SearchParam.newBuilder()
         .withCollectionName(collection)
         .withMetricType(metricType)
         .withVectorFieldName(F_VECTOR)
         .withTopK(topK)
-        .withVectors(List.of(q))
+        .withVectors(q)
         .withParams(searchParamsJson)
-        .withOutFields(outFields)
-        .build();
+        .withOutFields(outFields);
+    if (!SearchFilter.isEmpty(filter)) builder.withExpr(expr(filter));
+    SearchParam searchParam = builder.build();
 
-    var res = client.search(searchParam);
+    var res = rpc(() -> client.search(searchParam));
     if (res.getStatus() != 0) {
-      throw new RuntimeException("Milvus search failed: " + res.getMessage());
+      // the collection may have been released, dropped or recreated behind our back:
+      // re-check its state once and retry before giving up
+      log.warn("milvus_search_failed collection={} status={} msg={}; refreshing load state",
+          collection, res.getStatus(), res.getMessage());
+      loaded = false;
+      ensureCollectionAndIndex();
+      ensureLoaded();
+      res = rpc(() -> client.search(searchParam));
+      if (res.getStatus() != 0) {
+        throw new RuntimeException("Milvus search failed: " + res.getMessage());
+      }
     }
 
     SearchResultsWrapper wrapper = new SearchResultsWrapper(res.getData().getResults());
+    List<List<ScoredRecord>> results = new ArrayList<>(q.size());
+    for (int qi = 0; qi < q.size(); qi++) results.add(toScoredRecords(wrapper, qi));
+    return results;
+  }
 
-    // Single query vector -> results at index 0
-    List<SearchResultsWrapper.IDScore> idScores = wrapper.getIDScore(0);
+  /** e.g. {@code source in ["wiki"] && documentId in ["a","b"]}; a source term prunes partitions. */
+  static String expr(SearchFilter filter) {
+    List<String> terms = new ArrayList<>(3);
+    if (!filter.sources().isEmpty()) terms.add(in(F_SOURCE, filter.sources()));
+    if (!filter.documentIds().isEmpty()) terms.add(in(F_DOC_ID, filter.documentIds()));
+    if (!filter.documentTitles().isEmpty()) terms.add(in(F_TITLE, filter.documentTitles()));
+    return String.join(" && ", terms);
+  }
+
+  private static String in(String field, Collection<String> values) {
+    StringBuilder sb = new StringBuilder(field).append(" in [");
+    int i = 0;
+    for (String v : values) {
+      if (i++ > 0) sb.append(',');
+      sb.append(quote(v));
+    }
+    return sb.append(']').toString();
+  }
+
+  private static String quote(String v) {
+    return '"' + v.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+  }
+
+  private static List<ScoredRecord> toScoredRecords(SearchResultsWrapper wrapper, int qi) {
+    List<SearchResultsWrapper.IDScore> idScores = wrapper.getIDScore(qi);
 
     // Extract payload fields
-    List<?> docIds = wrapper.getFieldData(F_DOC_ID, 0);
-    List<?> titles = wrapper.getFieldData(F_TITLE, 0);
-    List<?> sources = wrapper.getFieldData(F_SOURCE, 0);
-    List<?> chunkIdxs = wrapper.getFieldData(F_CHUNK_INDEX, 0);
-    List<?> texts = wrapper.getFieldData(F_TEXT, 0);
+    List<?> docIds = wrapper.getFieldData(F_DOC_ID, qi);
+    List<?> titles = wrapper.getFieldData(F_TITLE, qi);
+    List<?> sources = wrapper.getFieldData(F_SOURCE, qi);
+    List<?> chunkIdxs = wrapper.getFieldData(F_CHUNK_INDEX, qi);
+    List<?> texts = wrapper.getFieldData(F_TEXT, qi);
 
     List<ScoredRecord> out = new ArrayList<>();
 
@@ -156,7 +344,7 @@ public class MilvusVectorStore implements VectorStore {
       String text = String.valueOf(texts.get(i));
 
       Chunk chunk = new Chunk(id, docId, title, source, chunkIndex, text);
-      VectorRecord rec = new VectorRecord(id, List.of(), chunk);
+      VectorRecord rec = new VectorRecord(id, new float[0], chunk);
 
       out.add(new ScoredRecord(rec, score));
     }
@@ -164,6 +352,32 @@ public class MilvusVectorStore implements VectorStore {
     return out;
   }
 
+  /**
+   * Runs one blocking RPC under the bulkhead. Waiting uses a Semaphore rather than a monitor, so
+   * a virtual thread waiting for a permit unmounts instead of pinning its carrier.
+   */
+  private <T> R<T> rpc(Supplier<R<T>> call) {
+    try {
+      if (!rpcPermits.tryAcquire(rpcAcquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+        throw new RuntimeException("Milvus busy: no RPC permit within " + rpcAcquireTimeoutMs + " ms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted waiting for a Milvus RPC permit", e);
+    }
+    try {
+      return call.get();
+    } finally {
+      rpcPermits.release();
+    }
+  }
+
+  private static List<Float> toFloatList(float[] v) {
+    List<Float> out = new ArrayList<>(v.length);
+    for (float f : v) out.add(f);
+    return out;
+  }
+
   // -------------------- Setup --------------------
 
   private void ensureCollectionAndIndex() {
@@ -175,7 +389,7 @@ public class MilvusVectorStore implements VectorStore {
       throw new RuntimeException("Milvus hasCollection failed: " + has.getMessage());
     }
     if (Boolean.TRUE.equals(has.getData())) {
-      return; // assume schema already correct for Day-3 demo
+      return; // assume schema already correct for Day-3 demo; the source partition key only applies to new collections
     }
 
     // Create schema
@@ -197,17 +411,20 @@ public class MilvusVectorStore implements VectorStore {
 
     fields.add(FieldType.newBuilder().withName(F_DOC_ID).withDataType(DataType.VarChar).withMaxLength(256).build());
     fields.add(FieldType.newBuilder().withName(F_TITLE).withDataType(DataType.VarChar).withMaxLength(512).build());
-    fields.add(FieldType.newBuilder().withName(F_SOURCE).withDataType(DataType.VarChar).withMaxLength(256).build());
+    // partition key: rows are hashed into partitions by source, and searches filtered on source
+    // only visit the matching partitions
+    fields.add(FieldType.newBuilder().withName(F_SOURCE).withDataType(DataType.VarChar).withMaxLength(256)
+        .withPartitionKey(sourcePartitions > 0).build());
     fields.add(FieldType.newBuilder().withName(F_CHUNK_INDEX).withDataType(DataType.Int64).build());
     fields.add(FieldType.newBuilder().withName(F_TEXT).withDataType(DataType.VarChar).withMaxLength(65535).build());
 
-    CreateCollectionParam create = CreateCollectionParam.newBuilder()
+    CreateCollectionParam.Builder create = CreateCollectionParam.newBuilder()
         .withCollectionName(collection)
         .withShardsNum(2)
-        .withFieldTypes(fields)
-        .build();
+        .withFieldTypes(fields);
+    if (sourcePartitions > 0) create.withPartitionsNum(sourcePartitions);
 
-    R<?> createRes = client.createCollection(create);
+    R<?> createRes = client.createCollection(create.build());
     if (createRes.getStatus() != 0) {
       throw new RuntimeException("Milvus createCollection failed: " + createRes.getMessage());
     }
@@ -229,8 +446,51 @@ public class MilvusVectorStore implements VectorStore {
       throw new RuntimeException("Milvus createIndex failed: " + idxRes.getMessage());
     }
 
-    // Load (optional here; search() will load too)
-    client.loadCollection(LoadCollectionParam.newBuilder().withCollectionName(collection).build());
+  }
+
+  /** Includes the collection's id, which Milvus assigns anew whenever the collection is recreated. */
+  @Override
+  public String storeId() {
+    return storeId;
+  }
+
+  private long collectionId() {
+    R<DescribeCollectionResponse> res = client.describeCollection(
+        DescribeCollectionParam.newBuilder().withCollectionName(collection).build());
+    if (res.getStatus() != 0) {
+      throw new RuntimeException("Milvus describeCollection failed: " + res.getMessage());
+    }
+    return res.getData().getCollectionID();
+  }
+
+  /** True once the collection is known to be loaded; searches before that pay for the load. */
+  @Override
+  public boolean isReady() {
+    return loaded;
+  }
+
+  private void ensureLoaded() {
+    if (loaded) return;
+    loadLock.lock();
+    try {
+      if (loaded) return;
+      R<GetLoadStateResponse> state = client.getLoadState(
+          GetLoadStateParam.newBuilder().withCollectionName(collection).build());
+      if (state.getStatus() != 0) {
+        throw new RuntimeException("Milvus getLoadState failed: " + state.getMessage());
+      }
+      if (state.getData().getState() != LoadState.LoadStateLoaded) {
+        // sync load: returns once the collection is queryable
+        R<?> res = client.loadCollection(LoadCollectionParam.newBuilder().withCollectionName(collection).build());
+        if (res.getStatus() != 0) {
+          throw new RuntimeException("Milvus loadCollection failed: " + res.getMessage());
+        }
+      }
+      loaded = true;
+      log.info("milvus_collection_loaded collection={}", collection);
+    } finally {
+      loadLock.unlock();
+    }
   }
 
 }
@@ -0,0 +1,68 @@
+package com.venkat.rag.store;
+
+import java.util.Locale;
+
+/**
+ * Compact vector codes used for the first pass of a quantized search.
+ *
+ * INT8: symmetric per-vector scalar quantization, code = round(v / scale) with scale = max|v| / 127.
+ * BINARY: one sign bit per dimension packed into longs; similarity is estimated from the Hamming
+ * distance (popcount of the XOR).
+ *
+ * Both are only used to pick an oversampled candidate set, which is then re-scored with exact cosine.
+ */
+final class Quantization {
+
+  enum Mode {
+    NONE, INT8, BINARY;
+
+    static Mode parse(String s) { return valueOf(s.trim().toUpperCase(Locale.ROOT)); }
+  }
+
+  private Quantization() {}
+
+  static int words(int dim) { return (dim + 63) >>> 6; }
+
+  /** Writes dim int8 codes for v[off..off+dim) into dst at dstOff and returns the scale. */
+  static float encodeInt8(float[] v, int off, int dim, byte[] dst, int dstOff) {
+    float max = 0f;
+    for (int i = 0; i < dim; i++) max = Math.max(max, Math.abs(v[off + i]));
+    if (max == 0f) return 0f;
+    float scale = max / 127f;
+    float inv = 1f / scale;
+    for (int i = 0; i < dim; i++) dst[dstOff + i] = (byte) Math.round(v[off + i] * inv);
+    return scale;
+  }
+
+  static int dotInt8(byte[] a, int aOff, byte[] b, int bOff, int len) {
+    int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    int bound = len & ~3;
+    for (; i < bound; i += 4) {
+      s0 += a[aOff + i] * b[bOff + i];
+      s1 += a[aOff + i + 1] * b[bOff + i + 1];
+      s2 += a[aOff + i + 2] * b[bOff + i + 2];
+      s3 += a[aOff + i + 3] * b[bOff + i + 3];
+    }
+    for (; i < len; i++) s0 += a[aOff + i] * b[bOff + i];
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /** Writes words(dim) longs of sign bits for v[off..off+dim) into dst at dstOff. */
+  static void encodeBits(float[] v, int off, int dim, long[] dst, int dstOff) {
+    int words = words(dim);
+    for (int w = 0; w < words; w++) {
+      long bits = 0;
+      int base = w << 6;
+      int n = Math.min(64, dim - base);
+      for (int j = 0; j < n; j++) if (v[off + base + j] > 0f) bits |= 1L << j;
+      dst[dstOff + w] = bits;
+    }
+  }
+
+  static int hamming(long[] a, int aOff, long[] b, int bOff, int words) {
+    int d = 0;
+    for (int w = 0; w < words; w++) d += Long.bitCount(a[aOff + w] ^ b[bOff + w]);
+    return d;
+  }
+}
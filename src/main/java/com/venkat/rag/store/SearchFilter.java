@@ -0,0 +1,34 @@
+package com.venkat.rag.store;
+
+import com.venkat.rag.model.Chunk;
+
+import java.util.Set;
+
+/**
+ * Restricts a search to chunks whose payload matches: a chunk passes if, for every non-empty
+ * set, its field is one of the set's values. Null or empty sets do not constrain.
+ */
+public record SearchFilter(Set<String> documentIds, Set<String> sources, Set<String> documentTitles) {
+  public static final SearchFilter NONE = new SearchFilter(Set.of(), Set.of(), Set.of());
+
+  public SearchFilter {
+    documentIds = documentIds == null ? Set.of() : Set.copyOf(documentIds);
+    sources = sources == null ? Set.of() : Set.copyOf(sources);
+    documentTitles = documentTitles == null ? Set.of() : Set.copyOf(documentTitles);
+  }
+
+  public static boolean isEmpty(SearchFilter filter) {
+    return filter == null
+        || filter.documentIds.isEmpty() && filter.sources.isEmpty() && filter.documentTitles.isEmpty();
+  }
+
+  /** A null field only passes an empty set. */
+  public boolean matches(Chunk c) {
+    return allows(documentIds, c.documentId()) && allows(sources, c.source()) && allows(documentTitles, c.documentTitle());
+  }
+
+  // Set.copyOf sets throw on contains(null)
+  private static boolean allows(Set<String> values, String field) {
+    return values.isEmpty() || field != null && values.contains(field);
+  }
+}
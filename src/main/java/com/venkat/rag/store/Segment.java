@@ -0,0 +1,315 @@
+package com.venkat.rag.store;
+
+import com.venkat.rag.model.Chunk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Immutable, memory-mapped segment file written by {@link SegmentVectorStore}.
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   header   64 bytes: magic, version, dim, count, section offsets, header crc
+ *   vectors  count * dim float32, 64-byte aligned
+ *   norms    count float32 (inverse L2 norms)
+ *   index    count * (int64 idHash, int32 row), sorted by hash
+ *   table    (count + 1) int64 offsets into the payload section
+ *   payload  per row: id, documentId, documentTitle, source (int32 length + UTF-8), int32 chunkIndex, text
+ * </pre>
+ * A string length of -1 stores null.
+ * A row whose inverse norm is {@link #TOMBSTONE} records a deleted id: it is never live, but like
+ * any row it hides older rows with the same id in older segments.
+ * Nothing is copied onto the heap when a segment is opened apart from a dead-row bitmap; the OS
+ * page cache backs the vectors.
+ */
+final class Segment {
+  static final int MAGIC = 0x52414753; // "RAGS"
+  static final int VERSION = 1;
+  static final float TOMBSTONE = -1f;
+  private static final int HEADER_BYTES = 64;
+  private static final int INDEX_ENTRY_BYTES = 12;
+
+  final Path path;
+  final int dim;
+  final int count;
+  /** Tombstones and rows superseded by a newer segment or the memtable; never persisted, rebuilt on open. */
+  final BitSet dead;
+
+  private final MappedByteBuffer buf;
+  private final FloatBuffer vectors;
+  private final FloatBuffer norms;
+  private final long indexOff;
+  private final long tableOff;
+
+  private Segment(Path path, MappedByteBuffer buf) throws IOException {
+    this.path = path;
+    this.buf = buf;
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+    if (buf.capacity() < HEADER_BYTES || buf.getInt(0) != MAGIC) throw new IOException("Not a segment file: " + path);
+    if (buf.getInt(4) != VERSION) throw new IOException("Unsupported segment version " + buf.getInt(4) + ": " + path);
+    if (buf.getLong(56) != headerCrc(buf)) throw new IOException("Corrupt segment header: " + path);
+
+    this.dim = buf.getInt(8);
+    this.count = buf.getInt(12);
+    long vectorsOff = buf.getLong(16);
+    long normsOff = buf.getLong(24);
+    this.indexOff = buf.getLong(32);
+    this.tableOff = buf.getLong(40);
+    this.vectors = slice(buf, vectorsOff, (long) count * dim * 4).asFloatBuffer();
+    this.norms = slice(buf, normsOff, (long) count * 4).asFloatBuffer();
+    this.dead = new BitSet(count);
+    for (int r = 0; r < count; r++) if (isTombstone(r)) dead.set(r);
+  }
+
+  static Segment open(Path path) throws IOException {
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (ch.size() > Integer.MAX_VALUE) throw new IOException("Segment larger than 2 GiB: " + path);
+      return new Segment(path, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+    }
+  }
+
+  long sizeBytes() { return buf.capacity(); }
+
+  boolean isLive(int row) { return !dead.get(row); }
+
+  boolean isTombstone(int row) { return norms.get(row) == TOMBSTONE; }
+
+  float invNorm(int row) { return norms.get(row); }
+
+  /** Copies a row into dst so the array dot-product kernel can be used. */
+  void readVector(int row, float[] dst) { vectors.get(row * dim, dst, 0, dim); }
+
+  String id(int row) {
+    int p = (int) payloadStart(row);
+    return readString(p);
+  }
+
+  Chunk payload(int row) {
+    int[] p = {(int) payloadStart(row)};
+    String id = next(p);
+    String documentId = next(p);
+    String title = next(p);
+    String source = next(p);
+    int chunkIndex = buf.getInt(p[0]);
+    p[0] += 4;
+    String text = next(p);
+    return new Chunk(id, documentId, title, source, chunkIndex, text);
+  }
+
+  /** Row for id via the hash index, or -1. */
+  int find(String id) {
+    long h = hash(id);
+    int lo = 0, hi = count - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      long mh = indexHash(mid);
+      if (mh < h) lo = mid + 1;
+      else if (mh > h) hi = mid - 1;
+      else {
+        // walk the (rare) run of equal hashes in both directions
+        for (int i = mid; i >= 0 && indexHash(i) == h; i--) if (id.equals(id(indexRow(i)))) return indexRow(i);
+        for (int i = mid + 1; i < count && indexHash(i) == h; i++) if (id.equals(id(indexRow(i)))) return indexRow(i);
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  long indexHash(int i) { return buf.getLong((int) (indexOff + (long) i * INDEX_ENTRY_BYTES)); }
+
+  int indexRow(int i) { return buf.getInt((int) (indexOff + (long) i * INDEX_ENTRY_BYTES + 8)); }
+
+  // -------------------- Writing --------------------
+
+  /** One row to be written; vectors are raw (not normalized). Tombstones have no payload. */
+  record Row(String id, float[] vector, float invNorm, Chunk payload) {
+    static Row tombstone(String id, int dim) {
+      return new Row(id, new float[dim], TOMBSTONE, null);
+    }
+  }
+
+  /**
+   * Writes {@code count} rows, asked for in order from {@code rows}, to {@code path} and fsyncs
+   * it. Sections are streamed through small buffers at their final offsets; the heap holds only
+   * a hash, payload offset and sort slot per row. Callers write to a temp name and rename, so a
+   * crash never leaves a partially written file under a committed name.
+   */
+  static void write(Path path, int dim, int count, IntFunction<Row> rows) throws IOException {
+    long vectorsOff = HEADER_BYTES;
+    long normsOff = vectorsOff + (long) count * dim * 4;
+    long indexOff = align8(normsOff + (long) count * 4);
+    long tableOff = indexOff + (long) count * INDEX_ENTRY_BYTES;
+    long payloadOff = tableOff + (long) (count + 1) * 8;
+
+    long[] hashes = new long[count];
+    long[] table = new long[count + 1];
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE)) {
+      Writer vec = new Writer(ch, vectorsOff);
+      Writer nrm = new Writer(ch, normsOff);
+      Writer pay = new Writer(ch, payloadOff);
+      for (int i = 0; i < count; i++) {
+        Row r = rows.apply(i);
+        if (r.vector().length != dim) throw new IllegalArgumentException("Embedding dim mismatch in segment row " + r.id());
+        for (float f : r.vector()) vec.putFloat(f);
+        nrm.putFloat(r.invNorm());
+        hashes[i] = hash(r.id());
+        table[i] = pay.position();
+        writePayload(pay, r);
+        if (pay.position() > Integer.MAX_VALUE) throw new IOException("Segment would exceed 2 GiB");
+      }
+      table[count] = pay.position();
+      vec.flush();
+      nrm.flush();
+      pay.flush();
+
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++) order[i] = i;
+      Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+      Writer idx = new Writer(ch, indexOff);
+      for (int row : order) idx.putLong(hashes[row]).putInt(row);
+      idx.flush();
+      Writer tbl = new Writer(ch, tableOff);
+      for (long off : table) tbl.putLong(off);
+      tbl.flush();
+
+      // header last: it describes sections that are now fully written
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, dim).putInt(12, count)
+          .putLong(16, vectorsOff).putLong(24, normsOff).putLong(32, indexOff).putLong(40, tableOff).putLong(48, payloadOff);
+      header.putLong(56, headerCrc(header));
+      Writer.writeFully(ch, header, 0);
+      ch.force(true);
+    }
+  }
+
+  /** Little-endian buffered writer at an absolute file offset. */
+  private static final class Writer {
+    private final FileChannel ch;
+    private final ByteBuffer buf = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private long flushedTo;
+
+    Writer(FileChannel ch, long offset) {
+      this.ch = ch;
+      this.flushedTo = offset;
+    }
+
+    long position() { return flushedTo + buf.position(); }
+
+    Writer putInt(int v) throws IOException {
+      ensure(4);
+      buf.putInt(v);
+      return this;
+    }
+
+    Writer putLong(long v) throws IOException {
+      ensure(8);
+      buf.putLong(v);
+      return this;
+    }
+
+    void putFloat(float v) throws IOException {
+      ensure(4);
+      buf.putFloat(v);
+    }
+
+    /** int32 length (-1 for null) + UTF-8. */
+    void putString(String s) throws IOException {
+      if (s == null) {
+        putInt(-1);
+        return;
+      }
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
+      putInt(b.length);
+      for (int off = 0; off < b.length; ) {
+        ensure(1);
+        int n = Math.min(buf.remaining(), b.length - off);
+        buf.put(b, off, n);
+        off += n;
+      }
+    }
+
+    void flush() throws IOException {
+      buf.flip();
+      flushedTo += writeFully(ch, buf, flushedTo);
+      buf.clear();
+    }
+
+    private void ensure(int bytes) throws IOException {
+      if (buf.remaining() < bytes) flush();
+    }
+
+    static int writeFully(FileChannel ch, ByteBuffer b, long position) throws IOException {
+      int n = 0;
+      while (b.hasRemaining()) n += ch.write(b, position + n);
+      return n;
+    }
+  }
+
+  static long hash(String id) {
+    // FNV-1a 64 over UTF-16 units; only used to order/lookup the index, ids are compared on match
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < id.length(); i++) {
+      h ^= id.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  // -------------------- Helpers --------------------
+
+  private long payloadStart(int row) { return buf.getLong((int) (tableOff + (long) row * 8)); }
+
+  private String next(int[] pos) {
+    int len = buf.getInt(pos[0]);
+    if (len < 0) {
+      pos[0] += 4;
+      return null;
+    }
+    String s = decode(pos[0] + 4, len);
+    pos[0] += 4 + len;
+    return s;
+  }
+
+  private String readString(int pos) { return decode(pos + 4, buf.getInt(pos)); }
+
+  private String decode(int pos, int len) {
+    byte[] b = new byte[len];
+    buf.get(pos, b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  private static void writePayload(Writer w, Row r) throws IOException {
+    Chunk c = r.payload() != null ? r.payload() : new Chunk(r.id(), null, null, null, -1, null);
+    w.putString(r.id());
+    w.putString(c.documentId());
+    w.putString(c.documentTitle());
+    w.putString(c.source());
+    w.putInt(c.chunkIndex());
+    w.putString(c.text());
+  }
+
+  private static ByteBuffer slice(ByteBuffer b, long off, long len) {
+    return b.slice((int) off, (int) len).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static long align8(long v) { return (v + 7) & ~7L; }
+
+  private static long headerCrc(ByteBuffer b) {
+    CRC32 crc = new CRC32();
+    crc.update(b.slice(0, 56));
+    return crc.getValue();
+  }
+}
@@ -0,0 +1,497 @@
+package com.venkat.rag.store;
+
+import com.venkat.rag.model.VectorRecord;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+
+/**
+ * Persistent brute-force store: an in-heap memtable in front of immutable, memory-mapped
+ * {@link Segment} files.
+ *
+ * Commits are crash-safe: a segment is written to a temp file, fsynced and renamed, and only
+ * becomes part of the store once the MANIFEST listing it has been atomically replaced. Files not
+ * named by the MANIFEST are leftovers of an interrupted flush/merge and are deleted on open.
+ * Rows still in the memtable when the process dies are lost; {@code segmentstore.flushIntervalMs}
+ * bounds that window. Deletes are written as tombstone rows, so they commit and merge like upserts.
+ *
+ * Lazy so the data directory is only touched when {@code rag.vectorStore=segment}.
+ */
+@Lazy
+@Component
+public class SegmentVectorStore implements VectorStore {
+  private static final Logger log = LoggerFactory.getLogger(SegmentVectorStore.class);
+  private static final String MANIFEST = "MANIFEST";
+  private static final String MANIFEST_HEADER = "rag-segments 1";
+  private static final String STORE_ID = "STORE_ID";
+
+  private final Path dir;
+  private final int flushRows;
+  private final int maxSegments;
+  private final long maxSegmentBytes;
+  private String storeId;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  /** Serializes flush and merge, the only writers of the segment list and MANIFEST. */
+  private final ReentrantLock commitLock = new ReentrantLock();
+  private final ScheduledExecutorService scheduler;
+
+  // guarded by lock
+  private List<Segment> segments = List.of(); // oldest -> newest
+  private Memtable active = new Memtable();
+  private Memtable flushing; // being written; still searchable
+  private long nextGen = 1;
+  private int dim = -1;
+
+  public SegmentVectorStore(
+      @Value("${segmentstore.dir:./data/vectors}") String dir,
+      @Value("${segmentstore.flushRows:4096}") int flushRows,
+      @Value("${segmentstore.flushIntervalMs:5000}") long flushIntervalMs,
+      @Value("${segmentstore.maxSegments:8}") int maxSegments,
+      @Value("${segmentstore.maxSegmentBytes:268435456}") long maxSegmentBytes) throws IOException {
+    this.dir = Paths.get(dir);
+    this.flushRows = flushRows;
+    this.maxSegments = Math.max(1, maxSegments);
+    this.maxSegmentBytes = Math.min(maxSegmentBytes, Integer.MAX_VALUE);
+    Files.createDirectories(this.dir);
+    open();
+
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "segment-store-maintenance");
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleWithFixedDelay(this::maintain, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /** Memtable rows plus per-row dead and tombstone flags; ids map to their latest row. */
+  private static final class Memtable {
+    final List<Segment.Row> rows = new ArrayList<>();
+    final Map<String, Integer> index = new HashMap<>();
+    final BitSet dead = new BitSet();
+    final BitSet tombstones = new BitSet(); // dead, but still written out
+
+    boolean isEmpty() { return index.isEmpty(); }
+
+    int live() { return rows.size() - dead.cardinality(); }
+  }
+
+  @Override
+  public void upsert(VectorRecord record) {
+    float[] v = record.vector();
+    boolean flushNow;
+    lock.writeLock().lock();
+    try {
+      if (dim < 0) dim = v.length;
+      if (v.length != dim) throw new IllegalArgumentException("Embedding dim mismatch. Expected " + dim + " got " + v.length);
+
+      hide(record.id());
+      active.index.put(record.id(), active.rows.size());
+      active.rows.add(new Segment.Row(record.id(), v.clone(), VectorMath.inverseNorm(v, 0, v.length), record.payload()));
+      flushNow = active.rows.size() >= flushRows;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    if (flushNow) scheduler.execute(this::maintain);
+  }
+
+  @Override
+  public void delete(Collection<String> ids) {
+    lock.writeLock().lock();
+    try {
+      if (dim < 0) return;
+      for (String id : ids) {
+        if (!hide(id)) continue;
+        int r = active.rows.size();
+        active.rows.add(Segment.Row.tombstone(id, dim));
+        active.index.put(id, r);
+        active.dead.set(r);
+        active.tombstones.set(r);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public List<ScoredRecord> search(float[] queryVector, int topK) {
+    return search(queryVector, topK, null);
+  }
+
+  /** A random id written into the directory when it is first opened; it goes when the data does. */
+  @Override
+  public String storeId() {
+    return storeId;
+  }
+
+  /** Filters inside the scan: a row's payload is only decoded when a filter is given. */
+  @Override
+  public List<ScoredRecord> search(float[] queryVector, int topK, SearchFilter filter) {
+    if (topK <= 0) return List.of();
+    SearchFilter f = SearchFilter.isEmpty(filter) ? null : filter;
+    lock.readLock().lock();
+    try {
+      if (dim < 0) return List.of();
+      if (queryVector.length != dim) throw new IllegalArgumentException("Vector size mismatch");
+      topK = Math.min(topK, size()); // the heap is sized by it
+      if (topK == 0) return List.of();
+      float qInv = VectorMath.inverseNorm(queryVector, 0, dim);
+
+      // global row number = base of its source + local row; sources are segments, then memtables
+      List<Object> sources = new ArrayList<>(segments);
+      if (flushing != null) sources.add(flushing);
+      sources.add(active);
+      int[] base = new int[sources.size() + 1];
+
+      TopK top = new TopK(topK);
+      float[] scratch = new float[dim];
+      for (int s = 0; s < sources.size(); s++) {
+        Object src = sources.get(s);
+        if (src instanceof Segment seg) {
+          for (int r = 0; r < seg.count; r++) {
+            if (!seg.isLive(r)) continue;
+            if (f != null && !f.matches(seg.payload(r))) continue;
+            seg.readVector(r, scratch);
+            top.offer(base[s] + r, VectorMath.dot(queryVector, 0, scratch, 0, dim) * qInv * seg.invNorm(r));
+          }
+          base[s + 1] = base[s] + seg.count;
+        } else {
+          Memtable m = (Memtable) src;
+          for (int r = 0; r < m.rows.size(); r++) {
+            if (m.dead.get(r)) continue;
+            Segment.Row row = m.rows.get(r);
+            if (f != null && !f.matches(row.payload())) continue;
+            top.offer(base[s] + r, VectorMath.dot(queryVector, 0, row.vector(), 0, dim) * qInv * row.invNorm());
+          }
+          base[s + 1] = base[s] + m.rows.size();
+        }
+      }
+
+      float[] scores = new float[top.size()];
+      int[] rows = top.drainRows(scores);
+      List<ScoredRecord> out = new ArrayList<>(rows.length);
+      for (int i = 0; i < rows.length; i++) {
+        int s = 0;
+        while (rows[i] >= base[s + 1]) s++;
+        int local = rows[i] - base[s];
+        VectorRecord rec;
+        if (sources.get(s) instanceof Segment seg) {
+          float[] vec = new float[dim];
+          seg.readVector(local, vec);
+          rec = new VectorRecord(seg.id(local), vec, seg.payload(local));
+        } else {
+          Segment.Row row = ((Memtable) sources.get(s)).rows.get(local);
+          rec = new VectorRecord(row.id(), row.vector().clone(), row.payload());
+        }
+        out.add(new ScoredRecord(rec, scores[i]));
+      }
+      return out;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Writes the memtable out as a new segment and commits it. */
+  @Override
+  public void flush() {
+    commitLock.lock();
+    try {
+      Memtable toWrite;
+      long gen;
+      lock.writeLock().lock();
+      try {
+        if (flushing == null) {
+          if (active.isEmpty()) return;
+          flushing = active;
+          active = new Memtable();
+        }
+        toWrite = flushing;
+        gen = nextGen++;
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      List<Segment.Row> rows = new ArrayList<>();
+      int[] segRowOf = new int[toWrite.rows.size()];
+      lock.readLock().lock();
+      try {
+        for (int r = 0; r < toWrite.rows.size(); r++) {
+          segRowOf[r] = toWrite.dead.get(r) && !toWrite.tombstones.get(r) ? -1 : rows.size();
+          if (segRowOf[r] >= 0) rows.add(toWrite.rows.get(r));
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      Segment seg = writeSegment(gen, rows);
+      List<Segment> next = new ArrayList<>(segments);
+      next.add(seg);
+      writeManifest(next, gen + 1);
+
+      lock.writeLock().lock();
+      try {
+        // rows superseded while the file was being written
+        for (int r = toWrite.dead.nextSetBit(0); r >= 0; r = toWrite.dead.nextSetBit(r + 1)) {
+          if (segRowOf[r] >= 0) seg.dead.set(segRowOf[r]);
+        }
+        segments = List.copyOf(next);
+        flushing = null;
+      } finally {
+        lock.writeLock().unlock();
+      }
+      log.info("segment_flush file={} rows={}", seg.path.getFileName(), rows.size());
+    } catch (IOException e) {
+      // 'flushing' stays searchable and is retried on the next flush
+      throw new UncheckedIOException(e);
+    } finally {
+      commitLock.unlock();
+    }
+  }
+
+  /**
+   * Merges the newest run of segments (bounded by {@code segmentstore.maxSegmentBytes}) into one
+   * once there are more than {@code segmentstore.maxSegments}. A row is dropped only when a newer
+   * segment in the run has its id: a row hidden just by a memtable upsert or delete is still the
+   * newest copy on disk, so it is kept (and stays hidden) until that memtable row is durable.
+   * Rows are streamed from the mapped inputs into the output file.
+   */
+  public void mergeIfNeeded() {
+    commitLock.lock();
+    try {
+      List<Segment> current = segments;
+      if (current.size() <= maxSegments) return;
+
+      int from = current.size();
+      long bytes = 0;
+      while (from > 0 && bytes + current.get(from - 1).sizeBytes() <= maxSegmentBytes) {
+        bytes += current.get(--from).sizeBytes();
+      }
+      if (current.size() - from < 2) return;
+      List<Segment> range = current.subList(from, current.size());
+
+      List<int[]> origin = new ArrayList<>(); // {index in range, source row}
+      lock.readLock().lock();
+      try {
+        for (int s = 0; s < range.size(); s++) {
+          Segment seg = range.get(s);
+          for (int r = 0; r < seg.count; r++) {
+            if (!seg.isLive(r)) {
+              if (!newestInRange(range, s, seg.id(r))) continue; // superseded on disk
+              // a tombstone is still needed while older segments outside the merge may hold the id
+              if (seg.isTombstone(r) && from == 0) continue;
+            }
+            origin.add(new int[] {s, r});
+          }
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      long gen;
+      lock.writeLock().lock();
+      try {
+        gen = nextGen++;
+      } finally {
+        lock.writeLock().unlock();
+      }
+      Segment merged = writeSegment(gen, origin.size(), i -> {
+        Segment seg = range.get(origin.get(i)[0]);
+        int r = origin.get(i)[1];
+        if (seg.isTombstone(r)) return Segment.Row.tombstone(seg.id(r), seg.dim);
+        float[] vec = new float[seg.dim];
+        seg.readVector(r, vec);
+        return new Segment.Row(seg.id(r), vec, seg.invNorm(r), seg.payload(r));
+      });
+      List<Segment> next = new ArrayList<>(current.subList(0, from));
+      next.add(merged);
+      writeManifest(next, gen + 1);
+
+      lock.writeLock().lock();
+      try {
+        for (int i = 0; i < origin.size(); i++) {
+          int[] o = origin.get(i);
+          if (!range.get(o[0]).isLive(o[1])) merged.dead.set(i);
+        }
+        segments = List.copyOf(next);
+      } finally {
+        lock.writeLock().unlock();
+      }
+      for (Segment old : range) Files.deleteIfExists(old.path);
+      log.info("segment_merge inputs={} output={} rows={}", range.size(), merged.path.getFileName(), origin.size());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      commitLock.unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      int n = active.live();
+      if (flushing != null) n += flushing.live();
+      for (Segment s : segments) n += s.count - s.dead.cardinality();
+      return n;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+
+  // -------------------- Internals --------------------
+
+  private void maintain() {
+    try {
+      flush();
+      mergeIfNeeded();
+    } catch (RuntimeException e) {
+      log.warn("segment_maintenance_failed dir={}", dir, e);
+    }
+  }
+
+  /**
+   * Marks the current live row for id (if any) dead and reports whether there was one. A memtable
+   * tombstone for the id is dropped, since whatever replaces it hides older rows just as well.
+   * Caller holds the write lock.
+   */
+  private boolean hide(String id) {
+    for (Memtable m : flushing == null ? List.of(active) : List.of(active, flushing)) {
+      Integer r = m.index.remove(id);
+      if (r == null) continue;
+      boolean wasLive = !m.dead.get(r);
+      m.dead.set(r);
+      m.tombstones.clear(r);
+      return wasLive;
+    }
+    for (int s = segments.size() - 1; s >= 0; s--) {
+      Segment seg = segments.get(s);
+      int row = seg.find(id);
+      if (row < 0) continue;
+      if (!seg.isLive(row)) return false; // deleted or superseded; older rows are hidden too
+      seg.dead.set(row);
+      return true;
+    }
+    return false;
+  }
+
+  private static boolean newestInRange(List<Segment> range, int s, String id) {
+    for (int t = s + 1; t < range.size(); t++) if (range.get(t).find(id) >= 0) return false;
+    return true;
+  }
+
+  private Segment writeSegment(long gen, List<Segment.Row> rows) throws IOException {
+    return writeSegment(gen, rows.size(), rows::get);
+  }
+
+  private Segment writeSegment(long gen, int count, IntFunction<Segment.Row> rows) throws IOException {
+    String name = String.format("seg-%012d.vec", gen);
+    Path tmp = dir.resolve(name + ".tmp");
+    Path target = dir.resolve(name);
+    Segment.write(tmp, dim, count, rows);
+    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+    syncDir();
+    return Segment.open(target);
+  }
+
+  private void writeManifest(List<Segment> segs, long nextGeneration) throws IOException {
+    StringBuilder sb = new StringBuilder(MANIFEST_HEADER).append('\n').append("nextGen ").append(nextGeneration).append('\n');
+    for (Segment s : segs) sb.append(s.path.getFileName()).append('\n');
+
+    Path tmp = dir.resolve(MANIFEST + ".tmp");
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE)) {
+      ByteBuffer b = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+      while (b.hasRemaining()) ch.write(b);
+      ch.force(true);
+    }
+    Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    syncDir();
+  }
+
+  private void syncDir() {
+    try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+      ch.force(true);
+    } catch (IOException e) {
+      // not supported on every platform (e.g. Windows); the rename itself is still atomic
+    }
+  }
+
+  private void open() throws IOException {
+    long start = System.nanoTime();
+    Path manifest = dir.resolve(MANIFEST);
+    List<String> names = new ArrayList<>();
+    if (Files.exists(manifest)) {
+      List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+      if (lines.isEmpty() || !MANIFEST_HEADER.equals(lines.get(0))) throw new IOException("Bad MANIFEST in " + dir);
+      nextGen = Long.parseLong(lines.get(1).substring("nextGen ".length()).trim());
+      for (String l : lines.subList(2, lines.size())) if (!l.isBlank()) names.add(l.trim());
+    }
+
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      for (Path p : files) {
+        String n = p.getFileName().toString();
+        if (n.startsWith("seg-") && !names.contains(n)) {
+          Files.delete(p); // orphan of an interrupted flush/merge
+        }
+      }
+    }
+
+    List<Segment> opened = new ArrayList<>(names.size());
+    for (String n : names) opened.add(Segment.open(dir.resolve(n)));
+
+    // rebuild dead rows: a row is dead if a newer segment has the same id
+    Set<Long> newerHashes = new HashSet<>();
+    for (int s = opened.size() - 1; s >= 0; s--) {
+      Segment seg = opened.get(s);
+      for (int i = 0; i < seg.count; i++) {
+        if (!newerHashes.contains(seg.indexHash(i))) continue;
+        int row = seg.indexRow(i);
+        String id = seg.id(row);
+        for (int t = s + 1; t < opened.size(); t++) {
+          if (opened.get(t).find(id) >= 0) { seg.dead.set(row); break; }
+        }
+      }
+      for (int i = 0; i < seg.count; i++) newerHashes.add(seg.indexHash(i));
+    }
+
+    Path idFile = dir.resolve(STORE_ID);
+    if (!Files.exists(idFile)) {
+      Path tmp = dir.resolve(STORE_ID + ".tmp");
+      Files.writeString(tmp, "segment-" + UUID.randomUUID(), StandardCharsets.UTF_8);
+      Files.move(tmp, idFile, StandardCopyOption.ATOMIC_MOVE);
+    }
+    storeId = Files.readString(idFile, StandardCharsets.UTF_8).trim();
+
+    segments = List.copyOf(opened);
+    if (!opened.isEmpty()) dim = opened.get(0).dim;
+    log.info("segment_store_open dir={} segments={} liveRows={} ms={}", dir, opened.size(), size(),
+        (System.nanoTime() - start) / 1_000_000);
+  }
+}
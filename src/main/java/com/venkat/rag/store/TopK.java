@@ -0,0 +1,75 @@
+package com.venkat.rag.store;
+
+/**
+ * Fixed-capacity min-heap of (row, score) pairs in primitive arrays.
+ * The root is the weakest of the current top-K, so a candidate is rejected with one compare.
+ */
+final class TopK {
+  private final int k;
+  private final int[] rows;
+  private final float[] scores;
+  private int size;
+
+  TopK(int k) {
+    this.k = k;
+    this.rows = new int[k];
+    this.scores = new float[k];
+  }
+
+  int size() { return size; }
+
+  /** Score a candidate must beat to enter the heap once it is full. */
+  float threshold() { return size < k ? Float.NEGATIVE_INFINITY : scores[0]; }
+
+  void offer(int row, float score) {
+    if (size < k) {
+      rows[size] = row;
+      scores[size] = score;
+      siftUp(size++);
+    } else if (score > scores[0]) {
+      rows[0] = row;
+      scores[0] = score;
+      siftDown(0);
+    }
+  }
+
+  /** Drains into best-first order; the heap is empty afterwards. */
+  int[] drainRows(float[] scoresOut) {
+    int n = size;
+    int[] out = new int[n];
+    for (int i = n - 1; i >= 0; i--) {
+      out[i] = rows[0];
+      scoresOut[i] = scores[0];
+      size--;
+      rows[0] = rows[size];
+      scores[0] = scores[size];
+      siftDown(0);
+    }
+    return out;
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int p = (i - 1) >>> 1;
+      if (scores[p] <= scores[i]) break;
+      swap(i, p);
+      i = p;
+    }
+  }
+
+  private void siftDown(int i) {
+    while (true) {
+      int l = 2 * i + 1;
+      if (l >= size) return;
+      int m = (l + 1 < size && scores[l + 1] < scores[l]) ? l + 1 : l;
+      if (scores[i] <= scores[m]) return;
+      swap(i, m);
+      i = m;
+    }
+  }
+
+  private void swap(int a, int b) {
+    int r = rows[a]; rows[a] = rows[b]; rows[b] = r;
+    float s = scores[a]; scores[a] = scores[b]; scores[b] = s;
+  }
+}
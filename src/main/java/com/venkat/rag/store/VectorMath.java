@@ -0,0 +1,74 @@
+package com.venkat.rag.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dot-product / norm kernels over packed float vectors.
+ *
+ * Uses the jdk.incubator.vector API when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}; otherwise falls back to an unrolled scalar loop.
+ */
+public final class VectorMath {
+  private static final Logger log = LoggerFactory.getLogger(VectorMath.class);
+
+  private static final boolean SIMD = detectSimd();
+
+  private VectorMath() {}
+
+  public static boolean simdEnabled() { return SIMD; }
+
+  /** Dot product of a[aOff..aOff+len) and b[bOff..bOff+len). */
+  public static float dot(float[] a, int aOff, float[] b, int bOff, int len) {
+    return SIMD ? SimdKernel.dot(a, aOff, b, bOff, len) : scalarDot(a, aOff, b, bOff, len);
+  }
+
+  public static float dot(float[] a, float[] b) {
+    if (a.length != b.length) throw new IllegalArgumentException("Vector size mismatch");
+    return dot(a, 0, b, 0, a.length);
+  }
+
+  public static float norm(float[] a, int off, int len) {
+    return (float) Math.sqrt(dot(a, off, a, off, len));
+  }
+
+  /** 1/||v||, or 0 for the zero vector so that its cosine score is 0 like before. */
+  public static float inverseNorm(float[] a, int off, int len) {
+    float n = norm(a, off, len);
+    return n == 0f ? 0f : 1f / n;
+  }
+
+  public static double cosine(float[] a, float[] b) {
+    return dot(a, b) * inverseNorm(a, 0, a.length) * inverseNorm(b, 0, b.length);
+  }
+
+  static float scalarDot(float[] a, int aOff, float[] b, int bOff, int len) {
+    // 4 independent accumulators break the add dependency chain so the JIT can pipeline / auto-vectorize
+    float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    int bound = len & ~3;
+    for (; i < bound; i += 4) {
+      s0 += a[aOff + i] * b[bOff + i];
+      s1 += a[aOff + i + 1] * b[bOff + i + 1];
+      s2 += a[aOff + i + 2] * b[bOff + i + 2];
+      s3 += a[aOff + i + 3] * b[bOff + i + 3];
+    }
+    for (; i < len; i++) s0 += a[aOff + i] * b[bOff + i];
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  private static boolean detectSimd() {
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+      log.info("jdk.incubator.vector not enabled; using scalar vector kernel");
+      return false;
+    }
+    try {
+      SimdKernel.dot(new float[] {1f}, 0, new float[] {1f}, 0, 1);
+      log.info("Using jdk.incubator.vector kernel ({} lanes)", SimdKernel.lanes());
+      return true;
+    } catch (Throwable t) {
+      log.warn("jdk.incubator.vector unavailable ({}); using scalar vector kernel", t.toString());
+      return false;
+    }
+  }
+}
@@ -2,11 +2,72 @@ package com.venkat.rag.store;
 
 import com.venkat.rag.model.VectorRecord;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 public interface VectorStore {
   void upsert(VectorRecord record);
-  List<ScoredRecord> search(List<Double> queryVector, int topK);
+  List<ScoredRecord> search(float[] queryVector, int topK);
+
+  /**
+   * Top-K among the chunks matching {@code filter} (null or empty means all). This fallback
+   * over-fetches and post-filters, doubling the fetch until it has topK matches or the store is
+   * exhausted; stores that can evaluate the filter during the scan override it.
+   */
+  default List<ScoredRecord> search(float[] queryVector, int topK, SearchFilter filter) {
+    if (SearchFilter.isEmpty(filter)) return search(queryVector, topK);
+    for (int fetch = (int) Math.min(Integer.MAX_VALUE, Math.max(topK, 1) * 4L); ; fetch = (int) Math.min(Integer.MAX_VALUE, fetch * 2L)) {
+      List<ScoredRecord> all = search(queryVector, fetch);
+      List<ScoredRecord> out = new ArrayList<>(Math.min(topK, all.size()));
+      for (ScoredRecord r : all) {
+        if (filter.matches(r.record().payload()) && out.size() < topK) out.add(r);
+      }
+      if (out.size() >= topK || all.size() < fetch || fetch == Integer.MAX_VALUE) return out;
+    }
+  }
+
+  /** Top-K for each query, in query order; stores that can share work across queries override this. */
+  default List<List<ScoredRecord>> searchBatch(List<float[]> queryVectors, int topK) {
+    return queryVectors.stream().map(q -> search(q, topK)).toList();
+  }
+
+  /** Bulk upsert; stores that can batch the write path override this. */
+  default void upsertAll(List<VectorRecord> records) {
+    records.forEach(this::upsert);
+  }
+
+  /** Removes the given ids; unknown ids are ignored. Durable on the same terms as upserts. */
+  void delete(Collection<String> ids);
+
+  /** Makes everything upserted so far durable; a no-op for purely in-memory stores. */
+  default void flush() {}
+
+  /**
+   * Identifies the data this store holds, for state kept beside it (the chunk manifest, the BM25
+   * log); a new value means the old data is gone, e.g. a recreated collection. Null for stores
+   * that start empty on every run.
+   */
+  default String storeId() {
+    return null;
+  }
+
+  /**
+   * {@code dir}'s subdirectory for {@code store}'s {@link #storeId}, or null (keep the state in
+   * memory) when {@code dir} is empty or the store has no id.
+   */
+  static Path stateDir(String dir, VectorStore store) {
+    String id = store.storeId();
+    if (dir == null || dir.isBlank() || id == null) return null;
+    return Paths.get(dir).resolve(id.replaceAll("[^A-Za-z0-9._-]", "_"));
+  }
+
+  /** Whether searches can be served without first paying for setup (e.g. loading a collection). */
+  default boolean isReady() {
+    return true;
+  }
 
   static record ScoredRecord(VectorRecord record, double score) {}
 }
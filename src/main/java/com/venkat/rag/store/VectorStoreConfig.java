@@ -0,0 +1,26 @@
+package com.venkat.rag.store;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.util.Locale;
+
+/** Picks the {@link VectorStore} that RagService talks to: milvus (default), memory, hnsw or segment. */
+@Configuration
+public class VectorStoreConfig {
+
+  @Bean
+  @Primary
+  public VectorStore vectorStore(ApplicationContext ctx, @Value("${rag.vectorStore:milvus}") String type) {
+    return switch (type.toLowerCase(Locale.ROOT)) {
+      case "milvus" -> ctx.getBean(MilvusVectorStore.class);
+      case "memory" -> ctx.getBean(InMemoryVectorStore.class);
+      case "hnsw" -> ctx.getBean(HnswVectorStore.class);
+      case "segment" -> ctx.getBean(SegmentVectorStore.class);
+      default -> throw new IllegalArgumentException("Unknown rag.vectorStore: " + type);
+    };
+  }
+}
@@ -0,0 +1,31 @@
+package com.venkat.rag.store;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * jdk.incubator.vector implementation of {@link VectorMath#dot}.
+ * Only loaded after {@link VectorMath} has checked that the module is in the boot layer.
+ */
+final class SimdKernel {
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+  private SimdKernel() {}
+
+  static int lanes() { return SPECIES.length(); }
+
+  static float dot(float[] a, int aOff, float[] b, int bOff, int len) {
+    FloatVector acc = FloatVector.zero(SPECIES);
+    int i = 0;
+    int bound = SPECIES.loopBound(len);
+    for (; i < bound; i += SPECIES.length()) {
+      FloatVector va = FloatVector.fromArray(SPECIES, a, aOff + i);
+      FloatVector vb = FloatVector.fromArray(SPECIES, b, bOff + i);
+      acc = va.fma(vb, acc);
+    }
+    float sum = acc.reduceLanes(VectorOperators.ADD);
+    for (; i < len; i++) sum += a[aOff + i] * b[bOff + i];
+    return sum;
+  }
+}
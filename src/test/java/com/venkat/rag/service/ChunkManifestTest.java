@@ -0,0 +1,195 @@
+package com.venkat.rag.service;
+
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.store.InMemoryVectorStore;
+import com.venkat.rag.store.SegmentVectorStore;
+import com.venkat.rag.store.VectorStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Incremental-ingest plans, stale-chunk deletion, and who may plan a document when. */
+class ChunkManifestTest {
+  @TempDir
+  Path dir;
+
+  private final VectorStore memoryStore = new InMemoryVectorStore(1, 1024, "none", 1);
+
+  static List<Chunk> chunks(String doc, String... texts) {
+    List<Chunk> out = new ArrayList<>();
+    for (int i = 0; i < texts.length; i++) out.add(new Chunk(Chunker.chunkId(doc, i), doc, "t", "s", i, texts[i]));
+    return out;
+  }
+
+  private ChunkManifest manifest(long lockTimeoutMs) throws IOException {
+    return new ChunkManifest("", lockTimeoutMs, memoryStore);
+  }
+
+  @Test
+  void committedChunksAreNotPlannedAgain() throws IOException {
+    ChunkManifest manifest = manifest(1000);
+    try (ChunkManifest.Session s = manifest.open()) {
+      ChunkManifest.Plan first = s.plan("d", chunks("d", "a", "b", "c"));
+      assertEquals(3, first.added());
+      assertEquals(3, first.upserts().size());
+      s.commit("d", first.hashes());
+
+      ChunkManifest.Plan again = s.plan("d", chunks("d", "a", "b", "c"));
+      assertEquals(3, again.unchanged());
+      assertTrue(again.upserts().isEmpty());
+      assertTrue(again.removedIds().isEmpty());
+    }
+  }
+
+  @Test
+  void shrinkingDocumentDeletesStaleChunks() throws IOException {
+    ChunkManifest manifest = manifest(1000);
+    try (ChunkManifest.Session s = manifest.open()) {
+      s.commit("d", s.plan("d", chunks("d", "a", "b", "c", "d", "e")).hashes());
+
+      ChunkManifest.Plan plan = s.plan("d", chunks("d", "a", "B", "c"));
+      assertEquals(1, plan.changed());
+      assertEquals(2, plan.unchanged());
+      assertEquals(List.of(Chunker.chunkId("d", 1)), plan.upserts().stream().map(Chunk::chunkId).toList());
+      assertEquals(List.of(Chunker.chunkId("d", 3), Chunker.chunkId("d", 4)), plan.removedIds());
+    }
+  }
+
+  @Test
+  void uncommittedPlanIsRedone() throws IOException {
+    ChunkManifest manifest = manifest(1000);
+    try (ChunkManifest.Session s = manifest.open()) {
+      s.plan("d", chunks("d", "a", "b")); // store write failed; never committed
+    }
+    try (ChunkManifest.Session s = manifest.open()) {
+      assertEquals(2, s.plan("d", chunks("d", "a", "b")).added());
+    }
+  }
+
+  @Test
+  void replanInSameSessionDiffsAgainstPendingPlan() throws IOException {
+    ChunkManifest manifest = manifest(1000);
+    try (ChunkManifest.Session s = manifest.open()) {
+      s.commit("d", s.plan("d", chunks("d", "a", "b", "c", "d")).hashes());
+
+      ChunkManifest.Plan shrink = s.plan("d", chunks("d", "a", "b"));
+      ChunkManifest.Plan grow = s.plan("d", chunks("d", "a", "b", "c", "d"));
+      assertEquals(2, shrink.removed());
+      // chunks 2 and 3 are deleted by the pending plan, so they must be written again
+      assertEquals(2, grow.added());
+      assertEquals(List.of(Chunker.chunkId("d", 2), Chunker.chunkId("d", 3)),
+          grow.upserts().stream().map(Chunk::chunkId).toList());
+    }
+  }
+
+  @Test
+  void otherSessionWaitsUntilCommit() throws Exception {
+    ChunkManifest manifest = manifest(10_000);
+    ChunkManifest.Session first = manifest.open();
+    ChunkManifest.Plan plan = first.plan("d", chunks("d", "a", "b", "c"));
+
+    CompletableFuture<ChunkManifest.Plan> second = CompletableFuture.supplyAsync(() -> {
+      try (ChunkManifest.Session s = manifest.open()) {
+        return s.plan("d", chunks("d", "a"));
+      }
+    });
+    assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS));
+
+    first.commit("d", plan.hashes());
+    ChunkManifest.Plan after = second.get(5, TimeUnit.SECONDS);
+    assertEquals(1, after.unchanged());
+    assertEquals(2, after.removed()); // planned against the committed three chunks
+    first.close();
+  }
+
+  @Test
+  void waitingForAnotherSessionTimesOut() throws IOException {
+    ChunkManifest manifest = manifest(50);
+    try (ChunkManifest.Session first = manifest.open(); ChunkManifest.Session second = manifest.open()) {
+      first.plan("d", chunks("d", "a"));
+      assertThrows(IllegalStateException.class, () -> second.plan("d", chunks("d", "a")));
+      first.close(); // abandoned plans release the document
+      assertEquals(1, second.plan("d", chunks("d", "a")).added());
+    }
+  }
+
+  @Test
+  void sessionsWaitingForEachOtherFailFastInsteadOfTimingOut() throws Exception {
+    ChunkManifest manifest = manifest(30_000);
+    ChunkManifest.Session a = manifest.open();
+    ChunkManifest.Session b = manifest.open();
+    a.plan("d1", chunks("d1", "a"));
+    b.plan("d2", chunks("d2", "b"));
+
+    CompletableFuture<ChunkManifest.Plan> aWaits = CompletableFuture.supplyAsync(() -> a.plan("d2", chunks("d2", "b")));
+    assertThrows(TimeoutException.class, () -> aWaits.get(200, TimeUnit.MILLISECONDS));
+
+    long start = System.nanoTime();
+    assertThrows(IllegalStateException.class, () -> b.plan("d1", chunks("d1", "a")));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "waited for the lock timeout");
+    b.close(); // the failed ingest gives up d2, and a carries on
+    assertEquals(1, aWaits.get(5, TimeUnit.SECONDS).added());
+    a.close();
+  }
+
+  @Test
+  void holdingInSortedOrderNeverDeadlocks() throws Exception {
+    ChunkManifest manifest = manifest(30_000);
+    ChunkManifest.Session a = manifest.open();
+    a.hold(List.of("d2", "d1"));
+
+    CompletableFuture<Void> b = CompletableFuture.runAsync(() -> {
+      try (ChunkManifest.Session s = manifest.open()) {
+        s.hold(List.of("d1", "d2")); // waits for d1 without having taken d2
+        s.commit("d1", s.plan("d1", chunks("d1", "x")).hashes());
+      }
+    });
+    assertThrows(TimeoutException.class, () -> b.get(200, TimeUnit.MILLISECONDS));
+
+    // a can still take what it needs: b holds nothing while it waits
+    a.commit("d2", a.plan("d2", chunks("d2", "y")).hashes());
+    a.commit("d1", a.plan("d1", chunks("d1", "x")).hashes());
+    a.close();
+    b.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void manifestIsKeyedToTheStore() throws IOException {
+    Path manifests = dir.resolve("manifest");
+    SegmentVectorStore storeA = new SegmentVectorStore(dir.resolve("a").toString(), 4096, 3_600_000, 8, Integer.MAX_VALUE);
+    SegmentVectorStore storeB = new SegmentVectorStore(dir.resolve("b").toString(), 4096, 3_600_000, 8, Integer.MAX_VALUE);
+    try {
+      try (ChunkManifest.Session s = new ChunkManifest(manifests.toString(), 1000, storeA).open()) {
+        s.commit("d", s.plan("d", chunks("d", "a", "b")).hashes());
+      }
+      try (ChunkManifest.Session s = new ChunkManifest(manifests.toString(), 1000, storeA).open()) {
+        assertEquals(2, s.plan("d", chunks("d", "a", "b")).unchanged()); // persisted for the same store
+      }
+      try (ChunkManifest.Session s = new ChunkManifest(manifests.toString(), 1000, storeB).open()) {
+        assertEquals(2, s.plan("d", chunks("d", "a", "b")).added()); // another store holds none of it
+      }
+      // a store that starts empty every run never reads or writes manifest files
+      try (ChunkManifest.Session s = new ChunkManifest(dir.resolve("memory").toString(), 1000, memoryStore).open()) {
+        s.commit("d", s.plan("d", chunks("d", "a")).hashes());
+      }
+      assertFalse(Files.exists(dir.resolve("memory")));
+      try (Stream<Path> subdirs = Files.list(manifests)) {
+        assertEquals(2, subdirs.count());
+      }
+    } finally {
+      storeA.close();
+      storeB.close();
+    }
+  }
+}
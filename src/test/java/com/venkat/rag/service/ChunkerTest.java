@@ -0,0 +1,85 @@
+package com.venkat.rag.service;
+
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.model.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The streaming chunker cuts the same chunks, with the same IDs, as the regex version it replaced. */
+class ChunkerTest {
+
+  /** The chunker before streaming: normalize the whole string with regexes, then substring and trim. */
+  private static List<Chunk> baseline(Document doc, int chunkSize, int overlap) {
+    String text = doc.text().replace("\r\n", "\n")
+        .replaceAll("[ \t]+", " ")
+        .replaceAll("\\n{3,}", "\n\n")
+        .trim();
+    List<Chunk> out = new ArrayList<>();
+    int step = Math.max(1, chunkSize - overlap);
+    int i = 0;
+    int idx = 0;
+    while (i < text.length()) {
+      int end = Math.min(text.length(), i + chunkSize);
+      String chunkText = text.substring(i, end).trim();
+      if (!chunkText.isBlank()) {
+        out.add(new Chunk(doc.documentId() + "_chunk_" + idx, doc.documentId(), doc.title(), doc.source(), idx, chunkText));
+        idx++;
+      }
+      i += step;
+    }
+    return out;
+  }
+
+  private static void assertSameChunks(String text, int chunkSize, int overlap) {
+    Chunker chunker = new Chunker();
+    chunker.configure(chunkSize, overlap);
+    Document doc = new Document("d", "t", "s", text);
+    List<Chunk> expected = baseline(doc, chunkSize, overlap);
+    assertEquals(expected, chunker.chunk(doc), () -> "size " + chunkSize + " overlap " + overlap + " text " + text.replace("\n", "\\n"));
+  }
+
+  @Test
+  void matchesBaselineOnWhitespaceEdgeCases() {
+    List<String> texts = List.of(
+        "",
+        "   \t\r\n  ",
+        "short",
+        "  leading and trailing  \n\n",
+        "line one\r\nline two\r\n\r\nline three",
+        "tabs\t\tand  spaces \t mixed",
+        "para one\n\n\n\n\npara two\n\n\n",
+        "lone\rcarriage\r\r\nreturns",
+        "a\n \n \nb",
+        "ends with crlf\r\n");
+    for (String text : texts) {
+      for (int size : new int[]{1, 3, 7, 50}) {
+        for (int overlap : new int[]{0, size / 2, size - 1}) assertSameChunks(text, size, overlap);
+      }
+    }
+  }
+
+  @Test
+  void matchesBaselineWhenTheOverlapStartsOnWhitespace() {
+    // step 6: every window after the first starts on the space between words
+    assertSameChunks("aaaaa bbbbb ccccc ddddd eeeee", 10, 4);
+    assertSameChunks("aaaaa\n\nbbbbb\n\nccccc", 9, 2);
+  }
+
+  @Test
+  void matchesBaselineOnRandomText() {
+    Random rnd = new Random(17);
+    String alphabet = "ab  \t\t\n\n\r.";
+    for (int round = 0; round < 3000; round++) {
+      StringBuilder sb = new StringBuilder();
+      int length = rnd.nextInt(rnd.nextBoolean() ? 20 : 400);
+      for (int i = 0; i < length; i++) sb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+      int size = 1 + rnd.nextInt(60);
+      assertSameChunks(sb.toString(), size, rnd.nextInt(size));
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.venkat.rag.service;
+
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.model.VectorRecord;
+import com.venkat.rag.store.VectorStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Packed context stays within the token budget, skips what does not fit, and writes overlaps once. */
+class ContextPackerTest {
+  private static final String MODEL = "gpt-4o-mini";
+  private final ContextPacker packer = new ContextPacker();
+
+  private static VectorStore.ScoredRecord hit(String doc, int index, String text, double score) {
+    Chunk c = new Chunk(doc + "#" + index, doc, "t", "s", index, text);
+    return new VectorStore.ScoredRecord(new VectorRecord(c.chunkId(), new float[0], c), score);
+  }
+
+  private static String words(Random rnd, int n) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < n; i++) sb.append(i > 0 ? " " : "").append("word").append(rnd.nextInt(1000));
+    return sb.toString();
+  }
+
+  @Test
+  void neverExceedsBudget() {
+    Random rnd = new Random(18);
+    for (int round = 0; round < 20; round++) {
+      List<VectorStore.ScoredRecord> hits = new ArrayList<>();
+      for (int i = 0; i < 15; i++) hits.add(hit("d" + i % 4, i / 4, words(rnd, 5 + rnd.nextInt(80)), rnd.nextDouble()));
+      int budget = 20 + rnd.nextInt(400);
+
+      ContextPacker.Packed packed = packer.pack(MODEL, hits, budget);
+      assertTrue(packed.tokens() <= budget, packed.tokens() + " > " + budget);
+      assertEquals(TokenEstimator.estimate(MODEL, packed.context()), packed.tokens());
+      for (String id : packed.chunkIds()) {
+        String text = hits.stream().filter(h -> h.record().id().equals(id)).findFirst().orElseThrow().record().payload().text();
+        assertTrue(packed.context().contains(text.substring(0, Math.min(20, text.length()))), id);
+      }
+    }
+  }
+
+  @Test
+  void skipsChunkThatDoesNotFitButKeepsSmallerOnes() {
+    Random rnd = new Random(1);
+    String big = words(rnd, 300);
+    String small = words(rnd, 10);
+    ContextPacker.Packed packed = packer.pack(MODEL, List.of(hit("a", 0, big, 0.9), hit("b", 0, small, 0.5)), 60);
+
+    assertEquals(List.of("b#0"), packed.chunkIds());
+    assertEquals(1, packed.chunksDropped());
+    assertEquals("- " + small, packed.context());
+  }
+
+  @Test
+  void neighbouringChunksShareTheirOverlap() {
+    String overlap = "shared overlap text between chunks";
+    String first = "the first chunk starts here and ends with " + overlap;
+    String second = overlap + " and the second chunk carries on";
+    ContextPacker.Packed packed = packer.pack(MODEL, List.of(hit("a", 1, second, 0.8), hit("a", 0, first, 0.9)), 1000);
+
+    assertEquals("- " + first + " and the second chunk carries on", packed.context());
+    assertEquals(List.of("a#0", "a#1"), packed.chunkIds());
+    assertTrue(packed.tokensSaved() > 0);
+  }
+
+  @Test
+  void zeroBudgetPacksNothing() {
+    ContextPacker.Packed packed = packer.pack(MODEL, List.of(hit("a", 0, "some text", 1)), 0);
+    assertEquals("", packed.context());
+    assertTrue(packed.chunkIds().isEmpty());
+    assertEquals(1, packed.chunksDropped());
+  }
+}
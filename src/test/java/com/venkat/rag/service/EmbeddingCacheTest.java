@@ -0,0 +1,51 @@
+package com.venkat.rag.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The disk tier stays within its byte bound and evicts the least recently used vectors. */
+class EmbeddingCacheTest {
+  private static final int DIM = 256; // 1 KiB per vector file
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void diskTierEvictsLeastRecentlyUsedPastItsBound() throws Exception {
+    EmbeddingCache cache = new EmbeddingCache(0, dir.toString(), 20 * DIM * 4); // heap tier off: reads hit disk
+    cache.put("m", "keep", new float[DIM]);
+    for (int i = 0; i < 60; i++) {
+      Thread.sleep(2); // distinct mtimes
+      cache.put("m", "text " + i, new float[DIM]);
+      assertNotNull(cache.get("m", "keep")); // read often, so never the least recently used
+    }
+
+    EmbeddingCache.Stats stats = cache.stats();
+    assertTrue(stats.diskBytes() <= 20 * DIM * 4, "disk bytes " + stats.diskBytes());
+    assertTrue(stats.diskEvictions() > 0);
+    assertEquals(stats.diskBytes(), filesBytes());
+    assertNotNull(cache.get("m", "keep"));
+    assertNull(cache.get("m", "text 0"));
+    assertNotNull(cache.get("m", "text 59"));
+  }
+
+  @Test
+  void reopeningCountsWhatIsOnDisk() throws IOException {
+    EmbeddingCache first = new EmbeddingCache(0, dir.toString(), 1 << 20);
+    for (int i = 0; i < 5; i++) first.put("m", "text " + i, new float[DIM]);
+    assertEquals(5L * DIM * 4, new EmbeddingCache(0, dir.toString(), 1 << 20).stats().diskBytes());
+  }
+
+  private long filesBytes() throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      return files.filter(p -> p.toString().endsWith(".f32")).mapToLong(p -> p.toFile().length()).sum();
+    }
+  }
+}
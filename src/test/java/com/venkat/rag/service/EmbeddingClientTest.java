@@ -0,0 +1,160 @@
+package com.venkat.rag.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import com.venkat.rag.metrics.RagMetrics;
+import com.venkat.rag.metrics.TokenLedger;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Which gateway failures split an embedding batch, which are retried, and which fail fast. */
+class EmbeddingClientTest {
+  private final ObjectMapper om = new ObjectMapper();
+  private final AtomicInteger calls = new AtomicInteger();
+  private final List<Integer> batchSizes = new ArrayList<>();
+  /** Canned failure statuses, consumed one per call; empty = answer normally. */
+  private final Deque<Integer> failures = new ArrayDeque<>();
+  /** Answer 200 with this body instead of embeddings, when set. */
+  private volatile String malformed;
+  /** Batches with more inputs than this are rejected as too large. */
+  private volatile IntPredicate tooLarge = n -> false;
+  private HttpServer server;
+  private EmbeddingClient client;
+
+  @BeforeEach
+  void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/v1/embeddings", exchange -> {
+      calls.incrementAndGet();
+      JsonNode input = om.readTree(exchange.getRequestBody()).get("input");
+      int n = input.isArray() ? input.size() : 1;
+      synchronized (batchSizes) {
+        batchSizes.add(n);
+      }
+      Integer status;
+      synchronized (failures) {
+        status = failures.poll();
+      }
+      String body;
+      if (status != null) {
+        body = "{\"error\":\"status " + status + "\"}";
+      } else if (malformed != null) {
+        status = 200;
+        body = malformed;
+      } else if (tooLarge.test(n)) {
+        status = 400;
+        body = "{\"error\":\"This model's maximum context length is 8192 tokens\"}";
+      } else {
+        status = 200;
+        StringBuilder sb = new StringBuilder("{\"data\":[");
+        for (int i = 0; i < n; i++) sb.append(i > 0 ? "," : "").append("{\"index\":").append(i).append(",\"embedding\":[1.0,").append(i).append("]}");
+        body = sb.append("],\"usage\":{\"prompt_tokens\":").append(n).append("}}").toString();
+      }
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    });
+    server.start();
+    client = client(server.getAddress().getPort());
+  }
+
+  private static EmbeddingClient client(int port) throws IOException {
+    GatewayTransport transport = new GatewayTransport(4, 60, 16, 16, 5000, 2000, 5000, 5000, 5000, false, false, 4096);
+    RagMetrics metrics = new RagMetrics(new SimpleMeterRegistry());
+    return new EmbeddingClient("http://127.0.0.1:" + port, "m", "c", "k", 128, 100000,
+        "float", 2, 1, new EmbeddingCache(1 << 20, "", 0), transport, metrics, new TokenLedger(60, 60, ""));
+  }
+
+  @AfterEach
+  void stop() {
+    server.stop(0);
+  }
+
+  @Test
+  void authFailureIsNotSplitOrRetried() {
+    failures.add(401);
+    assertThrows(RuntimeException.class, () -> client.embedBatch(texts(8)));
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  void outageIsRetriedBoundedThenFails() {
+    for (int i = 0; i < 10; i++) failures.add(503);
+    assertThrows(RuntimeException.class, () -> client.embedBatch(texts(8)));
+    assertEquals(3, calls.get()); // first attempt + maxRetries, never split
+  }
+
+  @Test
+  void undecodableResponseIsNotRetried() {
+    malformed = "{\"data\":[{\"index\":0,\"embedding\":[1.0]}]}"; // one vector for eight inputs
+    assertThrows(RuntimeException.class, () -> client.embedBatch(texts(8)));
+    malformed = "not json";
+    assertThrows(RuntimeException.class, () -> client.embedBatch(texts(8)));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  void resetConnectionIsRetried() throws Exception {
+    AtomicInteger accepted = new AtomicInteger();
+    try (ServerSocket reset = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      Thread acceptor = new Thread(() -> {
+        while (true) {
+          try (Socket s = reset.accept()) {
+            accepted.incrementAndGet();
+            s.setSoLinger(true, 0); // close with RST
+          } catch (IOException e) {
+            return;
+          }
+        }
+      });
+      acceptor.start();
+      assertThrows(RuntimeException.class, () -> client(reset.getLocalPort()).embedBatch(texts(2)));
+    }
+    assertTrue(accepted.get() >= 3, "connections " + accepted.get()); // first attempt + maxRetries
+  }
+
+  @Test
+  void transientFailureRecoversWithoutSplitting() {
+    failures.add(429);
+    failures.add(502);
+    List<float[]> out = client.embedBatch(texts(8));
+    assertEquals(8, out.size());
+    assertEquals(List.of(8, 8, 8), batchSizes);
+  }
+
+  @Test
+  void tooLargeBatchIsSplitUntilItFits() {
+    tooLarge = n -> n > 2;
+    List<float[]> out = client.embedBatch(texts(8));
+    assertEquals(8, out.size());
+    for (int i = 0; i < 8; i++) assertNotNull(out.get(i));
+    assertEquals(List.of(8, 4, 2, 2, 4, 2, 2), batchSizes);
+  }
+
+  private static List<String> texts(int n) {
+    List<String> t = new ArrayList<>();
+    for (int i = 0; i < n; i++) t.add("text " + i);
+    return t;
+  }
+}
@@ -0,0 +1,237 @@
+package com.venkat.rag.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.venkat.rag.dto.IngestJobStatus;
+import com.venkat.rag.dto.IngestRequest;
+import com.venkat.rag.metrics.RagMetrics;
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.model.Document;
+import com.venkat.rag.model.VectorRecord;
+import com.venkat.rag.store.Bm25Index;
+import com.venkat.rag.store.InMemoryVectorStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Cross-document batches, checkpoint replay and resume, cancellation, and cleanup of finished jobs. */
+class IngestJobsTest {
+  @TempDir
+  Path dir;
+
+  private final ObjectMapper om = new ObjectMapper();
+  private final Chunker chunker = new Chunker();
+  private final InMemoryVectorStore store = new InMemoryVectorStore(1, 1024, "none", 1);
+  private final List<IngestJobs> opened = new ArrayList<>();
+  private ChunkManifest manifest;
+  private RecordingWriter writer;
+
+  /** Fake embeddings; records what each batch held and can fail or block a given call. */
+  private static final class RecordingWriter extends ChunkWriter {
+    final List<List<String>> embedded = new ArrayList<>();
+    int flushes;
+    volatile int failOnCall = -1;
+    volatile CountDownLatch gate;
+
+    RecordingWriter(InMemoryVectorStore store, ChunkManifest manifest) throws IOException {
+      super(null, store, new Bm25Index(false, 1.2, 0.75, "", store), new SemanticAnswerCache(false, 0.95, 3600, 100, 4, 10),
+          manifest);
+    }
+
+    @Override
+    public List<VectorRecord> embed(List<Chunk> chunks) {
+      int call;
+      synchronized (this) {
+        embedded.add(chunks.stream().map(Chunk::chunkId).toList());
+        call = embedded.size();
+      }
+      if (call == failOnCall) throw new IllegalStateException("gateway down");
+      CountDownLatch g = gate;
+      if (g != null) {
+        try {
+          g.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return chunks.stream().map(c -> new VectorRecord(c.chunkId(), new float[]{1, c.chunkIndex()}, c)).toList();
+    }
+
+    @Override
+    public synchronized void flush() {
+      flushes++;
+      super.flush();
+    }
+
+    synchronized List<String> allEmbedded() {
+      return embedded.stream().flatMap(List::stream).toList();
+    }
+  }
+
+  private IngestJobs jobs(int batchSize, long retentionHours) throws IOException {
+    if (writer == null) {
+      chunker.configure(50, 10);
+      manifest = new ChunkManifest("", 1000, store);
+      writer = new RecordingWriter(store, manifest);
+    }
+    IngestJobs jobs = new IngestJobs(chunker, writer, new RagMetrics(new SimpleMeterRegistry()), dir.toString(),
+        1, batchSize, 1, 0, retentionHours);
+    opened.add(jobs);
+    return jobs;
+  }
+
+  @AfterEach
+  void close() {
+    opened.forEach(IngestJobs::close);
+  }
+
+  private static IngestRequest.DocumentDto doc(String id, int words) {
+    String text = String.join(" ", IntStream.range(0, words).mapToObj(i -> id + "w" + i).toList());
+    return new IngestRequest.DocumentDto(id, "t", "s", text);
+  }
+
+  private static IngestJobStatus await(IngestJobs jobs, String jobId) throws InterruptedException {
+    for (int i = 0; i < 500; i++) {
+      IngestJobStatus s = jobs.status(jobId).orElseThrow();
+      if (!s.getState().equals("QUEUED") && !s.getState().equals("RUNNING")) return s;
+      Thread.sleep(10);
+    }
+    throw new AssertionError("job " + jobId + " did not finish");
+  }
+
+  private Path jobDir(String jobId) {
+    return dir.resolve(jobId);
+  }
+
+  @Test
+  void smallDocumentsShareBatches() throws Exception {
+    IngestJobs jobs = jobs(32, 24);
+    List<IngestRequest.DocumentDto> docs = IntStream.range(0, 100).mapToObj(i -> doc("d" + i, 3)).toList();
+    IngestJobStatus done = await(jobs, jobs.submit(docs).getJobId());
+
+    assertEquals("SUCCEEDED", done.getState());
+    assertEquals(100, done.getDocumentsCompleted());
+    assertEquals(100, done.getChunksStored());
+    assertEquals(List.of(32, 32, 32, 4), writer.embedded.stream().map(List::size).toList());
+    assertEquals(4, writer.flushes);
+    assertEquals(100, store.size());
+    try (ChunkManifest.Session s = manifest.open()) {
+      assertEquals(1, s.plan("d99", chunker.chunk(new Document("d99", "t", "s", doc("d99", 3).getText()))).unchanged());
+    }
+  }
+
+  @Test
+  void resumesMidDocumentFromTheCheckpoint() throws Exception {
+    IngestJobs jobs = jobs(4, 24);
+    IngestRequest.DocumentDto big = doc("big", 80); // 10+ chunks of 50 chars
+    int chunks = chunker.chunk(new Document("big", "t", "s", big.getText())).size();
+    writer.failOnCall = 3;
+    String id = jobs.submit(List.of(big)).getJobId();
+    assertEquals("FAILED", await(jobs, id).getState());
+    assertEquals(8, store.size()); // two batches stored before the failure
+
+    writer.failOnCall = -1;
+    writer.embedded.clear();
+    jobs.resume(id);
+    assertEquals("SUCCEEDED", await(jobs, id).getState());
+    List<String> resumed = writer.allEmbedded();
+    assertEquals(IntStream.range(8, chunks).mapToObj(i -> Chunker.chunkId("big", i)).toList(), resumed);
+    assertEquals(chunks, store.size());
+  }
+
+  @Test
+  void resumedDocumentStartsOverWhenItsPlanChanged() throws Exception {
+    IngestJobs jobs = jobs(4, 24);
+    IngestRequest.DocumentDto big = doc("big", 80);
+    List<Chunk> all = new ArrayList<>();
+    chunker.iterator("big", "t", "s", new StringReader(big.getText())).forEachRemaining(all::add);
+    writer.failOnCall = 2;
+    String id = jobs.submit(List.of(big)).getJobId();
+    assertEquals("FAILED", await(jobs, id).getState()); // checkpointed 4 chunks into the document
+
+    // another ingest commits the document's first two chunks in between
+    try (ChunkManifest.Session s = manifest.open()) {
+      s.commit("big", s.plan("big", all.subList(0, 2)).hashes());
+    }
+    writer.failOnCall = -1;
+    writer.embedded.clear();
+    jobs.resume(id);
+    assertEquals("SUCCEEDED", await(jobs, id).getState());
+    // the checkpointed offset counted into a longer upsert list; skipping it would lose chunks 2..5
+    assertEquals(all.subList(2, all.size()).stream().map(Chunk::chunkId).toList(), writer.allEmbedded());
+  }
+
+  @Test
+  void tornCheckpointLineIsCutOffOnRecovery() throws Exception {
+    jobs(8, 24);
+    Path job = Files.createDirectories(jobDir("torn"));
+    List<IngestRequest.DocumentDto> docs = IntStream.range(0, 5).mapToObj(i -> doc("d" + i, 3)).toList();
+    StringBuilder ndjson = new StringBuilder();
+    for (IngestRequest.DocumentDto d : docs) {
+      ndjson.append(om.writeValueAsString(d)).append('\n');
+    }
+    Files.writeString(job.resolve("documents.ndjson"), ndjson);
+    String intact = "{\"state\":\"QUEUED\",\"documents\":5}\n{\"doc\":2,\"chunk\":0,\"stored\":2,\"plan\":0}\n";
+    Files.writeString(job.resolve("checkpoint.log"), intact + "{\"doc\":4,\"chu");
+
+    IngestJobs recovered = jobs(8, 24);
+    IngestJobStatus status = recovered.status("torn").orElseThrow();
+    assertEquals("QUEUED", status.getState());
+    assertEquals(2, status.getDocumentsCompleted());
+    assertEquals(intact, Files.readString(job.resolve("checkpoint.log"), StandardCharsets.UTF_8));
+
+    recovered.resumeInterrupted();
+    assertEquals("SUCCEEDED", await(recovered, "torn").getState());
+    assertEquals(List.of("d2_chunk_0", "d3_chunk_0", "d4_chunk_0"), writer.allEmbedded());
+  }
+
+  @Test
+  void cancelsQueuedAndRunningJobs() throws Exception {
+    IngestJobs jobs = jobs(2, 24);
+    writer.gate = new CountDownLatch(1);
+    String running = jobs.submit(IntStream.range(0, 10).mapToObj(i -> doc("r" + i, 3)).toList()).getJobId();
+    String queued = jobs.submit(List.of(doc("q", 3))).getJobId(); // one worker thread: waits behind the first
+    for (int i = 0; i < 500 && writer.allEmbedded().isEmpty(); i++) Thread.sleep(10);
+
+    assertEquals("CANCELLED", jobs.cancel(queued).orElseThrow().getState());
+    assertFalse(Files.exists(jobDir(queued).resolve("documents.ndjson")));
+    assertEquals("RUNNING", jobs.cancel(running).orElseThrow().getState());
+    writer.gate.countDown();
+
+    IngestJobStatus cancelled = await(jobs, running);
+    assertEquals("CANCELLED", cancelled.getState());
+    assertEquals(2, cancelled.getChunksStored()); // stopped after the batch in flight
+    assertTrue(writer.allEmbedded().stream().noneMatch(id -> id.startsWith("q")));
+  }
+
+  @Test
+  void finishedJobsAreCompactedAndPurged() throws Exception {
+    IngestJobs jobs = jobs(2, 0);
+    String first = jobs.submit(IntStream.range(0, 5).mapToObj(i -> doc("d" + i, 3)).toList()).getJobId();
+    assertEquals("SUCCEEDED", await(jobs, first).getState());
+
+    List<String> log = Files.readAllLines(jobDir(first).resolve("checkpoint.log"));
+    assertEquals(1, log.size());
+    assertTrue(log.get(0).contains("\"state\":\"SUCCEEDED\"") && log.get(0).contains("\"doc\":5"), log.get(0));
+    assertFalse(Files.exists(jobDir(first).resolve("documents.ndjson")));
+
+    // retention is 0 hours here, so the next submit forgets the finished job
+    String second = jobs.submit(List.of(doc("e", 3))).getJobId();
+    assertTrue(jobs.status(first).isEmpty());
+    assertFalse(Files.exists(jobDir(first)));
+    await(jobs, second);
+  }
+}
@@ -0,0 +1,51 @@
+package com.venkat.rag.service;
+
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.model.VectorRecord;
+import com.venkat.rag.store.VectorStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Reciprocal rank fusion uses ranks only and rewards agreement between rankings. */
+class RankFusionTest {
+
+  private static List<VectorStore.ScoredRecord> ranking(double scale, String... ids) {
+    VectorStore.ScoredRecord[] out = new VectorStore.ScoredRecord[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      Chunk c = new Chunk(ids[i], "d", "t", "s", 0, ids[i]);
+      out[i] = new VectorStore.ScoredRecord(new VectorRecord(ids[i], new float[0], c), scale * (ids.length - i));
+    }
+    return List.of(out);
+  }
+
+  private static List<String> ids(List<VectorStore.ScoredRecord> results) {
+    return results.stream().map(r -> r.record().id()).toList();
+  }
+
+  @Test
+  void documentInBothRankingsWins() {
+    var vector = ranking(0.01, "a", "b", "c");
+    var lexical = ranking(100, "d", "b", "e");
+    List<VectorStore.ScoredRecord> fused = RankFusion.reciprocalRank(List.of(vector, lexical), 60, 5);
+    assertEquals("b", fused.get(0).record().id());
+    assertEquals(2.0 / 62, fused.get(0).score(), 1e-12);
+    assertEquals(5, fused.size());
+  }
+
+  @Test
+  void scoreScalesDoNotMatter() {
+    var fused = RankFusion.reciprocalRank(List.of(ranking(1e-6, "a", "b"), ranking(1e6, "b", "a")), 60, 2);
+    // each appears once at rank 1 and once at rank 2: equal fused scores
+    assertEquals(fused.get(0).score(), fused.get(1).score(), 1e-12);
+    assertEquals(List.of("a", "b"), ids(fused).stream().sorted().toList());
+  }
+
+  @Test
+  void truncatesToTopK() {
+    var fused = RankFusion.reciprocalRank(List.of(ranking(1, "a", "b", "c", "d")), 60, 2);
+    assertEquals(List.of("a", "b"), ids(fused));
+  }
+}
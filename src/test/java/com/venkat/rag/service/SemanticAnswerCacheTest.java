@@ -0,0 +1,58 @@
+package com.venkat.rag.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Answers are served until a chunk they were built from is re-ingested or deleted. */
+class SemanticAnswerCacheTest {
+  private final SemanticAnswerCache cache = new SemanticAnswerCache(true, 0.95, 3600, 100, 4, 10);
+  private final float[] question = {1, 2, 3, 4};
+
+  @Test
+  void servesAnswerBuiltFromChunks() {
+    cache.put(question, "answer", List.of("c1"), cache.generation());
+    assertEquals("answer", cache.get(question));
+  }
+
+  @Test
+  void skipsAnswersWithoutContext() {
+    cache.put(question, "I don't know", List.of(), cache.generation());
+    assertNull(cache.get(question));
+  }
+
+  @Test
+  void ingestOfOtherChunksKeepsAnswer() {
+    cache.put(question, "answer", List.of("c1"), cache.generation());
+    cache.invalidateChunks(List.of("c2"));
+    assertEquals("answer", cache.get(question));
+  }
+
+  @Test
+  void ingestOfAUsedChunkDropsAnswer() {
+    cache.put(question, "answer", List.of("c1", "c2"), cache.generation());
+    cache.invalidateChunks(List.of("c2", "c3"));
+    assertNull(cache.get(question));
+  }
+
+  @Test
+  void rejectsPutRacingAnIngest() {
+    long generation = cache.generation(); // retrieval starts
+    cache.invalidateChunks(List.of("c1")); // ingest lands before the answer is cached
+    cache.put(question, "stale", List.of("c1"), generation);
+    assertNull(cache.get(question));
+
+    cache.put(question, "fresh", List.of("c1"), cache.generation());
+    assertEquals("fresh", cache.get(question));
+  }
+
+  @Test
+  void acceptsPutRacingAnUnrelatedIngest() {
+    long generation = cache.generation();
+    cache.invalidateChunks(List.of("c2"));
+    cache.put(question, "answer", List.of("c1"), generation);
+    assertEquals("answer", cache.get(question));
+  }
+}
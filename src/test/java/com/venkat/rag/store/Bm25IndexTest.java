@@ -0,0 +1,163 @@
+package com.venkat.rag.store;
+
+import com.venkat.rag.model.Chunk;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** WAND top-K equals exhaustive BM25, dead documents get compacted away, and the log follows its store. */
+class Bm25IndexTest {
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+
+  @TempDir
+  Path dir;
+
+  private final VectorStore memoryStore = new InMemoryVectorStore(1, 1024, "none", 1);
+
+  static Chunk chunk(int i, String text) {
+    return new Chunk("c" + i, "d" + i, "t", "s", 0, text);
+  }
+
+  private static String randomText(Random rnd) {
+    // Zipf-ish vocabulary so terms have very different document frequencies
+    StringBuilder sb = new StringBuilder();
+    int words = 5 + rnd.nextInt(40);
+    for (int w = 0; w < words; w++) sb.append("w").append((int) (Math.pow(rnd.nextDouble(), 3) * 500)).append(' ');
+    return sb.toString();
+  }
+
+  @Test
+  void rankingMatchesExhaustiveBm25() throws IOException {
+    Bm25Index index = new Bm25Index(true, K1, B, "", memoryStore);
+    Random rnd = new Random(23);
+    List<Chunk> corpus = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) corpus.add(chunk(i, randomText(rnd)));
+    index.index(corpus);
+
+    for (int q = 0; q < 50; q++) {
+      String query = "w" + rnd.nextInt(30) + " w" + rnd.nextInt(500) + " w" + rnd.nextInt(500);
+      // compared by score: documents with equal scores may come back in either order
+      double[] expected = exhaustive(corpus, query, 10);
+      double[] actual = index.search(query, 10, null).stream().mapToDouble(VectorStore.ScoredRecord::score).toArray();
+      assertEquals(expected.length, actual.length, query);
+      for (int i = 0; i < expected.length; i++) assertEquals(expected[i], actual[i], 1e-4 * expected[i], query);
+    }
+  }
+
+  @Test
+  void rareTermOutranksCommonOnes() throws IOException {
+    Bm25Index index = new Bm25Index(true, K1, B, "", memoryStore);
+    List<Chunk> corpus = new ArrayList<>();
+    for (int i = 0; i < 50; i++) corpus.add(chunk(i, "the service returned an error"));
+    corpus.add(chunk(50, "the payment-svc returned error E1042"));
+    index.index(corpus);
+
+    assertEquals("c50", index.search("error E1042", 3, null).get(0).record().id());
+    assertEquals("c50", index.search("payment", 3, null).get(0).record().id()); // compound split
+    assertEquals("c50", index.search("payment-svc", 3, null).get(0).record().id());
+  }
+
+  @Test
+  void reindexingCompactsDeadDocuments() throws IOException {
+    Bm25Index index = new Bm25Index(true, K1, B, "", memoryStore);
+    List<Chunk> corpus = IntStream.range(0, 2000).mapToObj(i -> chunk(i, "alpha beta " + i)).toList();
+    for (int round = 0; round < 3; round++) index.index(corpus); // same ids: only markDead, never delete()
+
+    Bm25Index.Stats stats = index.stats();
+    assertEquals(2000, stats.documents());
+    assertTrue(stats.compactions() >= 1, "compactions " + stats.compactions());
+    assertTrue(stats.deletedDocuments() <= stats.documents(), "dead " + stats.deletedDocuments());
+    assertEquals("c7", index.search("7", 1, null).get(0).record().id());
+  }
+
+  @Test
+  void hugeTopKReturnsEveryMatchingDocument() throws IOException {
+    Bm25Index index = new Bm25Index(true, K1, B, "", memoryStore);
+    index.index(IntStream.range(0, 30).mapToObj(i -> chunk(i, i % 3 == 0 ? "alpha beta" : "gamma")).toList());
+    index.delete(List.of("c0"));
+    assertEquals(9, index.search("alpha", Integer.MAX_VALUE, null).size());
+  }
+
+  @Test
+  void disabledIndexKeepsNothing() throws IOException {
+    Bm25Index index = new Bm25Index(false, K1, B, "", memoryStore);
+    index.index(List.of(chunk(0, "alpha")));
+    assertFalse(index.isEnabled());
+    assertEquals(0, index.stats().documents());
+    assertTrue(index.search("alpha", 5, null).isEmpty());
+  }
+
+  @Test
+  void logIsKeyedToTheStore() throws IOException {
+    String lexical = dir.resolve("lexical").toString();
+    SegmentVectorStore storeA = new SegmentVectorStore(dir.resolve("a").toString(), 4096, 3_600_000, 8, Integer.MAX_VALUE);
+    SegmentVectorStore storeB = new SegmentVectorStore(dir.resolve("b").toString(), 4096, 3_600_000, 8, Integer.MAX_VALUE);
+    try {
+      Bm25Index first = new Bm25Index(true, K1, B, lexical, storeA);
+      first.index(List.of(chunk(1, "alpha")));
+      first.flush();
+      first.close();
+
+      Bm25Index again = new Bm25Index(true, K1, B, lexical, storeA);
+      assertEquals(1, again.search("alpha", 5, null).size()); // replayed for the same store
+      again.close();
+      Bm25Index other = new Bm25Index(true, K1, B, lexical, storeB);
+      assertTrue(other.search("alpha", 5, null).isEmpty()); // another store never held that chunk
+      other.close();
+
+      // a store that starts empty every run never writes a log
+      Bm25Index memory = new Bm25Index(true, K1, B, dir.resolve("memory").toString(), memoryStore);
+      memory.index(List.of(chunk(2, "beta")));
+      assertFalse(Files.exists(dir.resolve("memory")));
+    } finally {
+      storeA.close();
+      storeB.close();
+    }
+  }
+
+  /** Top-K scores of textbook BM25 over every document, best first. */
+  private static double[] exhaustive(List<Chunk> corpus, String query, int topK) {
+    List<Map<String, Integer>> tfs = new ArrayList<>();
+    Map<String, Integer> df = new HashMap<>();
+    long total = 0;
+    for (Chunk c : corpus) {
+      Map<String, Integer> tf = new HashMap<>();
+      for (String t : Bm25Index.tokens(c.text())) tf.merge(t, 1, Integer::sum);
+      tf.keySet().forEach(t -> df.merge(t, 1, Integer::sum));
+      tfs.add(tf);
+      total += tf.values().stream().mapToInt(Integer::intValue).sum();
+    }
+    double avg = (double) total / corpus.size();
+    List<Double> scored = new ArrayList<>();
+    for (int d = 0; d < corpus.size(); d++) {
+      Map<String, Integer> tf = tfs.get(d);
+      int length = tf.values().stream().mapToInt(Integer::intValue).sum();
+      double score = 0;
+      boolean any = false;
+      for (String t : new LinkedHashSet<>(Bm25Index.tokens(query))) {
+        Integer f = tf.get(t);
+        if (f == null) continue;
+        any = true;
+        double idf = Math.log(1 + (corpus.size() - df.get(t) + 0.5) / (df.get(t) + 0.5));
+        score += idf * f * (K1 + 1) / (f + K1 * (1 - B + B * length / avg));
+      }
+      if (any) scored.add(score);
+    }
+    scored.sort(Comparator.reverseOrder());
+    return scored.stream().limit(topK).mapToDouble(Double::doubleValue).toArray();
+  }
+}
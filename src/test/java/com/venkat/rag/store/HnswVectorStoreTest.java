@@ -0,0 +1,73 @@
+package com.venkat.rag.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static com.venkat.rag.store.InMemoryVectorStoreTest.record;
+import static com.venkat.rag.store.InMemoryVectorStoreTest.vector;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswVectorStoreTest {
+
+  @Test
+  void returnsTopKWhenMostNodesAreHidden() {
+    HnswVectorStore hnsw = new HnswVectorStore(16, 200, 64, 0.99);
+    InMemoryVectorStore exact = new InMemoryVectorStore(1, 8192, "none", 4);
+    Random rnd = new Random(1);
+    for (int i = 0; i < 2000; i++) {
+      float[] v = vector(rnd);
+      hnsw.upsert(record(i, v, "s"));
+      exact.upsert(record(i, v, "s"));
+    }
+    List<String> gone = IntStream.range(0, 1800).mapToObj(i -> "c" + i).toList();
+    hnsw.delete(gone);
+    exact.delete(gone);
+    assertEquals(0, hnsw.rebuilds());
+
+    int hits = 0;
+    for (int q = 0; q < 50; q++) {
+      float[] query = vector(rnd);
+      List<VectorStore.ScoredRecord> got = hnsw.search(query, 20);
+      assertEquals(20, got.size());
+      Set<String> truth = new HashSet<>();
+      exact.search(query, 20).forEach(r -> truth.add(r.record().id()));
+      for (VectorStore.ScoredRecord r : got) if (truth.contains(r.record().id())) hits++;
+    }
+    assertTrue(hits >= 50 * 20 * 0.95, "recall " + hits / 1000.0);
+  }
+
+  @Test
+  void hugeTopKReturnsEveryLiveNode() {
+    HnswVectorStore hnsw = new HnswVectorStore(16, 100, 64, 0.5);
+    Random rnd = new Random(4);
+    for (int i = 0; i < 40; i++) hnsw.upsert(record(i, vector(rnd), i % 2 == 0 ? "even" : "odd"));
+    hnsw.delete(List.of("c0", "c1"));
+    assertEquals(38, hnsw.search(vector(rnd), Integer.MAX_VALUE).size());
+    assertEquals(19, hnsw.search(vector(rnd), 2_000_000_000, new SearchFilter(null, Set.of("even"), null)).size());
+  }
+
+  @Test
+  void rebuildsOnceHiddenNodesDominate() {
+    HnswVectorStore hnsw = new HnswVectorStore(8, 100, 32, 0.5);
+    Random rnd = new Random(2);
+    float[][] latest = new float[300][];
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < latest.length; i++) {
+        latest[i] = vector(rnd);
+        hnsw.upsert(record(i, latest[i], "s"));
+      }
+    }
+
+    assertEquals(300, hnsw.size());
+    assertTrue(hnsw.rebuilds() > 0);
+    assertTrue(hnsw.graphNodes() < 300 + 1024 + 300, "graph nodes " + hnsw.graphNodes());
+    for (int i = 0; i < latest.length; i++) {
+      assertEquals("c" + i, hnsw.search(latest[i], 1).get(0).record().id());
+    }
+  }
+}
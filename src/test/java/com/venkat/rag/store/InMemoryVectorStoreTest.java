@@ -0,0 +1,112 @@
+package com.venkat.rag.store;
+
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.model.VectorRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryVectorStoreTest {
+  private static final int DIM = 16;
+
+  @Test
+  void reIngestReclaimsSupersededSlots() {
+    InMemoryVectorStore store = new InMemoryVectorStore(1, 8192, "none", 4);
+    Random rnd = new Random(7);
+    float[][] latest = new float[100][];
+    for (int round = 0; round < 50; round++) {
+      for (int i = 0; i < latest.length; i++) {
+        latest[i] = vector(rnd);
+        store.upsert(record(i, latest[i], "src-" + (i % 3)));
+      }
+    }
+
+    assertEquals(100, store.size());
+    assertTrue(store.compactions() > 0);
+    assertTrue(store.deadRows() <= 1024 + 100, "dead rows " + store.deadRows());
+    for (int i = 0; i < latest.length; i++) {
+      VectorStore.ScoredRecord top = store.search(latest[i], 1).get(0);
+      assertEquals("c" + i, top.record().id());
+      assertEquals(1.0, top.score(), 1e-5);
+    }
+    SearchFilter bySource = new SearchFilter(null, Set.of("src-1"), null);
+    List<VectorStore.ScoredRecord> filtered = store.search(latest[1], 100, bySource);
+    assertEquals(33, filtered.size());
+    assertTrue(filtered.stream().allMatch(r -> r.record().payload().source().equals("src-1")));
+  }
+
+  @Test
+  void deletesAreReclaimed() {
+    InMemoryVectorStore store = new InMemoryVectorStore(1, 8192, "int8", 4);
+    Random rnd = new Random(11);
+    for (int i = 0; i < 3000; i++) store.upsert(record(i, vector(rnd), "s"));
+    store.delete(java.util.stream.IntStream.range(0, 2900).mapToObj(i -> "c" + i).toList());
+
+    assertEquals(100, store.size());
+    assertEquals(1, store.compactions());
+    assertEquals(0, store.deadRows());
+    List<VectorStore.ScoredRecord> all = store.search(vector(rnd), 200);
+    assertEquals(100, all.size());
+    assertTrue(all.stream().allMatch(r -> Integer.parseInt(r.record().id().substring(1)) >= 2900));
+  }
+
+  @Test
+  void hugeTopKReturnsEveryRowWithoutSizingHeapsByIt() {
+    Random rnd = new Random(13);
+    for (String quantization : List.of("none", "int8", "binary")) {
+      InMemoryVectorStore store = new InMemoryVectorStore(1, 1024, quantization, 4);
+      for (int i = 0; i < 50; i++) store.upsert(record(i, vector(rnd), "s"));
+      assertEquals(50, store.search(vector(rnd), Integer.MAX_VALUE).size(), quantization);
+      assertEquals(50, store.search(vector(rnd), 2_000_000_000, new SearchFilter(null, Set.of("s"), null)).size());
+    }
+  }
+
+  @Test
+  void searchesStayConsistentWhileCompacting() throws Exception {
+    InMemoryVectorStore store = new InMemoryVectorStore(2, 1024, "none", 4);
+    Random seed = new Random(3);
+    for (int i = 0; i < 200; i++) store.upsert(record(i, vector(seed), "s"));
+    java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+    Thread writer = new Thread(() -> {
+      Random rnd = new Random(5);
+      for (int n = 0; n < 20_000; n++) store.upsert(record(rnd.nextInt(200), vector(rnd), "s"));
+      done.set(true);
+    });
+    writer.start();
+    Random rnd = new Random(9);
+    while (!done.get()) {
+      float[] q = vector(rnd);
+      // rows superseded between scoring and materializing are dropped, so hits may be short here
+      List<VectorStore.ScoredRecord> hits = store.search(q, 10);
+      for (VectorStore.ScoredRecord h : hits) assertEquals(cosine(q, h.record().vector()), h.score(), 1e-4);
+    }
+    writer.join();
+    assertTrue(store.compactions() > 0);
+    assertEquals(200, store.size());
+    assertEquals(10, store.search(vector(rnd), 10).size());
+  }
+
+  private static double cosine(float[] a, float[] b) {
+    double dot = 0, na = 0, nb = 0;
+    for (int i = 0; i < a.length; i++) {
+      dot += a[i] * b[i];
+      na += a[i] * a[i];
+      nb += b[i] * b[i];
+    }
+    return dot / Math.sqrt(na * nb);
+  }
+
+  static VectorRecord record(int i, float[] v, String source) {
+    return new VectorRecord("c" + i, v, new Chunk("c" + i, "d" + i, "t", source, 0, "text " + i));
+  }
+
+  static float[] vector(Random rnd) {
+    float[] v = new float[DIM];
+    for (int i = 0; i < DIM; i++) v[i] = (float) rnd.nextGaussian();
+    return v;
+  }
+}
@@ -0,0 +1,83 @@
+package com.venkat.rag.store;
+
+import com.venkat.rag.model.VectorRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Recall@10 of the quantized scan + exact rescore against the float scan, on clustered data. */
+class QuantizedSearchTest {
+  private static final int DIM = 64;
+  private static final int ROWS = 5000;
+  private static final int QUERIES = 100;
+
+  private final Random rnd = new Random(5);
+  private final float[][] centers = new float[50][DIM];
+  private final float[][] data = new float[ROWS][];
+  private final InMemoryVectorStore exact = new InMemoryVectorStore(1, 8192, "none", 4);
+
+  QuantizedSearchTest() {
+    for (float[] c : centers) for (int i = 0; i < DIM; i++) c[i] = (float) rnd.nextGaussian();
+    for (int j = 0; j < ROWS; j++) {
+      data[j] = nearCenter(rnd);
+      exact.upsert(new VectorRecord("c" + j, data[j], null));
+    }
+  }
+
+  @Test
+  void int8RescoreMatchesExactSearch() {
+    assertTrue(recall("int8", 4) >= 0.99);
+  }
+
+  @Test
+  void binaryNeedsOversamplingAndThenRecovers() {
+    double without = recall("binary", 1);
+    double with = recall("binary", 10);
+    assertTrue(without < 0.5, "binary without oversampling " + without);
+    assertTrue(with >= 0.95, "binary with oversampling " + with);
+  }
+
+  @Test
+  void rescoredScoresAreExactCosine() {
+    InMemoryVectorStore store = load("binary", 10);
+    float[] q = nearCenter(new Random(8));
+    List<VectorStore.ScoredRecord> hits = store.search(q, 10);
+    List<VectorStore.ScoredRecord> truth = exact.search(q, 10);
+    for (int i = 0; i < hits.size(); i++) {
+      if (hits.get(i).record().id().equals(truth.get(i).record().id())) {
+        assertEquals(truth.get(i).score(), hits.get(i).score(), 1e-5);
+      }
+    }
+  }
+
+  private double recall(String mode, int oversample) {
+    InMemoryVectorStore store = load(mode, oversample);
+    Random queries = new Random(6);
+    int hits = 0;
+    for (int t = 0; t < QUERIES; t++) {
+      float[] q = nearCenter(queries);
+      Set<String> truth = new HashSet<>();
+      exact.search(q, 10).forEach(r -> truth.add(r.record().id()));
+      for (VectorStore.ScoredRecord r : store.search(q, 10)) if (truth.contains(r.record().id())) hits++;
+    }
+    return hits / (QUERIES * 10.0);
+  }
+
+  private InMemoryVectorStore load(String mode, int oversample) {
+    InMemoryVectorStore store = new InMemoryVectorStore(1, 8192, mode, oversample);
+    for (int j = 0; j < ROWS; j++) store.upsert(new VectorRecord("c" + j, data[j], null));
+    return store;
+  }
+
+  private float[] nearCenter(Random r) {
+    float[] c = centers[r.nextInt(centers.length)];
+    float[] v = new float[DIM];
+    for (int i = 0; i < DIM; i++) v[i] = c[i] + 0.5f * (float) r.nextGaussian();
+    return v;
+  }
+}
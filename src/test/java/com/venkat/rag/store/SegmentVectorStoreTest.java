@@ -0,0 +1,118 @@
+package com.venkat.rag.store;
+
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.model.VectorRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.venkat.rag.store.InMemoryVectorStoreTest.record;
+import static com.venkat.rag.store.InMemoryVectorStoreTest.vector;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentVectorStoreTest {
+  @TempDir
+  Path dir;
+
+  /** No timed flush and no size-triggered flush: only explicit flush() and mergeIfNeeded() write. */
+  private SegmentVectorStore open(int maxSegments) throws IOException {
+    return new SegmentVectorStore(dir.toString(), Integer.MAX_VALUE, 3_600_000, maxSegments, Integer.MAX_VALUE);
+  }
+
+  @Test
+  void flushedRowsSurviveACrashAndMemtableRowsDoNot() throws IOException {
+    SegmentVectorStore store = open(8);
+    Random rnd = new Random(1);
+    float[][] v = new float[110][];
+    for (int i = 0; i < 100; i++) store.upsert(record(i, v[i] = vector(rnd), "s"));
+    store.flush();
+    for (int i = 100; i < 110; i++) store.upsert(record(i, v[i] = vector(rnd), "s"));
+
+    // reopen without close(): whatever was not flushed is gone, nothing committed is
+    SegmentVectorStore reopened = open(8);
+    assertEquals(100, reopened.size());
+    assertEquals("c42", reopened.search(v[42], 1).get(0).record().id());
+    assertNotEquals("c105", reopened.search(v[105], 1).get(0).record().id());
+  }
+
+  @Test
+  void nullPayloadFieldsRoundTripAsNull() throws IOException {
+    SegmentVectorStore store = open(8);
+    float[] v = vector(new Random(2));
+    store.upsert(new VectorRecord("n", v, new Chunk("n", "doc", null, null, 3, "")));
+    store.flush();
+
+    Chunk back = open(8).search(v, 1).get(0).record().payload();
+    assertEquals("doc", back.documentId());
+    assertNull(back.documentTitle());
+    assertNull(back.source());
+    assertEquals("", back.text());
+    assertEquals(3, back.chunkIndex());
+  }
+
+  @Test
+  void hugeTopKReturnsEveryLiveRow() throws IOException {
+    SegmentVectorStore store = open(10);
+    Random rnd = new Random(5);
+    for (int i = 0; i < 25; i++) {
+      store.upsert(record(i, vector(rnd), "s"));
+      if (i % 10 == 9) store.flush(); // two segments, then the memtable
+    }
+    store.delete(List.of("c3"));
+    assertEquals(24, store.search(vector(rnd), Integer.MAX_VALUE).size());
+    assertEquals(24, store.search(vector(rnd), 2_000_000_000, new SearchFilter(null, Set.of("s"), null)).size());
+  }
+
+  @Test
+  void mergeKeepsRowsShadowedOnlyByTheMemtable() throws IOException {
+    SegmentVectorStore store = open(2);
+    Random rnd = new Random(3);
+    float[][] v = new float[30][];
+    for (int seg = 0; seg < 3; seg++) {
+      for (int i = seg * 10; i < seg * 10 + 10; i++) store.upsert(record(i, v[i] = vector(rnd), "s"));
+      store.flush();
+    }
+    float[] newer = vector(rnd);
+    store.upsert(record(5, newer, "s")); // memtable only
+    store.delete(List.of("c6"));         // memtable tombstone only
+    store.mergeIfNeeded();
+
+    assertEquals(29, store.size());
+    assertEquals(1.0, store.search(newer, 1).get(0).score(), 1e-5);
+    assertNotEquals("c6", store.search(v[6], 1).get(0).record().id());
+
+    // crash before the memtable is flushed: the merged segment still has the old c5 and c6
+    SegmentVectorStore reopened = open(2);
+    assertEquals(30, reopened.size());
+    VectorStore.ScoredRecord c5 = reopened.search(v[5], 1).get(0);
+    assertEquals("c5", c5.record().id());
+    assertEquals(1.0, c5.score(), 1e-5);
+    assertEquals("c6", reopened.search(v[6], 1).get(0).record().id());
+  }
+
+  @Test
+  void mergeDropsRowsSupersededOnDisk() throws IOException {
+    SegmentVectorStore store = open(2);
+    Random rnd = new Random(4);
+    for (int seg = 0; seg < 2; seg++) {
+      for (int i = 0; i < 10; i++) store.upsert(record(i, vector(rnd), "s"));
+      store.flush();
+    }
+    float[] latest = vector(rnd);
+    store.upsert(record(3, latest, "s"));
+    store.delete(List.of("c4"));
+    store.flush();
+    store.mergeIfNeeded();
+
+    SegmentVectorStore reopened = open(2);
+    assertEquals(9, reopened.size());
+    assertEquals("c3", reopened.search(latest, 1).get(0).record().id());
+    assertEquals(1.0, reopened.search(latest, 1).get(0).score(), 1e-5);
+    assertTrue(reopened.search(latest, 20).stream().noneMatch(r -> r.record().id().equals("c4")));
+  }
+}
@@ -0,0 +1,92 @@
+package com.venkat.rag.store;
+
+import com.venkat.rag.model.Chunk;
+import com.venkat.rag.model.VectorRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static com.venkat.rag.store.InMemoryVectorStoreTest.record;
+import static com.venkat.rag.store.InMemoryVectorStoreTest.vector;
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The same writes and queries give the same top-K from every embedded store. */
+class VectorStoreParityTest {
+  @TempDir
+  Path dir;
+
+  @Test
+  void embeddedStoresAgree() throws IOException {
+    InMemoryVectorStore memory = new InMemoryVectorStore(2, 1024, "none", 4);
+    HnswVectorStore hnsw = new HnswVectorStore(16, 400, 400, 0.5);
+    SegmentVectorStore segment = new SegmentVectorStore(dir.toString(), 500, 3_600_000, 2, Integer.MAX_VALUE);
+    List<VectorStore> stores = List.of(memory, hnsw, segment);
+
+    Random rnd = new Random(21);
+    for (int i = 0; i < 1500; i++) {
+      var r = record(i % 1200, vector(rnd), "src-" + (i % 4)); // the last 300 re-upsert ids 0..299
+      stores.forEach(s -> s.upsert(r));
+      if (i % 500 == 499) segment.flush();
+    }
+    List<String> deleted = IntStream.range(600, 700).mapToObj(i -> "c" + i).toList();
+    stores.forEach(s -> s.delete(deleted));
+    segment.mergeIfNeeded();
+
+    SearchFilter filter = new SearchFilter(null, Set.of("src-1", "src-3"), null);
+    int hnswHits = 0;
+    for (int q = 0; q < 40; q++) {
+      float[] query = vector(rnd);
+      List<String> expected = ids(memory.search(query, 10));
+      assertEquals(10, expected.size());
+      assertEquals(expected, ids(segment.search(query, 10)));
+      List<String> approx = ids(hnsw.search(query, 10));
+      assertEquals(10, approx.size());
+      hnswHits += (int) approx.stream().filter(expected::contains).count();
+
+      List<String> filtered = ids(memory.search(query, 10, filter));
+      assertEquals(filtered, ids(segment.search(query, 10, filter)));
+      assertEquals(filtered, ids(hnsw.search(query, 10, filter)));
+    }
+    assertTrue(hnswHits >= 40 * 10 * 0.98, "hnsw recall " + hnswHits / 400.0);
+    assertEquals(1100, memory.size());
+    assertEquals(1100, hnsw.size());
+    assertEquals(1100, segment.size());
+  }
+
+  @Test
+  void nullPayloadFieldsNeverMatchAFilter() throws IOException {
+    List<VectorStore> stores = List.of(new InMemoryVectorStore(1, 1024, "none", 1), new HnswVectorStore(16, 100, 100, 0.5),
+        new SegmentVectorStore(dir.toString(), 1000, 3_600_000, 2, Integer.MAX_VALUE)); // rows stay in the memtable
+    Bm25Index lexical = new Bm25Index(true, 1.2, 0.75, "", stores.get(0));
+    Random rnd = new Random(22);
+    for (int i = 0; i < 20; i++) {
+      var r = i % 2 == 0 ? record(i, vector(rnd), "wiki")
+          : new VectorRecord("c" + i, vector(rnd), new Chunk("c" + i, null, null, null, 0, "text " + i));
+      stores.forEach(s -> s.upsert(r));
+      lexical.index(List.of(r.payload()));
+    }
+
+    for (SearchFilter filter : List.of(new SearchFilter(null, Set.of("wiki"), null),
+        new SearchFilter(Set.of("d0", "d2"), null, null), new SearchFilter(null, null, Set.of("t")))) {
+      float[] query = vector(rnd);
+      for (VectorStore store : stores) {
+        List<VectorStore.ScoredRecord> hits = store.search(query, 5, filter);
+        assertFalse(hits.isEmpty(), store.getClass().getSimpleName());
+        hits.forEach(h -> assertTrue(filter.matches(h.record().payload())));
+      }
+      List<VectorStore.ScoredRecord> hits = lexical.search("text", 5, filter);
+      assertFalse(hits.isEmpty());
+      hits.forEach(h -> assertTrue(filter.matches(h.record().payload())));
+    }
+  }
+
+  private static List<String> ids(List<VectorStore.ScoredRecord> results) {
+    return results.stream().map(r -> r.record().id()).toList();
+  }
+}